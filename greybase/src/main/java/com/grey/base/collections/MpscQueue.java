@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.base.collections;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free FIFO queue, which may be added to by multiple threads concurrently, but must only ever be
+ * removed from by a single consumer thread.
+ * <br>
+ * This is a linked queue in the style of Dmitry Vyukov's MPSC design. Producers append with a single atomic swap of
+ * the tail pointer, so they never block or retry, no matter how heavily contended the queue is, and a batch of items
+ * can be appended in one swap. The consumer never contends with the producers at all.
+ * <br>
+ * Note that there is a brief window between a producer swapping the tail and linking its item to the previous tail,
+ * during which the consumer cannot see the new item (or any later ones). remove() will return null in that case, the
+ * same as if the queue was empty, so the consumer must rely on the producer's subsequent signal (whatever that is)
+ * to tell it to try again, and must not rely on isEmpty() to decide whether a signal is needed.
+ */
+public final class MpscQueue<T>
+{
+	private static final class Node<T> {
+		volatile Node<T> next;
+		T item;
+		Node(T item) {this.item = item;}
+	}
+
+	private final AtomicReference<Node<T>> tail; //last node in the queue - contended by producers
+	private Node<T> head; //stub node preceding the first item - only accessed by the consumer
+
+	public MpscQueue()
+	{
+		head = new Node<>(null);
+		tail = new AtomicReference<>(head);
+	}
+
+	// Can be called by any thread
+	public void add(T item)
+	{
+		Node<T> node = new Node<>(item);
+		append(node, node);
+	}
+
+	// Can be called by any thread - the items are appended atomically, as a contiguous sequence
+	public void add(T[] items, int off, int len)
+	{
+		if (len == 0) return;
+		Node<T> first = new Node<>(items[off]);
+		Node<T> last = first;
+		for (int idx = off + 1; idx != off + len; idx++) {
+			Node<T> node = new Node<>(items[idx]);
+			last.next = node;
+			last = node;
+		}
+		append(first, last);
+	}
+
+	// Can be called by any thread - the items are appended atomically, as a contiguous sequence
+	public void add(java.util.List<T> items)
+	{
+		if (items.size() == 0) return;
+		Node<T> first = new Node<>(items.get(0));
+		Node<T> last = first;
+		for (int idx = 1; idx != items.size(); idx++) {
+			Node<T> node = new Node<>(items.get(idx));
+			last.next = node;
+			last = node;
+		}
+		append(first, last);
+	}
+
+	// Must only be called by the consumer thread
+	public T remove()
+	{
+		Node<T> next = head.next;
+		if (next == null) return null;
+		T item = next.item;
+		next.item = null; //next becomes the new stub, so don't let it retain the item
+		head = next;
+		return item;
+	}
+
+	// Must only be called by the consumer thread
+	public boolean isEmpty()
+	{
+		return (head.next == null);
+	}
+
+	private void append(Node<T> first, Node<T> last)
+	{
+		Node<T> prev = tail.getAndSet(last);
+		prev.next = first;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MpscQueue/empty="+isEmpty();
+	}
+}
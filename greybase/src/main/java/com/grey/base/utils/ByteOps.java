@@ -17,6 +17,12 @@ public final class ByteOps
 
 	public static final byte[] EMPTYBUF = new byte[0];
 
+	// Reads 8 bytes at a time from a byte array (at any offset), for the SWAR scan in indexOf()
+	private static final java.lang.invoke.VarHandle LONGVIEW = java.lang.invoke.MethodHandles.byteArrayViewVarHandle(long[].class, java.nio.ByteOrder.LITTLE_ENDIAN);
+	private static final long SWAR_ONES = 0x0101010101010101L;
+	private static final long SWAR_HIGHS = 0x8080808080808080L;
+	private static final int SWAR_MINLEN = 16; //below this, the plain byte-by-byte loop is just as fast
+
 	public static byte[] getBytesUTF16(CharSequence str) {return getBytesUTF16(str, 0, str.length());}
 	public static byte[] getBytesUTF16(CharSequence str, int off, int len) {return getBytesUTF16(str, off, len, null, 0);}
 	public static byte[] getBytesUTF16(CharSequence str, int coff, int clen, byte[] barr, int boff) {return getBytesUTF16(str, null, coff, clen, barr, boff);}
@@ -134,12 +140,28 @@ public final class ByteOps
 		return cnt;
 	}
 
-	// take a value argument of int type just to simplify the calling syntax
+	/*
+	 * Take a value argument of int type just to simplify the calling syntax.
+	 * Longer ranges are scanned 8 bytes at a time, using the SWAR (SIMD-within-a-register) trick of XOR'ing each word
+	 * with the target byte replicated into every lane, so that matching bytes become zero, and then detecting zero bytes
+	 * with (x - 0x01..01) & ~x & 0x80..80. That expression can only give false positives in bytes above a genuine zero
+	 * byte (due to the borrow), so reading the words little-endian means its lowest set bit always marks the first match.
+	 */
 	public static int indexOf(byte[] container, int coff, int clen, int val)
 	{
 		byte bval = (byte)(val);
 		int lmt = coff + clen;
-		for (int idx = coff; idx != lmt; idx++) {
+		int idx = coff;
+		if (clen >= SWAR_MINLEN) {
+			long pattern = (bval & 0xFFL) * SWAR_ONES;
+			int wordlmt = lmt - LONGBYTES;
+			for (; idx <= wordlmt; idx += LONGBYTES) {
+				long word = (long)LONGVIEW.get(container, idx) ^ pattern;
+				long hits = (word - SWAR_ONES) & ~word & SWAR_HIGHS;
+				if (hits != 0) return idx + (Long.numberOfTrailingZeros(hits) >>> 3);
+			}
+		}
+		for (; idx != lmt; idx++) {
 			if (container[idx] == bval) return idx;
 		}
 		return -1;
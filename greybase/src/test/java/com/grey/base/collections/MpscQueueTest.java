@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.base.collections;
+
+public class MpscQueueTest
+{
+	@org.junit.Test
+	public void testSingleThread()
+	{
+		MpscQueue<String> q = new MpscQueue<>();
+		org.junit.Assert.assertTrue(q.isEmpty());
+		org.junit.Assert.assertNull(q.remove());
+
+		q.add("One");
+		q.add(new String[]{"x", "Two", "Three", "y"}, 1, 2);
+		q.add(java.util.Arrays.asList("Four", "Five"));
+		q.add(new String[0], 0, 0);
+		q.add(java.util.Collections.emptyList());
+		org.junit.Assert.assertFalse(q.isEmpty());
+		org.junit.Assert.assertEquals("One", q.remove());
+		org.junit.Assert.assertEquals("Two", q.remove());
+		org.junit.Assert.assertEquals("Three", q.remove());
+		org.junit.Assert.assertEquals("Four", q.remove());
+		org.junit.Assert.assertEquals("Five", q.remove());
+		org.junit.Assert.assertTrue(q.isEmpty());
+		org.junit.Assert.assertNull(q.remove());
+
+		q.add("Six");
+		org.junit.Assert.assertEquals("Six", q.remove());
+		org.junit.Assert.assertNull(q.remove());
+	}
+
+	@org.junit.Test
+	public void testMultipleProducers() throws InterruptedException
+	{
+		final int producers = 4;
+		final int perProducer = 50_000;
+		MpscQueue<int[]> q = new MpscQueue<>();
+		Thread[] threads = new Thread[producers];
+		for (int idx = 0; idx != producers; idx++) {
+			final int id = idx;
+			threads[idx] = new Thread(() -> {
+				for (int seq = 0; seq != perProducer; seq++) {
+					if (seq % 10 == 0) {
+						int[][] batch = new int[][]{new int[]{id, seq}};
+						q.add(batch, 0, 1);
+					} else {
+						q.add(new int[]{id, seq});
+					}
+				}
+			});
+			threads[idx].start();
+		}
+
+		// each producer's items must arrive intact and in the order it added them
+		int[] nextSeq = new int[producers];
+		int total = 0;
+		while (total != producers * perProducer) {
+			int[] item = q.remove();
+			if (item == null) {
+				Thread.yield();
+				continue;
+			}
+			org.junit.Assert.assertEquals(nextSeq[item[0]], item[1]);
+			nextSeq[item[0]]++;
+			total++;
+		}
+		for (int idx = 0; idx != producers; idx++) {
+			threads[idx].join();
+		}
+		org.junit.Assert.assertTrue(q.isEmpty());
+	}
+}
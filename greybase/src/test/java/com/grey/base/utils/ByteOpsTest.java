@@ -301,6 +301,70 @@ public class ByteOpsTest
 		org.junit.Assert.assertEquals(-1, idx);
 	}
 
+	// the SWAR scan only kicks in for longer ranges, so check every match position and alignment against a naive scan
+	@org.junit.Test
+	public void testIndexOfWide()
+	{
+		byte[] arr = new byte[100];
+		for (int idx = 0; idx != arr.length; idx++) arr[idx] = (byte)(idx + 150); //includes negative bytes and zero
+		for (int off = 0; off != 9; off++) {
+			for (int len = 0; off + len <= arr.length; len++) {
+				for (int val : new int[]{0, 1, 127, 128, 150, 200, 255, arr[off+len/2] & 0xFF, 3}) {
+					org.junit.Assert.assertEquals("off="+off+"/len="+len+"/val="+val, naiveIndexOf(arr, off, len, val), ByteOps.indexOf(arr, off, len, val));
+				}
+			}
+		}
+		// a repeated byte must be reported at its first occurrence, and neighbouring bytes mustn't cause false positives
+		arr = new byte[64];
+		java.util.Arrays.fill(arr, (byte)1);
+		for (int pos = 0; pos != arr.length; pos++) {
+			java.util.Arrays.fill(arr, pos, arr.length, (byte)0);
+			org.junit.Assert.assertEquals(pos, ByteOps.indexOf(arr, 0, arr.length, 0));
+			org.junit.Assert.assertEquals(pos == 0 ? -1 : 0, ByteOps.indexOf(arr, 0, arr.length, 1));
+			java.util.Arrays.fill(arr, (byte)1);
+			arr[pos] = (byte)0x81;
+			org.junit.Assert.assertEquals(pos, ByteOps.indexOf(arr, 0, arr.length, 0x81));
+			org.junit.Assert.assertEquals(-1, ByteOps.indexOf(arr, 0, arr.length, 0x80));
+			org.junit.Assert.assertEquals(-1, ByteOps.indexOf(arr, 0, arr.length, 0));
+			arr[pos] = 1;
+		}
+	}
+
+	// Not a real assertion-based test - just a timing comparison of the SWAR scan against a plain loop, across buffer sizes
+	@org.junit.Test
+	public void bulktestIndexOf()
+	{
+		int[] sizes = new int[]{64, 1024, 16*1024, 256*1024};
+		long total = 0;
+		long expect = 0;
+		System.out.println("ByteOps.indexOf() bulktest:");
+		for (int siz : sizes) {
+			byte[] arr = new byte[siz];
+			java.util.Arrays.fill(arr, (byte)'x');
+			arr[siz - 1] = '\n';
+			int loops = Math.max(1, (32 * 1024 * 1024) / siz);
+			expect += 4L * loops * (siz - 1);
+			for (int warm = 0; warm != 2; warm++) { //first pass is a warmup
+				long time1 = System.nanoTime();
+				for (int loop = 0; loop != loops; loop++) total += naiveIndexOf(arr, 0, siz, '\n');
+				long time2 = System.nanoTime();
+				for (int loop = 0; loop != loops; loop++) total += ByteOps.indexOf(arr, 0, siz, '\n');
+				long time3 = System.nanoTime();
+				if (warm == 0) continue;
+				System.out.println("- size="+siz+" x "+loops+": naive="+((time2-time1)/1000)+"us, swar="+((time3-time2)/1000)+"us");
+			}
+		}
+		org.junit.Assert.assertEquals(expect, total); //also stops the JIT discarding the loops
+	}
+
+	private static int naiveIndexOf(byte[] arr, int off, int len, int val)
+	{
+		for (int idx = off; idx != off + len; idx++) {
+			if (arr[idx] == (byte)val) return idx;
+		}
+		return -1;
+	}
+
 	@org.junit.Test
 	public void testCompare()
 	{
@@ -12,7 +12,6 @@ class EndPointTCP
 {
 	private QueryHandle qryh;
 	private java.net.InetSocketAddress srvaddr;
-	private boolean have_rsplen;
 
 	EndPointTCP(com.grey.naf.reactor.Dispatcher d, com.grey.naf.BufferGenerator spec) {
 		super(d, spec, spec);
@@ -22,7 +21,6 @@ class EndPointTCP
 	{
 		qryh = qh;
 		srvaddr = addr;
-		have_rsplen = false;
 		qryh.rslvr.stats_tcpconns++;
 		initChannelMonitor();
 		connect(srvaddr);
@@ -42,18 +40,12 @@ class EndPointTCP
 		}
 		int server_ip = IP.convertIP(getRemoteIP());
 		if (qryh.repeatQuery(server_ip) != null) return; //the request has completed
-		getReader().receive(PacketDNS.TCPMSGLENSIZ); // now wait for response
+		getReader().receiveFramed(PacketDNS.TCPMSGLENSIZ, false, 0); // now wait for response
 	}
 
 	@Override
 	protected void ioReceived(ByteArrayRef rcvdata) throws java.io.IOException
 	{
-		if (!have_rsplen) {
-			have_rsplen = true;
-			int len = com.grey.base.utils.ByteOps.decodeInt(rcvdata.buffer(), rcvdata.offset(), 2);
-			getReader().receive(len);
-			return;
-		}
 		qryh.handleResponseTCP(rcvdata);
 	}
 
@@ -62,7 +62,7 @@ public class ServerDNS implements DispatcherRunnable
 		dnspkt = new PacketDNS(Math.max(PKTSIZ_TCP, PKTSIZ_UDP), DIRECTNIOBUFS, 0, dsptch);
 
 		listenerTCP = ConcurrentListener.create(dsptch, this, null, cfg.getListenerConfig());
-		transportUDP = new TransportUDP(d, this, listenerTCP.getIP(),listenerTCP.getPort());
+		transportUDP = new TransportUDP(d, this, listenerTCP.getIP(), listenerTCP.getPort(), cfg.getListenerConfig().isReusePort());
 		dsptch.getLogger().info("DNS-Server: Port="+cfg.getListenerConfig().getPort()+", directbufs="+DIRECTNIOBUFS+"; udpmax="+PKTSIZ_UDP+"; tcpmax="+PKTSIZ_TCP);
 
 		if (IGNORE_QTRAIL) dsptch.getLogger().info("DNS-Server: Will ignore trailing bytes in incoming queries");
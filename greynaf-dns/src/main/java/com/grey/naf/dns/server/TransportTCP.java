@@ -28,8 +28,6 @@ class TransportTCP
 	}
 	
 
-	private boolean have_rsplen;
-
 	TransportTCP(com.grey.naf.reactor.CM_Listener lstnr, com.grey.naf.BufferGenerator bufspec) {
 		super(lstnr, bufspec, bufspec);
 	}
@@ -37,19 +35,12 @@ class TransportTCP
 	@Override
 	protected void connected() throws java.io.IOException
 	{
-		have_rsplen = false;
-		getReader().receive(PacketDNS.TCPMSGLENSIZ);
+		getReader().receiveFramed(PacketDNS.TCPMSGLENSIZ, false, 0);
 	}
 
 	@Override
 	protected void ioReceived(ByteArrayRef rcvdata) throws java.io.IOException
 	{
-		if (!have_rsplen) {
-			have_rsplen = true;
-			int len = com.grey.base.utils.ByteOps.decodeInt(rcvdata.buffer(), rcvdata.offset(), 2);
-			getReader().receive(len);
-			return;
-		}
 		ServerDNS qryh = (ServerDNS)getListener().getController();
 		qryh.queryReceived(rcvdata, getRemoteAddress(), this);
 	}
@@ -19,8 +19,8 @@ class TransportUDP
 	@Override
 	public String getName() {return "DNS-Server-UDP";}
 
-	public TransportUDP(Dispatcher d, ServerDNS qh, InetAddress iface, int port) throws java.io.IOException {
-		super(d, new InetSocketAddress(iface, port), makeBufferGenerator(), ServerDNS.UDPSOCKBUFSIZ);
+	public TransportUDP(Dispatcher d, ServerDNS qh, InetAddress iface, int port, boolean reusePort) throws java.io.IOException {
+		super(d, new InetSocketAddress(iface, port), makeBufferGenerator(), ServerDNS.UDPSOCKBUFSIZ, reusePort);
 		qryh = qh;
 	}
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf;
+
+import com.grey.base.config.SysProps;
+import com.grey.base.utils.NIOBuffers;
+import com.grey.base.collections.ObjectPool;
+
+/*
+ * A per-Dispatcher pool of NIO buffers, whose sizes are rounded up to a power of two so that they can be shared
+ * between all the connections (and BufferGenerator configs) in the Dispatcher, regardless of their individual buffer
+ * sizes. Heap and direct buffers are pooled separately.
+ * The point is to let mostly idle connections hold their buffers only while they actually have data in hand, rather
+ * than for the lifetime of the connection.
+ *
+ * This class is not thread-safe, and may only be used by its Dispatcher's thread.
+ * If leak-checking is enabled, every outstanding buffer is tracked along with the stack where it was allocated, so
+ * that any which haven't been released by the time the Dispatcher exits can be reported, and any attempt to release a
+ * buffer twice is caught.
+ */
+public final class BufferArena
+{
+	public static final boolean LEAKCHECK = SysProps.get("greynaf.bufarena.leakcheck", false);
+	private static final int MAXSPARES = SysProps.get("greynaf.bufarena.maxspares", 1024); //max free buffers retained per size class
+	private static final int MINSHIFT = 9; //smallest size class is 512 bytes
+	private static final int MAXSHIFT = 20; //largest size class is 1MB - larger buffers are simply allocated and discarded
+
+	private final String name;
+	private final ObjectPool<java.nio.ByteBuffer>[] heapPools;
+	private final ObjectPool<java.nio.ByteBuffer>[] directPools;
+	private final java.util.Map<java.nio.ByteBuffer, Throwable> outstanding; //only used if LEAKCHECK is on
+
+	public String getName() {return name;}
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public BufferArena(String name)
+	{
+		this.name = name;
+		heapPools = new ObjectPool[MAXSHIFT - MINSHIFT + 1];
+		directPools = new ObjectPool[heapPools.length];
+		outstanding = (LEAKCHECK ? new java.util.IdentityHashMap<>() : null);
+	}
+
+	// The returned buffer is cleared, and its capacity might be larger than the requested size
+	public java.nio.ByteBuffer alloc(int siz, boolean direct)
+	{
+		final int cls = sizeClass(siz);
+		java.nio.ByteBuffer buf;
+		if (cls == -1) {
+			buf = NIOBuffers.create(siz, direct);
+		} else {
+			buf = getPool(cls, direct).extract();
+			buf.clear();
+		}
+		if (outstanding != null) outstanding.put(buf, new Throwable("BufferArena="+name+" allocated size="+siz+"/"+buf.capacity()));
+		return buf;
+	}
+
+	public void release(java.nio.ByteBuffer buf)
+	{
+		if (outstanding != null && outstanding.remove(buf) == null) {
+			throw new IllegalStateException("BufferArena="+name+" is releasing unknown or already released buffer="+buf);
+		}
+		final int cls = sizeClass(buf.capacity());
+		if (cls == -1 || buf.capacity() != (1 << (cls + MINSHIFT))) return; //not one of ours, so let it go
+		final ObjectPool<java.nio.ByteBuffer> pool = getPool(cls, buf.isDirect());
+		pool.store(buf);
+		pool.prune(MAXSPARES);
+	}
+
+	// Returns the number of buffers currently allocated from this arena, excluding the oversized ones
+	public int getActiveCount()
+	{
+		int cnt = 0;
+		for (int idx = 0; idx != heapPools.length; idx++) {
+			if (heapPools[idx] != null) cnt += heapPools[idx].getActiveCount();
+			if (directPools[idx] != null) cnt += directPools[idx].getActiveCount();
+		}
+		return cnt;
+	}
+
+	// Returns the allocation stacks of all the buffers that haven't been released, or null if leak-checking is not enabled
+	public java.util.Collection<Throwable> getLeaks()
+	{
+		return (outstanding == null ? null : new java.util.ArrayList<>(outstanding.values()));
+	}
+
+	private ObjectPool<java.nio.ByteBuffer> getPool(int cls, boolean direct)
+	{
+		ObjectPool<java.nio.ByteBuffer>[] pools = (direct ? directPools : heapPools);
+		ObjectPool<java.nio.ByteBuffer> pool = pools[cls];
+		if (pool == null) {
+			final int bufsiz = 1 << (cls + MINSHIFT);
+			pool = new ObjectPool<>(() -> NIOBuffers.create(bufsiz, direct));
+			pools[cls] = pool;
+		}
+		return pool;
+	}
+
+	// Returns -1 for sizes that exceed the largest size class
+	private static int sizeClass(int siz)
+	{
+		if (siz <= (1 << MINSHIFT)) return 0;
+		final int shift = 32 - Integer.numberOfLeadingZeros(siz - 1);
+		return (shift > MAXSHIFT ? -1 : shift - MINSHIFT);
+	}
+
+	@Override
+	public String toString() {
+		return "BufferArena[name="+name+", active="+getActiveCount()+", leakcheck="+LEAKCHECK+"]";
+	}
+}
@@ -13,10 +13,13 @@ public class BufferGenerator
 {
 	//defaults to false as Direct buffers don't have backing array in standard JDK implementation
 	public static final boolean directniobufs = SysProps.get("greynaf.nio.directbufs", false);
+	//stream receive buffers are linear by default, which means compacting them when they fill up with a partial message
+	public static final boolean ringniobufs = SysProps.get("greynaf.nio.ringbufs", false);
 	private static final BufferConfig DefaultConfig = new BufferConfig(0, null, null, null);
 
 	public final int rcvbufsiz;
 	public final boolean directbufs;
+	public final boolean ringbufs;
 	private final ObjectPool<java.nio.ByteBuffer> xmtpool;
 	private final java.nio.charset.CharsetEncoder chenc;
 
@@ -25,6 +28,7 @@ public class BufferGenerator
 	public BufferGenerator(BufferConfig cfg) {
 		rcvbufsiz = cfg.rcvbufsiz;
 		directbufs = cfg.directbufs;
+		ringbufs = cfg.ringbufs;
 
 		// ISO-8859-1 should be ok, but best to omit, so we can default to direct byte-copy
 		if (cfg.charset != null) {
@@ -81,9 +85,35 @@ public class BufferGenerator
 		xmtpool.store(buf);
 	}
 
+	// These variants draw from the given Dispatcher's buffer arena rather than our own transmit pool, if it has one.
+	// Buffers obtained from one source must obviously be released back to the same one.
+	public java.nio.ByteBuffer allocBuffer(int siz, BufferArena arena)
+	{
+		if (arena == null) return allocBuffer(siz);
+		return arena.alloc(siz, directbufs);
+	}
+
+	public void releaseBuffer(java.nio.ByteBuffer buf, BufferArena arena)
+	{
+		if (arena == null) {
+			releaseBuffer(buf);
+		} else {
+			arena.release(buf);
+		}
+	}
+
+	// The returned buffer's limit is set to rcvbufsiz, even if it came from the arena with a larger capacity
+	public java.nio.ByteBuffer borrowReadBuffer(BufferArena arena)
+	{
+		if (arena == null) return createReadBuffer();
+		java.nio.ByteBuffer buf = arena.alloc(rcvbufsiz, directbufs);
+		buf.limit(rcvbufsiz);
+		return buf;
+	}
+
 	@Override
 	public String toString() {
-		String txt = "BufferGenerator[rcvbuf="+rcvbufsiz+", directbufs="+directbufs+", xmtpool="+(xmtpool != null);
+		String txt = "BufferGenerator[rcvbuf="+rcvbufsiz+", directbufs="+directbufs+", ringbufs="+ringbufs+", xmtpool="+(xmtpool != null);
 		if (chenc != null) txt += ", charset="+chenc.charset().displayName();
 		txt += "]";
 		return txt;
@@ -94,18 +124,24 @@ public class BufferGenerator
 		public final int rcvbufsiz;
 		public final boolean withXmitPool;
 		public final boolean directbufs;
+		public final boolean ringbufs; //see IOExecReaderStream
 		public final String charset;
 
 		public BufferConfig(int rcvbufsiz, Boolean withXmitPool, Boolean directbufs, String charset) {
+			this(rcvbufsiz, withXmitPool, directbufs, null, charset);
+		}
+
+		public BufferConfig(int rcvbufsiz, Boolean withXmitPool, Boolean directbufs, Boolean ringbufs, String charset) {
 			this.rcvbufsiz = rcvbufsiz;
 			this.withXmitPool = (withXmitPool == null ? false : withXmitPool);
 			this.directbufs = (directbufs == null ? directniobufs : directbufs);
+			this.ringbufs = (ringbufs == null ? ringniobufs : ringbufs);
 			this.charset = charset;
 		}
 
 		@Override
 		public String toString() {
-			String txt = "BufferConfig[rcvbuf="+rcvbufsiz+", directbufs="+directbufs+", xmtpool="+withXmitPool;
+			String txt = "BufferConfig[rcvbuf="+rcvbufsiz+", directbufs="+directbufs+", ringbufs="+ringbufs+", xmtpool="+withXmitPool;
 			if (charset != null) txt += ", charset="+charset;
 			txt += "]";
 			return txt;
@@ -116,15 +152,17 @@ public class BufferGenerator
 			int rcvsiz = dflts.rcvbufsiz;
 			int xmtsiz = (dflts.withXmitPool ? 1 : 0);
 			boolean direct = dflts.directbufs;
+			boolean ring = dflts.ringbufs;
 			String charset = dflts.charset;
 			if (cfg != null) {
 				xpath = (xpath == null ? "" : xpath+"/");
 				rcvsiz = (int)cfg.getSize(xpath+"@recvsize", rcvsiz);
 				xmtsiz = (int)cfg.getSize(xpath+"@xmitsize", xmtsiz);
 				direct = cfg.getBool(xpath+"@direct", direct);
+				ring = cfg.getBool(xpath+"@ring", ring);
 				charset = cfg.getValue(xpath+"@charset", false, charset);
 			}
-			return new BufferConfig(rcvsiz, xmtsiz == 0 ? false : true, direct, charset);
+			return new BufferConfig(rcvsiz, xmtsiz == 0 ? false : true, direct, ring, charset);
 		}
 	}
 }
\ No newline at end of file
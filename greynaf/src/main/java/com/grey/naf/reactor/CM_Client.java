@@ -73,6 +73,7 @@ public abstract class CM_Client extends CM_TCP
 	{
 		if (success) {
 			setFlagCM(S_ISCONN);
+			if (JfrEvents.ENABLED) JfrEvents.channelConnected(this, true);
 			if (isPureSSL()) {
 				startSSL();
 			} else {
@@ -30,6 +30,7 @@ public abstract class CM_Listener
 	private final java.net.InetAddress srvip;
 	private final int srvport;
 	private final ServerFactory serverFactory;
+	private final CM_Listener acceptor; //non-null means we have no socket of our own, and serve the connections this accepts
 
 	private boolean inShutdown;
 	private boolean has_stopped;
@@ -42,20 +43,43 @@ public abstract class CM_Listener
 	public Object getController() {return controller;}
 	public SSLConfig getSSLConfig() {return sslconfig;}
 	public ServerFactory getServerFactory() {return serverFactory;}
+	public CM_Listener getAcceptor() {return acceptor;}
 
 	protected boolean stopListener() {return true;}
 	protected boolean inShutdown() {return inShutdown;}
 
 	protected CM_Listener(Dispatcher d, Object controller, EventListenerNAF eventListener, ListenerConfig config) throws java.io.IOException {
+		this(d, controller, eventListener, config, null);
+	}
+
+	// A non-null acceptor means this is a worker listener in a DispatcherGroup, which doesn't listen on a socket of its own but creates
+	// servers in its own Dispatcher to handle the connections accepted by the acceptor in another one.
+	CM_Listener(Dispatcher d, Object controller, EventListenerNAF eventListener, ListenerConfig config, CM_Listener acceptor) throws java.io.IOException {
 		super(d);
 		this.controller = controller;
+		this.acceptor = acceptor;
 		sslconfig = config.getConfigSSL();
 		String iface = config.getInterface();
 		int port = config.getPort();
 		int srvbacklog = config.getBacklog();
 
+		if (acceptor != null) {
+			name = acceptor.getName()+"@"+getDispatcher().getName();
+			srvip = acceptor.getIP();
+			srvport = acceptor.getPort();
+			serverFactory = config.getServerFactoryGenerator().apply(this);
+			setEventListener(eventListener);
+			getDispatcher().getApplicationContext().register(this);
+			getLogger().info("Listener="+name+" in Dispatcher="+getDispatcher().getName()+" created as worker for acceptor="+acceptor.getName()
+					+" in Dispatcher="+acceptor.getDispatcher().getName()+" - factory="+serverFactory);
+			return;
+		}
 		String lname = config.getName();
-		if (lname == null) lname = getDispatcher().getName()+":"+port;
+		if (lname == null) {
+			lname = getDispatcher().getName()+":"+port;
+		} else if (config.isReusePort()) {
+			lname += "@"+getDispatcher().getName(); //the same config is expected to be used by a listener in each of several Dispatchers
+		}
 		name = lname;
 
 		getLogger().info("Listener="+name+" in Dispatcher="+getDispatcher().getName()+" initialising on interface="+iface+", port="+port
@@ -65,6 +89,8 @@ public abstract class CM_Listener
 		java.net.InetAddress ipaddr = (iface == null ? null : com.grey.base.utils.IP.getHostByName(iface));
 		java.nio.channels.ServerSocketChannel srvchan = java.nio.channels.ServerSocketChannel.open();
 		java.net.ServerSocket srvsock = srvchan.socket();
+		boolean reusePort = (config.isReusePort() && enableReusePort(srvchan));
+		if (config.isReusePort() && !reusePort) getLogger().warn("Listener="+name+": SO_REUSEPORT is not supported on this platform");
 		srvsock.bind(new java.net.InetSocketAddress(ipaddr, port), srvbacklog);
 		srvip = srvsock.getInetAddress();
 		srvport = srvsock.getLocalPort();
@@ -76,12 +102,13 @@ public abstract class CM_Listener
 		initChannel(srvchan, true);
 
 		getLogger().info("Listener="+name+" bound to "+srvsock.getInetAddress()+":"+srvport+(port==0?"/dynamic":"")
-				         +(iface==null ? "" : " on interface="+iface)+" with backlog="+srvbacklog+" - factory="+serverFactory);
+				         +(iface==null ? "" : " on interface="+iface)+" with backlog="+srvbacklog+(reusePort ? ", reuseport" : "")+" - factory="+serverFactory);
 	}
 
 	@Override
 	public void startDispatcherRunnable() throws java.io.IOException {
 		getLogger().info("Listener="+getName()+": Starting up");
+		if (acceptor != null) return; //we have no socket to listen on
 		registerChannel();
 		enableListen();
 	}
@@ -28,6 +28,7 @@ public abstract class CM_Server extends CM_TCP
 	{
 		registerChannel(sockchan, true, true, false);
 		setEventListener(evtl);
+		if (JfrEvents.ENABLED) JfrEvents.channelConnected(this, false);
 
 		if (isPureSSL()) {
 			startSSL();
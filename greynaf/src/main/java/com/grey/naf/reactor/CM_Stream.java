@@ -12,6 +12,8 @@ public abstract class CM_Stream extends ChannelMonitor
 	private final IOExecReaderStream chanreader;
 	private final IOExecWriter chanwriter;
 	private SSLConnection sslconn;
+	private RateLimiter rdlimit;
+	private RateLimiter wrlimit;
 
 	protected abstract void ioReceived(ByteArrayRef rcvdata) throws java.io.IOException;
 
@@ -27,6 +29,7 @@ public abstract class CM_Stream extends ChannelMonitor
 	protected IOExecReaderStream getReader() {return chanreader;}
 	protected IOExecWriter getWriter() {return chanwriter;}
 	SSLConnection sslConnection() {return sslconn;}
+	boolean isWriteThrottled() {return isFlagSetCM(S_WRTHROTTLE);}
 
 	void indicateConnection() throws java.io.IOException {}
 	protected void disconnectLingerDone(boolean ok, CharSequence info, Throwable ex) {} //called later, if disconnect() returns False
@@ -34,8 +37,8 @@ public abstract class CM_Stream extends ChannelMonitor
 	public CM_Stream(Dispatcher d, com.grey.naf.BufferGenerator rbufspec, com.grey.naf.BufferGenerator wbufspec)
 	{
 		super(d);
-		chanreader = (rbufspec == null ? null : new com.grey.naf.reactor.IOExecReaderStream(rbufspec));
-		chanwriter = (wbufspec == null ? null : new com.grey.naf.reactor.IOExecWriter(wbufspec));
+		chanreader = (rbufspec == null ? null : new com.grey.naf.reactor.IOExecReaderStream(rbufspec, d.getBufferArena()));
+		chanwriter = (wbufspec == null ? null : new com.grey.naf.reactor.IOExecWriter(wbufspec, d.getBufferArena()));
 	}
 
 	protected void registerConnectedChannel(java.nio.channels.SelectableChannel chan, boolean takeOwnership)
@@ -53,12 +56,73 @@ public abstract class CM_Stream extends ChannelMonitor
 		registerChannel();
 		if (chanreader != null) chanreader.initChannel(this);
 		if (chanwriter != null) chanwriter.initChannel(this);
+		if (rdlimit != null) rdlimit.reset();
+		if (wrlimit != null) wrlimit.reset();
 	}
 
+	/*
+	 * Limits the rate at which we read from this connection to the given number of bytes per second, with bursts of up
+	 * to 'burst' bytes allowed after a quiet spell (zero means one second's worth). Once the limit is exceeded we stop
+	 * monitoring the connection for reads until enough time has passed to pay for the excess, so the peer gets held
+	 * back by TCP flow control without costing us any extra buffering.
+	 * A rate of zero removes the limit. The limits survive this object being reused for another connection, and the
+	 * token bucket starts off full on each one.
+	 * This only applies to data read via our IOExecReaderStream (including SSL), not to applications which do their
+	 * own reads.
+	 */
+	public void setReadRateLimit(long rate, long burst) throws java.io.IOException
+	{
+		if (rdlimit != null) {
+			rdlimit.cancel();
+			if (isFlagSetCM(S_RDTHROTTLE)) resumeIO(false);
+		}
+		rdlimit = (rate == 0 ? null : new RateLimiter(this, false, rate, burst));
+	}
+
+	/*
+	 * As above, but for writes. Data which is transmitted while we're over the limit gets queued by our IOExecWriter,
+	 * the same as when the connection is blocked, so the writeBlocked() watermark callbacks still apply.
+	 */
+	public void setWriteRateLimit(long rate, long burst) throws java.io.IOException
+	{
+		if (wrlimit != null) {
+			wrlimit.cancel();
+			if (isFlagSetCM(S_WRTHROTTLE)) resumeIO(true);
+		}
+		wrlimit = (rate == 0 ? null : new RateLimiter(this, true, rate, burst));
+	}
+
+	// These are called by our IOExecReaderStream, IOExecWriter and SSLConnection after every read or write on the connection
+	void chargeRead(int nbytes) {if (rdlimit != null) rdlimit.charge(nbytes);}
+	void chargeWrite(long nbytes) {if (wrlimit != null) wrlimit.charge(nbytes);}
+	boolean hasWriteLimit() {return (wrlimit != null);}
+	long getWriteAllowance() {return (wrlimit == null ? Long.MAX_VALUE : wrlimit.allowance());}
+
+	// These are called when the data queued by our IOExecWriter (due to the connection being blocked) exceeds its high
+	// watermark, and when it subsequently drains to its low watermark - see IOExecWriter.setWatermarks()
+	protected void writeBlocked() throws java.io.IOException {}
+	protected void writeResumed() throws java.io.IOException {}
+
 	@Override
 	boolean shutdownChannel(boolean linger)
 	{
+		if (chanwriter != null && chanwriter.isCorked()) {
+			// the application expects its corked data to have been sent (or at least attempted) by now
+			try {
+				chanwriter.uncork();
+			} catch (Exception ex) {
+				getLogger().trace("Failed to flush corked data on close - "+getClass().getName()+"/E"+getCMID()+" - "+ex);
+			}
+		}
 		if (sslconn != null) {
+			if (linger && chanwriter != null && !isFlagSetCM(S_BRKPIPE)) {
+				// encrypt any file-sends which are still being streamed, so that they go out ahead of our close_notify
+				try {
+					chanwriter.flushSSL();
+				} catch (Exception ex) {
+					getLogger().trace("Failed to flush SSL file-sends on close - "+getClass().getName()+"/E"+getCMID()+" - "+ex);
+				}
+			}
 			sslconn.close();
 			sslconn = null;
 		}
@@ -72,6 +136,8 @@ public abstract class CM_Stream extends ChannelMonitor
 			chanwriter.clearChannel();
 		}
 		if (chanreader != null) chanreader.clearChannel();
+		if (rdlimit != null) rdlimit.cancel();
+		if (wrlimit != null) wrlimit.cancel();
 		return true;
 	}
 
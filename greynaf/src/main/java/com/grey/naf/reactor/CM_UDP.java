@@ -22,8 +22,14 @@ public abstract class CM_UDP extends ChannelMonitor implements DispatcherRunnabl
 	protected IOExecReaderUDP getReader() {return udpreader;}
 
 	public CM_UDP(Dispatcher d, SocketAddress addr, BufferGenerator bufspec, int sockbufsiz) throws java.io.IOException {
+		this(d, addr, bufspec, sockbufsiz, false);
+	}
+
+	// If reusePort is true, we bind with SO_REUSEPORT so that multiple Dispatchers can each bind a CM_UDP to the same port and have
+	// the kernel distribute the incoming datagrams across them. It's ignored (with a warning) on platforms which don't support it.
+	public CM_UDP(Dispatcher d, SocketAddress addr, BufferGenerator bufspec, int sockbufsiz, boolean reusePort) throws java.io.IOException {
 		super(d);
-		udpreader = (bufspec == null ? null : new IOExecReaderUDP(bufspec));
+		udpreader = (bufspec == null ? null : new IOExecReaderUDP(bufspec, d.getBufferArena()));
 		if (udpreader != null) udpreader.initChannel(this);
 
 		java.nio.channels.DatagramChannel udpchan = java.nio.channels.DatagramChannel.open();
@@ -32,10 +38,14 @@ public abstract class CM_UDP extends ChannelMonitor implements DispatcherRunnabl
 			sock.setReceiveBufferSize(sockbufsiz);
 			sock.setSendBufferSize(sockbufsiz);
 		}
+		if (reusePort && !enableReusePort(udpchan)) {
+			getLogger().warn(getClass().getName()+" in Dispatcher="+d.getName()+": SO_REUSEPORT is not supported on this platform");
+			reusePort = false;
+		}
 		sock.bind(addr);
 		initChannel(udpchan, true);
 		getLogger().info(getClass().getName()+" in Dispatcher="+d.getName()+" bound to local UDP socket="+sock.getLocalSocketAddress()
-				+" - sockbuf="+com.grey.base.utils.ByteOps.expandByteSize(sockbufsiz, null, false));
+				+" - sockbuf="+com.grey.base.utils.ByteOps.expandByteSize(sockbufsiz, null, false)+(reusePort ? ", reuseport" : ""));
 	}
 
 	@Override
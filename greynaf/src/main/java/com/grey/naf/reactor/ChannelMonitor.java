@@ -31,6 +31,8 @@ public abstract class ChannelMonitor
 	static final int S_INDISC = 1 << 6;
 	static final int S_BRKPIPE = 1 << 7;
 	static final int S_INIT = 1 << 8;
+	static final int S_RDTHROTTLE = 1 << 9; //reads are suspended by a rate limiter
+	static final int S_WRTHROTTLE = 1 << 10; //writes are suspended by a rate limiter
 
 	private final Dispatcher dsptch;
 	private java.nio.channels.SelectableChannel iochan;
@@ -93,6 +95,15 @@ public abstract class ChannelMonitor
 		cmstate = S_INIT;
 	}
 
+	// Enables SO_REUSEPORT on a socket that's about to be bound, so that other sockets can bind to the same port, and the kernel
+	// load-balances incoming connections or datagrams across them. Returns false if the platform doesn't support it.
+	static boolean enableReusePort(java.nio.channels.NetworkChannel chan) throws java.io.IOException
+	{
+		if (!chan.supportedOptions().contains(java.net.StandardSocketOptions.SO_REUSEPORT)) return false;
+		chan.setOption(java.net.StandardSocketOptions.SO_REUSEPORT, true);
+		return true;
+	}
+
 	void initChannel(java.nio.channels.SelectableChannel chan, boolean takeOwnership) throws java.io.IOException
 	{
 		if (!isFlagSetCM(S_INIT)) initChannelMonitor();
@@ -119,6 +130,7 @@ public abstract class ChannelMonitor
 				return false;
 			}
 			clearFlagCM(S_CLOSELINGER);
+			if (JfrEvents.ENABLED && isFlagSetCM(S_ISCONN) && this instanceof CM_TCP) JfrEvents.channelDisconnected(this);
 			getDispatcher().deregisterIO(this);
 			try {
 				if (isFlagSetCM(S_WECLOSE)) {
@@ -175,6 +187,7 @@ public abstract class ChannelMonitor
 	{
 		setFlagCM(S_INREAD);
 		if (HALF_DUPLEX && isFlagSetCM(S_INWRITE)) return false;
+		if (isFlagSetCM(S_RDTHROTTLE)) return true; //OP_READ will get registered when the rate limiter resumes us
 		return monitorIO_HandleError(regOps | java.nio.channels.SelectionKey.OP_READ, false, "register-Read");
 	}
 
@@ -213,22 +226,48 @@ public abstract class ChannelMonitor
 		}
 	}
 
-	void enableListen() throws java.nio.channels.ClosedChannelException
+	// These are called by a rate limiter (see RateLimiter) to suspend and restore our interest in reads or writes,
+	// without affecting the S_INREAD and S_INWRITE settings that reflect whether the reader and writer want them.
+	// While suspended, monitorIO() masks the op out of any changes that the reader or writer make in the meantime.
+	void suspendIO(boolean write)
+	{
+		setFlagCM(write ? S_WRTHROTTLE : S_RDTHROTTLE);
+		try {
+			monitorIO_HandleError(regOps, true, "suspend-IO");
+		} catch (Exception ex) {
+			throw new NAFException(true, "Unexpected Exception on suspendIO for "+getClass().getName()+"/E"+cm_id+"/"+iochan, ex);
+		}
+	}
+
+	void resumeIO(boolean write) throws java.io.IOException
+	{
+		int opflags = regOps;
+		if (write) {
+			clearFlagCM(S_WRTHROTTLE);
+			if (isFlagSetCM(S_INWRITE)) opflags |= java.nio.channels.SelectionKey.OP_WRITE;
+		} else {
+			clearFlagCM(S_RDTHROTTLE);
+			if (isFlagSetCM(S_INREAD) && !(HALF_DUPLEX && isFlagSetCM(S_INWRITE))) opflags |= java.nio.channels.SelectionKey.OP_READ;
+		}
+		monitorIO_HandleError(opflags, false, "resume-IO");
+	}
+
+	void enableListen() throws java.io.IOException
 	{
 		monitorIO(regOps | java.nio.channels.SelectionKey.OP_ACCEPT);
 	}
 
-	void disableListen() throws java.nio.channels.ClosedChannelException
+	void disableListen() throws java.io.IOException
 	{
 		monitorIO(regOps & ~java.nio.channels.SelectionKey.OP_ACCEPT);
 	}
 
-	void enableConnect() throws java.nio.channels.ClosedChannelException
+	void enableConnect() throws java.io.IOException
 	{
 		monitorIO(regOps | java.nio.channels.SelectionKey.OP_CONNECT);
 	}
 
-	void disableConnect() throws java.nio.channels.ClosedChannelException
+	void disableConnect() throws java.io.IOException
 	{
 		monitorIO(regOps & ~java.nio.channels.SelectionKey.OP_CONNECT);
 	}
@@ -256,8 +295,10 @@ public abstract class ChannelMonitor
 		}
 	}
 
-	private boolean monitorIO(int opflags) throws java.nio.channels.ClosedChannelException
+	private boolean monitorIO(int opflags) throws java.io.IOException
 	{
+		if (isFlagSetCM(S_RDTHROTTLE)) opflags &= ~java.nio.channels.SelectionKey.OP_READ;
+		if (isFlagSetCM(S_WRTHROTTLE)) opflags &= ~java.nio.channels.SelectionKey.OP_WRITE;
 		if (opflags == regOps || iochan == null) return false;
 		regOps = (byte)opflags;	
 		getDispatcher().monitorIO(this, regOps);
@@ -302,17 +343,16 @@ public abstract class ChannelMonitor
 		String dlm = "; ";
 		sb.append("<br/>State=");
 		dumpMonitorState(false, sb);
-		int jdkOps = 0;
+		int jdkOps = getDispatcher().getInterestOps(this);
 		sb.append(dlm).append("Ops=");
-		if (regkey == null) {
+		if (jdkOps == IOTransport.OPS_NONE) {
 			sb.append("Null");
+			jdkOps = 0;
+		} else if (jdkOps == IOTransport.OPS_CANCELLED) {
+			sb.append("CANCELLED");
+			jdkOps = 0;
 		} else {
-			if (regkey.isValid()) {
-				jdkOps = regkey.interestOps();
-				dumpInterestOps(jdkOps, sb);
-			} else {
-				sb.append("CANCELLED");
-			}
+			dumpInterestOps(jdkOps, sb);
 		}
 		if (regOps != jdkOps) {
 			//should never happen
@@ -356,6 +396,8 @@ public abstract class ChannelMonitor
 			if (isFlagSetCM(S_CLOSELINGER)) sb.append('L');
 			if (isFlagSetCM(S_INREAD)) sb.append('R');
 			if (isFlagSetCM(S_INWRITE)) sb.append('W');
+			if (isFlagSetCM(S_RDTHROTTLE)) sb.append('r'); //rate-limited, so OP_READ is suspended
+			if (isFlagSetCM(S_WRTHROTTLE)) sb.append('w'); //rate-limited, so OP_WRITE is suspended
 		}
 		return sb;
 	}
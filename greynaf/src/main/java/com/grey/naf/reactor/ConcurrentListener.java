@@ -4,6 +4,8 @@
  */
 package com.grey.naf.reactor;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.grey.base.collections.HashedSet;
 import com.grey.base.collections.ObjectPool;
 import com.grey.naf.EventListenerNAF;
@@ -16,6 +18,15 @@ public class ConcurrentListener
 	private final HashedSet<CM_Server> activeservers = new HashedSet<>();
 	private final ObjectPool<CM_Server> spareservers;
 
+	// These are only used when we belong to a DispatcherGroup. The group acceptor holds the set of shards (itself plus one worker
+	// listener per other Dispatcher in the group) and each shard has a load count, ie. the number of connections assigned to it
+	// which have not yet terminated. The workers receive their connections from the acceptor via a Producer.
+	private final ConcurrentListener[] shards;
+	private final DispatcherGroup.Balancing balancing;
+	private final AtomicInteger shardLoad;
+	private final Producer<java.nio.channels.SocketChannel> handoffs;
+	private int nextShard;
+
 	private boolean in_sync_stop;
 
 	public static ConcurrentListener create(Dispatcher d, ConcurrentListenerConfig config) throws java.io.IOException {
@@ -23,20 +34,75 @@ public class ConcurrentListener
 	}
 
 	public static ConcurrentListener create(Dispatcher d, Object controller, EventListenerNAF evtl, ConcurrentListenerConfig config) throws java.io.IOException {
-		return new ConcurrentListener(d, controller, evtl, config);
+		return new ConcurrentListener(d, controller, evtl, config, null, null);
 	}
 
-	private ConcurrentListener(Dispatcher d, Object controller, EventListenerNAF evtl, ConcurrentListenerConfig config) throws java.io.IOException {
-		super(d, controller, evtl, config);
+	// Creates a listener which accepts connections in the group's first Dispatcher and shards them across all the group's Dispatchers.
+	// The returned acceptor is loaded and unloaded like any other listener, and it loads and unloads its worker listeners in the
+	// other Dispatchers itself. The server factory is applied separately in each Dispatcher, so each has its own factory and servers.
+	// The maxservers setting applies per Dispatcher, and the event listener (if any) is called within the Dispatcher that owns the
+	// server concerned.
+	public static ConcurrentListener create(DispatcherGroup grp, Object controller, EventListenerNAF evtl, ConcurrentListenerConfig config) throws java.io.IOException {
+		return new ConcurrentListener(grp.getDispatcher(0), controller, evtl, config, grp, null);
+	}
+
+	private ConcurrentListener(Dispatcher d, Object controller, EventListenerNAF evtl, ConcurrentListenerConfig config,
+			DispatcherGroup grp, ConcurrentListener acceptor) throws java.io.IOException {
+		super(d, controller, evtl, config, acceptor);
 		int srvmin = config.getMinServers();
 		int srvmax = config.getMaxServers();
 		int srvincr = config.getServersIncrement();
 		spareservers = new ObjectPool<>(() -> getServerFactory().createServer(), srvmin, srvmax, srvincr);
-		getLogger().info("Listener="+getName()+" created with init/max/incr="+srvmin+"/"+srvmax+"/"+srvincr);
+
+		if (acceptor != null) {
+			shards = null;
+			balancing = null;
+			shardLoad = new AtomicInteger();
+			handoffs = new Producer<>(getName(), d, (p) -> receiveHandoffs(p));
+		} else if (grp != null) {
+			balancing = grp.getBalancing();
+			shardLoad = new AtomicInteger();
+			handoffs = null;
+			shards = new ConcurrentListener[grp.size()];
+			shards[0] = this;
+			for (int idx = 1; idx != shards.length; idx++) {
+				shards[idx] = new ConcurrentListener(grp.getDispatcher(idx), controller, evtl, config, null, this);
+			}
+		} else {
+			shards = null;
+			balancing = null;
+			shardLoad = null;
+			handoffs = null;
+		}
+		getLogger().info("Listener="+getName()+" created with init/max/incr="+srvmin+"/"+srvmax+"/"+srvincr
+				+(shards == null ? "" : " - shards="+shards.length+"/"+balancing));
+	}
+
+	@Override
+	public void startDispatcherRunnable() throws java.io.IOException {
+		super.startDispatcherRunnable();
+		if (handoffs != null) handoffs.startDispatcherRunnable();
+		if (shards != null) {
+			for (int idx = 1; idx != shards.length; idx++) {
+				shards[idx].getDispatcher().loadRunnable(shards[idx]);
+			}
+		}
 	}
 
 	@Override
 	protected boolean stopListener() {
+		if (handoffs != null) handoffs.shutdown(true); //closes any connections which were handed to us but not yet serviced
+		if (shards != null) {
+			for (int idx = 1; idx != shards.length; idx++) {
+				Dispatcher d = shards[idx].getDispatcher();
+				if (!d.isRunning()) continue;
+				try {
+					d.unloadRunnable(shards[idx]);
+				} catch (Exception ex) {
+					getLogger().trace("Listener="+getName()+" failed to unload worker="+shards[idx].getName()+" - "+ex);
+				}
+			}
+		}
 		//cannot iterate on activeservers as it gets modified during the loop, so take a copy
 		in_sync_stop = true;
 		CM_Server[] arr = activeservers.toArray(new CM_Server[activeservers.size()]);
@@ -63,7 +129,7 @@ public class ConcurrentListener
 		boolean not_dup = deallocateServer(srvr);
 
 		if (not_dup && inShutdown() && !in_sync_stop && activeservers.isEmpty()) {
-			stopped(true);
+			stopped(getAcceptor() == null); //worker listeners are owned by their acceptor, so nobody else needs to know
 		}
 	}
 
@@ -75,23 +141,78 @@ public class ConcurrentListener
 		java.nio.channels.SocketChannel connsock;
 
 		while ((connsock = srvsock.accept()) != null) {
+			if (shards == null) {
+				fieldConnection(connsock);
+				continue;
+			}
+			ConcurrentListener shard = selectShard();
+			if (!shard.getDispatcher().isRunning()) shard = this; //its Dispatcher has terminated, so fall back to serving it ourself
+			shard.shardLoad.incrementAndGet();
+			if (shard == this) {
+				fieldConnection(connsock);
+				continue;
+			}
 			try {
-				handleConnection(connsock);
-			} catch (Throwable ex) {
-				if (!(ex instanceof CM_Stream.BrokenPipeException)) { //BrokenPipe already logged
-					boolean routine = ex instanceof java.io.IOException;
-					getLogger().log(routine ? LEVEL.TRC : LEVEL.INFO, ex, !routine, "Listener="+getName()+": Error fielding connection="+connsock);
-				}
+				shard.handoffs.produce(connsock);
+			} catch (Exception ex) {
+				getLogger().log(LEVEL.TRC, ex, false, "Listener="+getName()+": Failed to hand off connection="+connsock+" to "+shard.getName());
+				shard.shardLoad.decrementAndGet();
 				connsock.close();
 			}
 		}
 	}
 
+	// This is called within a worker listener's Dispatcher thread, to service the connections handed off to it by the acceptor
+	private void receiveHandoffs(Producer<java.nio.channels.SocketChannel> p) throws java.io.IOException {
+		java.nio.channels.SocketChannel connsock;
+		while ((connsock = p.consume()) != null) {
+			if (inShutdown()) {
+				shardLoad.decrementAndGet();
+				connsock.close();
+				continue;
+			}
+			fieldConnection(connsock);
+		}
+	}
+
+	// Round-robin is all done within the acceptor thread, but the least-loaded count for other shards is updated by their own threads,
+	// so that is necessarily a snapshot. We start the least-loaded scan where round-robin would have picked, to spread ties.
+	private ConcurrentListener selectShard() {
+		int start = nextShard;
+		if (++nextShard == shards.length) nextShard = 0;
+		if (balancing == DispatcherGroup.Balancing.ROUND_ROBIN) return shards[start];
+		ConcurrentListener best = null;
+		int bestLoad = Integer.MAX_VALUE;
+		for (int cnt = 0, idx = start; cnt != shards.length; cnt++) {
+			ConcurrentListener shard = shards[idx];
+			int load = shard.shardLoad.get();
+			if (load < bestLoad) {
+				best = shard;
+				bestLoad = load;
+			}
+			if (++idx == shards.length) idx = 0;
+		}
+		return best;
+	}
+
+	private void fieldConnection(java.nio.channels.SocketChannel connsock) throws java.io.IOException {
+		try {
+			handleConnection(connsock);
+		} catch (Throwable ex) {
+			if (!(ex instanceof CM_Stream.BrokenPipeException)) { //BrokenPipe already logged
+				boolean routine = ex instanceof java.io.IOException;
+				getLogger().log(routine ? LEVEL.TRC : LEVEL.INFO, ex, !routine, "Listener="+getName()+": Error fielding connection="+connsock);
+			}
+			connsock.close();
+		}
+	}
+
 	private void handleConnection(java.nio.channels.SocketChannel connsock) throws java.io.IOException {
 		CM_Server srvr = spareservers.extract();
 		if (srvr == null) {
 			// we're at max capacity - can't allocate any more server objects
 			getLogger().info("Listener="+getName()+" dropping connection because no spare servers - "+connsock);
+			if (shardLoad != null) shardLoad.decrementAndGet();
 			connsock.close();
 			return;
 		}
@@ -119,6 +240,7 @@ public class ConcurrentListener
 		if (!activeservers.remove(srvr)) {
 			return false;
 		}
+		if (shardLoad != null) shardLoad.decrementAndGet();
 		spareservers.store(srvr);
 		return true;
 	}
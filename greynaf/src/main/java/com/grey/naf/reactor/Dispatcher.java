@@ -7,9 +7,10 @@ package com.grey.naf.reactor;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.io.IOException;
@@ -17,7 +18,6 @@ import java.time.Clock;
 
 import com.grey.base.config.SysProps;
 import com.grey.base.collections.HashedMapIntKey;
-import com.grey.base.collections.Circulist;
 import com.grey.base.collections.ObjectQueue;
 import com.grey.base.collections.IteratorInt;
 import com.grey.base.collections.ObjectPool;
@@ -37,13 +37,16 @@ import com.grey.logging.Logger;
 import com.grey.logging.Logger.LEVEL;
 
 public class Dispatcher
-	implements Runnable, TimerNAF.TimeProvider, EventListenerNAF, Producer.Consumer<Object>
+	implements Runnable, java.util.concurrent.Executor, TimerNAF.TimeProvider, EventListenerNAF, Producer.Consumer<Object>
 {
 	public enum STOPSTATUS {STOPPED, ALIVE, FORCED}
 
 	private static final boolean INTERRUPT_FRIENDLY = SysProps.get("greynaf.dispatchers.interrupts", false);
 	private static final long TMT_FORCEDSTOP = SysProps.getTime("greynaf.dispatchers.forcestoptmt", "1s");
 	private static final boolean HEAPWAIT = SysProps.get("greynaf.dispatchers.heapwait", false);
+	private static final boolean FLAT_SELECTED_KEYS = SysProps.get("greynaf.dispatchers.flatkeys", false);
+	private static final boolean LOOP_STATS = SysProps.get("greynaf.dispatchers.loopstats", true);
+	private static final int EXEC_BATCH = SysProps.get("greynaf.dispatchers.execbatch", 1024); //max execute() tasks run per loop iteration
 	private static final String STOPCMD = "_STOP_";
 
 	private static final AtomicInteger anonDispatcherCount = new AtomicInteger();
@@ -62,12 +65,20 @@ public class Dispatcher
 	private final ArrayList<DispatcherRunnable> dynamicRunnables = new ArrayList<>();
 	private final ArrayList<EventListenerNAF> eventListeners = new ArrayList<>(); //objects that wish to be infomed of our shutdown
 	private final HashedMapIntKey<ChannelMonitor> activeChannels = new HashedMapIntKey<>(); //keyed on cm_id
-	private final Circulist<TimerNAF> activeTimers = new Circulist<>();
+	private final TimerScheduler activeTimers; //timers which are scheduled but have not yet expired
 	private final ObjectQueue<TimerNAF> pendingTimers = new ObjectQueue<>();  //timers which have expired and are ready to fire
+	private final ObjectQueue<IOExecReaderStream> readContinuations = new ObjectQueue<>(); //readers which used up their read budget with data still pending
 	private final ObjectPool<TimerNAF> timerPool;
 	private final ObjectPool<IOExecWriter.FileWrite> fileWritePool;
-	private final java.nio.channels.Selector slct;
+	private final com.grey.naf.BufferArena bufferArena; //null means each connection holds its own buffers
+	private final IOTransport transport; //the NIO Selector, unless configured to use epoll directly
+	private final LoopStats loopStats; //null means event-loop instrumentation is disabled
+	private final HandlerWatchdog watchdog; //null means slow handlers are not being monitored
 	private final Producer<Object> dynamicLoader;
+	private final java.util.concurrent.ConcurrentLinkedQueue<Runnable> externalTasks = new java.util.concurrent.ConcurrentLinkedQueue<>(); //see execute()
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(); //true means externalTasks is due to be drained
+	private int loopCycle; //identifies the current pass through the event loop, for the benefit of the read budgets
+	private volatile boolean externalTasksClosed;
 	private final boolean threadTolerant = SysProps.get("greynaf.dispatchers.tolerant_threadchecks", false); //for benefit of some unit tests
 
 	private final AtomicInteger nextChannelId = new AtomicInteger(1);
@@ -93,6 +104,10 @@ public class Dispatcher
 	public ApplicationContextNAF getApplicationContext() {return appctx;}
 	public Flusher getFlusher() {return flusher;}
 	public Logger getLogger() {return logger;}
+	public com.grey.naf.BufferArena getBufferArena() {return bufferArena;}
+	public LoopStats getLoopStats() {return loopStats;} //null if disabled - see LoopStats re thread safety
+	public HandlerWatchdog getHandlerWatchdog() {return watchdog;} //null if disabled
+	int getLoopCycle() {return loopCycle;}
 
 	IOExecWriter.FileWrite allocFileWrite() {return fileWritePool.extract();}
 	void releaseFileWrite(IOExecWriter.FileWrite fw) {fileWritePool.store(fw);}
@@ -153,8 +168,16 @@ public class Dispatcher
 		threadInitial = Thread.currentThread();
 
 		timerPool = new ObjectPool<>(() -> new TimerNAF());
+		if (def.getTimerWheelTick() == 0) {
+			activeTimers = new TimerSchedulerList();
+		} else {
+			activeTimers = new TimerSchedulerWheel(def.getTimerWheelTick(), timeBoot);
+		}
 		fileWritePool = new ObjectPool<>(() -> new FileWrite());
-		slct = java.nio.channels.Selector.open();
+		bufferArena = (def.isBufferArena() ? new com.grey.naf.BufferArena(dname) : null);
+		transport = IOTransport.create(this, def.isEpoll(), FLAT_SELECTED_KEYS);
+		loopStats = (LOOP_STATS ? new LoopStats() : null);
+		watchdog = (def.getSlowHandlerThreshold() == 0 ? null : new HandlerWatchdog(this, threadMain, def.getSlowHandlerThreshold()));
 
 		dynamicLoader = new Producer<>("DispatcherRunnables", this, this);
 
@@ -164,8 +187,11 @@ public class Dispatcher
 		getLogger().info("Dispatcher="+dname+": Initialised with baseport="+appctx.getNafConfig().getBasePort()
 				+", NAFMan="+(appctx.getNafManConfig()!=null)+", survive_handlers="+surviveHandlers
 				+", flush="+TimeOps.expandMilliTime(def.getFlushInterval())
-				+"\n\tSelector="+slct.getClass().getCanonicalName()+", Provider="+slct.provider().getClass().getCanonicalName()
+				+"\n\t"+transport+", loop-stats="+(loopStats != null)
+				+", slow-handler="+(watchdog == null ? "No" : TimeOps.expandMilliTime(watchdog.getThreshold()))
 				+" - half-duplex="+ChannelMonitor.HALF_DUPLEX+", timer-jitter="+TimerNAF.JITTER_THRESHOLD
+				+", timer-wheel="+(def.getTimerWheelTick() == 0 ? "No" : TimeOps.expandMilliTime(def.getTimerWheelTick()))
+				+", buffer-arena="+(bufferArena == null ? "No" : (com.grey.naf.BufferArena.LEAKCHECK ? "leakcheck" : "Yes"))
 				+", wbufs="+IOExecWriter.MAXBUFSIZ+"/"+IOExecWriter.FILEBUFSIZ);
 	}
 
@@ -190,6 +216,7 @@ public class Dispatcher
 			NafManAgent agent  = getNafManAgent();
 			if (agent != null) agent.start();
 			dynamicLoader.startDispatcherRunnable();
+			if (watchdog != null) watchdog.start();
 			activate();	
 		} catch (Throwable ex) {
 			String msg = "Dispatcher="+getName()+" has terminated abnormally";
@@ -206,6 +233,13 @@ public class Dispatcher
 			if (fileWritePool.getActiveCount() != 0)
 				throw new IllegalStateException("Dispatcher="+getName()+" has active FileWrites on exit - count="+fileWritePool.getActiveCount());
 		}
+		java.util.Collection<Throwable> bufleaks = (bufferArena == null ? null : bufferArena.getLeaks());
+		if (bufleaks != null && !bufleaks.isEmpty()) {
+			getLogger().warn("Dispatcher="+getName()+" has unreleased arena buffers on exit - count="+bufleaks.size());
+			for (Throwable ex : bufleaks) {
+				getLogger().log(LEVEL.WARN, ex, true, "Dispatcher="+getName()+": Unreleased buffer");
+			}
+		}
 
 		if (HEAPWAIT) {
 			//this is purely to support interactive troubleshooting - hold process alive so debug tools can attach
@@ -253,9 +287,9 @@ public class Dispatcher
 				+" - Runnables="+dynamicRunnables.size()+"/"+getNafletCount()+", Channels="+activeChannels.size()
 				+", Timers="+activeTimers.size()+":"+pendingTimers.size());
 		try {
-			if (slct.isOpen()) slct.close();
+			transport.close();
 		} catch (Throwable ex) {
-			getLogger().log(LEVEL.INFO, ex, false, "Dispatcher="+getName()+": Failed to close NIO Selector");
+			getLogger().log(LEVEL.INFO, ex, false, "Dispatcher="+getName()+": Failed to close I/O transport="+transport);
 		}
 
 		int lcnt;
@@ -285,13 +319,15 @@ public class Dispatcher
 		try {getLogger().flush(); } catch (Exception ex) {getLogger().trace("Dispatcher="+getName()+": shutdown() flush failed - "+ex);}
 		flusher.shutdown();
 		dynamicLoader.stopDispatcherRunnable();
+		if (watchdog != null) watchdog.stop();
+		closeExternalTasks();
 		getApplicationContext().deregister(this);
 
 		getLogger().info("Dispatcher="+getName()+": Shutdown completed - Runnables="+dynamicRunnables.size()+"/"+getNafletCount()+", Channels="+activeChannels.size()
 				+", Timers="+activeTimers.size()+":"+pendingTimers.size()
 				+", event-listeners="+lcnt);
 		if (!dynamicRunnables.isEmpty()) getLogger().trace("Dynamic Runnables: "+dynamicRunnables);
-		if (activeTimers.size()+pendingTimers.size() != 0) getLogger().trace("Timers: Active="+activeTimers+" - Pending="+pendingTimers);
+		if (activeTimers.size()+pendingTimers.size() != 0) getLogger().trace("Timers: Active="+activeTimers.getTimers(new ArrayList<>())+" - Pending="+pendingTimers);
 		shutdownPerformed = true;
 	}
 
@@ -345,36 +381,131 @@ public class Dispatcher
 		{
 			if (INTERRUPT_FRIENDLY) Thread.interrupted();//clear any pending interrupt status
 			systime_msecs = 0;
+			loopCycle++;
+			if (wakeupPending.get()) { //see execute()
+				runExternalTasks();
+				if (shutdownRequested) break;
+			}
 
-			if (activeTimers.size() == 0) {
-				if (slct.select() != 0) fireIO();
+			int nkeys;
+			boolean timersDue;
+			final boolean resume = (readContinuations.size() != 0);
+			long iotmt = (activeTimers.size() == 0 ? 0 : activeTimers.nextExpiry() - getSystemTime());
+			Object jfrLoop = (JfrEvents.ENABLED ? JfrEvents.beginLoop() : null);
+			boolean timed = (loopStats != null || jfrLoop != null);
+			long t0 = (timed ? System.nanoTime() : 0);
+
+			if (resume) {
+				// some readers still have data pending, so don't block - they get to resume before the new I/O events
+				nkeys = transport.selectNow();
+				timersDue = (activeTimers.size() != 0 && iotmt <= 0);
+			} else if (activeTimers.size() == 0) {
+				nkeys = transport.select(0);
+				timersDue = false;
+			} else if (iotmt <= 0) {
+				//next timer already due, but we still need to check for I/O as well
+				nkeys = transport.selectNow();
+				timersDue = true;
 			} else {
-				long iotmt = activeTimers.get(0).getExpiryTime() - getSystemTime();
-				if (iotmt <= 0) {
-					//next timer already due, but we still need to check for I/O as well
-					if (slct.selectNow() != 0) fireIO();
-					fireTimers();
-				} else {
-					if (slct.select(iotmt) == 0) {
-						fireTimers();
-					} else {
-						fireIO();
-					}
-				}
+				nkeys = transport.select(iotmt);
+				timersDue = (nkeys == 0);
+			}
+
+			if (!timed) {
+				if (resume) resumeReaders();
+				if (nkeys != 0) transport.fireIO();
+				if (timersDue) fireTimers();
+			} else {
+				long t1 = System.nanoTime();
+				if (resume) resumeReaders();
+				if (nkeys != 0) transport.fireIO();
+				long t2 = System.nanoTime();
+				int ntimers = (timersDue ? fireTimers() : 0);
+				long t3 = (ntimers == 0 ? t2 : System.nanoTime());
+				if (loopStats != null) loopStats.record(t1 - t0, nkeys, t2 - t1, ntimers, t3 - t2);
+				if (jfrLoop != null) JfrEvents.endLoop(jfrLoop, this, t1 - t0, nkeys, ntimers);
 			}
 		}
 
 		int finalkeys = -1;
 		if (!shutdownPerformed) {
 			//do a final Select to flush the SelectionKeys, as they're always one interval in arrears
-			finalkeys = slct.selectNow();
+			finalkeys = transport.selectNow();
 		}
 		getLogger().info("Dispatcher="+getName()+": Reactor event loop terminated - Runnables="+dynamicRunnables.size()+"/"+getNafletCount()
 				+", Channels="+activeChannels.size()+"/"+finalkeys
 				+", Timers="+activeTimers.size()+" (pending="+pendingTimers.size()+")");
 	}
 
-	private void fireTimers()
+	// Runs the tasks which have been passed to execute(), up to a limit so that a flood of them can't starve the I/O
+	private void runExternalTasks()
+	{
+		// must clear this before draining the queue, else we could miss the wakeup for a task added while we're in here
+		wakeupPending.set(false);
+		Runnable task;
+		int cnt = 0;
+
+		while (cnt++ != EXEC_BATCH && (task = externalTasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (Throwable ex) {
+				getLogger().log(LEVEL.ERR, ex, true, "Dispatcher="+getName()+": Error on executed task="+task);
+				if (!surviveHandlers) {
+					getLogger().warn("Dispatcher="+getName()+": Initiating Abort due to error in executed task");
+					error_abort = true;
+					stopSynchronously();
+					return;
+				}
+			}
+		}
+		// make sure the next select() doesn't block if we left tasks behind
+		if (!externalTasks.isEmpty() && wakeupPending.compareAndSet(false, true)) transport.wakeup();
+	}
+
+	/**
+	 * Runs the given task in this Dispatcher's thread, on its next pass through the event loop.
+	 * This is meant to be called by other threads, and they are able to do so at high rates, as it merely appends the
+	 * task to a lock-free queue and only wakes the Dispatcher up if it isn't already due to drain that queue.
+	 * The wakeupPending flag is raised after every append, and the Dispatcher lowers it before it drains the queue, so
+	 * a raised flag always means there is a drain to come which will pick up the latest tasks.
+	 * Throws RejectedExecutionException if the Dispatcher has already shut down.
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		if (externalTasksClosed) throw new RejectedExecutionException("Dispatcher="+getName()+" has shut down");
+		externalTasks.add(task);
+		if (externalTasksClosed && externalTasks.remove(task)) {
+			throw new RejectedExecutionException("Dispatcher="+getName()+" has shut down");
+		}
+		if (wakeupPending.compareAndSet(false, true)) transport.wakeup();
+	}
+
+	/**
+	 * Runs the given task in this Dispatcher's thread as per execute(), and returns a future which receives its result.
+	 * If the Dispatcher shuts down before running the task, the future completes with a RejectedExecutionException.
+	 */
+	public <T> CompletableFuture<T> submit(java.util.concurrent.Callable<T> task)
+	{
+		CompletableFuture<T> fut = new CompletableFuture<>();
+		execute(new SubmittedTask<>(task, fut));
+		return fut;
+	}
+
+	private void closeExternalTasks()
+	{
+		externalTasksClosed = true;
+		Runnable task;
+		int cnt = 0;
+		while ((task = externalTasks.poll()) != null) {
+			if (task instanceof SubmittedTask) ((SubmittedTask<?>)task).fut.completeExceptionally(new RejectedExecutionException("Dispatcher="+getName()+" has shut down"));
+			cnt++;
+		}
+		if (cnt != 0) getLogger().info("Dispatcher="+getName()+": Discarded executed tasks="+cnt);
+	}
+
+	// Returns the number of timers that were fired
+	private int fireTimers()
 	{
 		// Extract all expired timers before firing any of them, to make sure any further timers they
 		// install don't get fired in this loop, else continuous zero-second timers could prevent us ever
@@ -382,17 +513,19 @@ public class Dispatcher
 		// It would also not be safe to take the obvious option of storing pending timers as an ArrayList
 		// and looping over it, as pending timers can be withdrawn by the action of preceding ones, and
 		// that would throw the loop iteration out.
-		while (activeTimers.size() != 0) {
-			// Fire within milliseconds of maturity, as jitter in the system clock means the NIO
-			// Selector can trigger a fraction early.
-			TimerNAF tmr = activeTimers.get(0);
-			if (tmr.getExpiryTime() - getSystemTime() >= TimerNAF.JITTER_THRESHOLD) break; //no expired timers left
-			activeTimers.remove(0);
-			pendingTimers.add(tmr);
-		}
+		// Fire within milliseconds of maturity, as jitter in the system clock means the NIO
+		// Selector can trigger a fraction early.
+		activeTimers.expire(getSystemTime() + TimerNAF.JITTER_THRESHOLD, pendingTimers);
 		TimerNAF tmr;
+		int cnt = 0;
 
 		while ((tmr = pendingTimers.remove()) != null) {
+			if (watchdog != null) watchdog.begin(true, tmr.getHandler(), tmr.getType());
+			Object jfrEvt = null;
+			if (JfrEvents.ENABLED) {
+				JfrEvents.timerFired(this, tmr, getSystemTime() - tmr.getExpiryTime());
+				jfrEvt = JfrEvents.beginHandler();
+			}
 			try {
 				tmr.fire(this);
 			} catch (Throwable ex) {
@@ -402,33 +535,63 @@ public class Dispatcher
 					getLogger().log(LEVEL.ERR, ex2, true, "Dispatcher="+getName()+": Error handler failed on timer - "+tmr);
 				}
 			}
+			if (watchdog != null) watchdog.end();
+			if (jfrEvt != null) JfrEvents.endHandler(jfrEvt, this, true, tmr.getHandler(), tmr.getType());
 			timerPool.store(tmr.clear());
+			cnt++;
 		}
+		return cnt;
 	}
 
-	private void fireIO()
+	// Called by the I/O transport to deliver the events it collected in its last select()
+	void ioReady(ChannelMonitor cm, int readyOps)
 	{
-		Set<java.nio.channels.SelectionKey> keys = slct.selectedKeys();
-		Iterator<java.nio.channels.SelectionKey> itkey = keys.iterator();
+		fireIO(cm, readyOps, null);
+	}
 
-		while (itkey.hasNext()) {
-			// By testing if SelectionKey is still valid, we guard against delivering events to a monitor that was disabled by an earlier
-			// event in the current callout cycle.
-			java.nio.channels.SelectionKey key = itkey.next();
-			if (!key.isValid()) continue;
-			ChannelMonitor cm = (ChannelMonitor)key.attachment();
+	// If rdr is non-null, this is a read continuation rather than an I/O event, and readyOps is ignored
+	private void fireIO(ChannelMonitor cm, int readyOps, IOExecReaderStream rdr)
+	{
+		if (watchdog != null) watchdog.begin(false, cm, cm.getCMID());
+		Object jfrEvt = (JfrEvents.ENABLED ? JfrEvents.beginHandler() : null);
 
+		try {
+			if (rdr == null) {
+				cm.handleIO(readyOps);
+			} else {
+				rdr.resumeReceive();
+			}
+		} catch (Throwable ex) {
 			try {
-				cm.handleIO(key.readyOps());
-			} catch (Throwable ex) {
-				try {
-					eventHandlerFailed(cm, null, ex);
-				} catch (Throwable ex2) {
-					getLogger().log(LEVEL.ERR, ex2, true, "Dispatcher="+getName()+": Error handler failed on I/O - "+cm);
-				}
+				eventHandlerFailed(cm, null, ex);
+			} catch (Throwable ex2) {
+				getLogger().log(LEVEL.ERR, ex2, true, "Dispatcher="+getName()+": Error handler failed on I/O - "+cm);
 			}
 		}
-		keys.clear(); //this clears the NIO Ready set - NIO would hang otherwise
+		if (watchdog != null) watchdog.end();
+		if (jfrEvt != null) JfrEvents.endHandler(jfrEvt, this, false, cm, cm.getCMID());
+	}
+
+	/*
+	 * A reader which uses up its read budget (see IOExecReaderStream.setReadBudget()) while it still has data to deliver
+	 * calls this to be resumed on the next pass through the event loop, after any other readers which were already waiting.
+	 * This gives us round-robin scheduling of the busy connections, so that one which is flooded with data can't hog the
+	 * Dispatcher at the expense of the others.
+	 */
+	void scheduleReadContinuation(IOExecReaderStream rdr)
+	{
+		readContinuations.add(rdr);
+	}
+
+	// Only resumes the readers which were waiting before we got here, so any which get re-queued have to wait for the next loop
+	private void resumeReaders()
+	{
+		int cnt = readContinuations.size();
+		while (cnt-- != 0) {
+			IOExecReaderStream rdr = readContinuations.remove();
+			ChannelMonitor cm = rdr.getCM();
+			if (cm != null) fireIO(cm, 0, rdr);
+		}
 	}
 
 	//BrokenPipe is handled differently, but beware of situations where it was thrown by a ChannelMonitor
@@ -484,7 +647,7 @@ public class Dispatcher
 		verifyIsDispatcherThread();
 		if (activeChannels.put(cm.getCMID(), cm) != null) {
 			throw new IllegalStateException("Dispatcher="+getName()+": Illegal registerIO on CM="+cm.getClass().getName()+"/E"+cm.getCMID()
-					+" - Ops="+showInterestOps(cm.getRegistrationKey())+" - "+cm);
+					+" - Ops="+showInterestOps(transport.getInterestOps(cm))+" - "+cm);
 		}
 	}
 
@@ -492,27 +655,28 @@ public class Dispatcher
 		verifyIsDispatcherThread();
 		if (activeChannels.remove(cm.getCMID()) == null) {
 			throw new IllegalStateException("Dispatcher="+getName()+": Illegal deregisterIO on CM="+cm.getClass().getName()+"/E"+cm.getCMID()
-					+" - Ops="+showInterestOps(cm.getRegistrationKey())+" - "+cm);
-		}
-		if (cm.getRegistrationKey() != null) {
-			cm.getRegistrationKey().cancel();
-			cm.setRegistrationKey(null);
+					+" - Ops="+showInterestOps(transport.getInterestOps(cm))+" - "+cm);
 		}
+		transport.deregisterIO(cm);
 	}
 
 	void conditionalDeregisterIO(ChannelMonitor cm) {
 		if (activeChannels.containsKey(cm.getCMID())) deregisterIO(cm);
 	}
 
-	void monitorIO(ChannelMonitor cm, int ops) throws java.nio.channels.ClosedChannelException {
+	void monitorIO(ChannelMonitor cm, int ops) throws java.io.IOException {
 		verifyIsDispatcherThread();
 		if (shutdownPerformed) return;
-		if (cm.getRegistrationKey() == null) { //equivalent to !cm.iochan.isRegistered(), but obviously cheaper
-			//3rd arg has same effect as calling attach(handler) on returned SelectionKey
-			cm.setRegistrationKey(cm.getChannel().register(slct, ops, cm));
-		} else {
-			cm.getRegistrationKey().interestOps(ops);
-		}
+		transport.monitorIO(cm, ops);
+	}
+
+	// Returns the channel's registered interest ops, or one of the IOTransport.OPS_xxx constants if it has none
+	int getInterestOps(ChannelMonitor cm) {
+		return transport.getInterestOps(cm);
+	}
+
+	IOTransport getTransport() {
+		return transport;
 	}
 
 	public TimerNAF setTimer(long interval, int type, TimerNAF.Handler handler) {
@@ -522,10 +686,33 @@ public class Dispatcher
 	public TimerNAF setTimer(long interval, int type, TimerNAF.Handler handler, Object attachment) {
 		verifyIsSyncThread(false);
 		TimerNAF tmr = timerPool.extract().init(this, handler, interval, type, nextTimerId++, attachment);
-		activateTimer(tmr);
+		activeTimers.add(tmr);
 		return tmr;
 	}
 
+	/**
+	 * Runs a blocking task (eg. JDBC or file I/O) on a worker thread, and delivers its result to onResult in this
+	 * Dispatcher's thread once it completes. If the task throws, the exception is passed to onError instead, or logged
+	 * if that is null.
+	 * The worker threads are virtual threads on Java 21+, unless the greynaf.offload.threads property specifies a fixed
+	 * pool size, and the completions are delivered in batches, so a burst of them only wakes the Dispatcher up once.
+	 * This must be called in the Dispatcher thread, and throws RejectedExecutionException if the workers are unavailable.
+	 */
+	public <T> void offload(java.util.concurrent.Callable<T> task, java.util.function.Consumer<? super T> onResult) {
+		offload(task, onResult, null, null);
+	}
+
+	public <T> void offload(java.util.concurrent.Callable<T> task, java.util.function.Consumer<? super T> onResult, java.util.function.Consumer<? super Throwable> onError) {
+		offload(task, onResult, onError, null);
+	}
+
+	// As above, but runs the task on the given pool of worker threads, rather than the default one
+	public <T> void offload(java.util.concurrent.Callable<T> task, java.util.function.Consumer<? super T> onResult, java.util.function.Consumer<? super Throwable> onError,
+			java.util.concurrent.ExecutorService workers) {
+		verifyIsSyncThread(false);
+		Offloader.get(this).submit(workers, task, onResult, onError);
+	}
+
 	void cancelTimer(TimerNAF tmr) {
 		verifyIsDispatcherThread();
 		//remove from scheduled queue
@@ -544,33 +731,15 @@ public class Dispatcher
 	void resetTimer(TimerNAF tmr) {
 		verifyIsDispatcherThread();
 		tmr.resetExpiry();
-		int idx = activeTimers.indexOf(tmr);
 
-		if (idx == -1) {
-			// Timer either no longer exists, or has been expired but not yet fired. If the latter, we
-			// need to remove it from the about-to-fire expired list
-			// Either way, it is not currently on active list, and so needs to be inserted into it.
+		// If the timer is already scheduled, remove it from active list before re-inserting it in its new position.
+		// Otherwise the timer either no longer exists, or has been expired but not yet fired. If the latter, we
+		// need to remove it from the about-to-fire expired list.
+		// Either way, it is not currently on active list, and so needs to be inserted into it.
+		if (!activeTimers.remove(tmr)) {
 			pendingTimers.withdraw(tmr);
-		} else {
-			// The timer is already scheduled - remove from active list, before re-inserting in new position
-			activeTimers.remove(idx);
-		}
-		activateTimer(tmr);
-	}
-
-	private void activateTimer(TimerNAF tmr) {
-		int pos = 0; // will insert new timer at head of list, if we don't find any earlier timers
-		if (tmr.getInterval() != 0) {
-			//zero-sec timers go straight to front of queue, even ahead of other zero-sec ones
-			for (int idx = activeTimers.size() - 1; idx != -1; idx--) {
-				if (tmr.getExpiryTime() >= activeTimers.get(idx).getExpiryTime()) {
-					// insert tmr AFTER this node
-					pos = idx + 1;
-					break;
-				}
-			}
 		}
-		activeTimers.insert(pos, tmr);
+		activeTimers.add(tmr);
 	}
 
 	@Override
@@ -819,9 +988,8 @@ public class Dispatcher
 
 		// As above, the 'total' attribute will be different to the 'item' count, as the latter depends on various options
 		sb.append("<infonode name=\"Timers\" total=\"").append(activeTimers.size()).append("\">");
-		int cnt = (verbose ? activeTimers.size() : 0);
-		for (int idx = 0; idx != cnt; idx++) {
-			TimerNAF tmr = activeTimers.get(idx);
+		List<TimerNAF> timers = (verbose ? activeTimers.getTimers(new ArrayList<>()) : java.util.Collections.emptyList());
+		for (TimerNAF tmr : timers) {
 			sb.append("<item>ID=").append(tmr.getID()).append(':').append(tmr.getType()).append(" - Expires ");
 			TimeOps.makeTimeLogger(tmr.getExpiryTime(), sb, true, true).append(" (");
 			TimeOps.expandMilliTime(tmr.getInterval(), sb, false).append(")<br/>Handler=");
@@ -834,6 +1002,19 @@ public class Dispatcher
 			sb.append("</item>");
 		}
 		sb.append("</infonode>");
+
+		if (loopStats != null) {
+			sb.append("<infonode name=\"Event Loop\">");
+			sb.append("<item>");
+			loopStats.dumpState(sb, "</item><item>");
+			sb.append("</item></infonode>");
+		}
+		if (watchdog != null) {
+			sb.append("<infonode name=\"Slow Handlers\" total=\"").append(watchdog.getSlowIOCount() + watchdog.getSlowTimerCount()).append("\">");
+			sb.append("<item>");
+			watchdog.dumpState(sb, "</item><item>");
+			sb.append("</item></infonode>");
+		}
 		sb.append("</infonodes>");
 		return sb;
 	}
@@ -901,9 +1082,34 @@ public class Dispatcher
 		return "Dispatcher="+getName()+" - appctx="+getApplicationContext().getName();
 	}
 
-	private static String showInterestOps(java.nio.channels.SelectionKey key) {
-		if (key == null) return "None";
-		if (!key.isValid()) return "Cancelled";
-		return "0x"+Integer.toHexString(key.interestOps());
+	private static String showInterestOps(int ops) {
+		if (ops == IOTransport.OPS_NONE) return "None";
+		if (ops == IOTransport.OPS_CANCELLED) return "Cancelled";
+		return "0x"+Integer.toHexString(ops);
+	}
+
+	private static final class SubmittedTask<T> implements Runnable {
+		private final java.util.concurrent.Callable<T> task;
+		final CompletableFuture<T> fut;
+
+		SubmittedTask(java.util.concurrent.Callable<T> task, CompletableFuture<T> fut) {
+			this.task = task;
+			this.fut = fut;
+		}
+
+		@Override
+		public void run() {
+			if (fut.isDone()) return; //cancelled
+			try {
+				fut.complete(task.call());
+			} catch (Throwable ex) {
+				fut.completeExceptionally(ex);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "SubmittedTask["+task+"]";
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grey.base.config.SysProps;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+/*
+ * A set of Dispatchers which are all created from the same config template, so that a server can spread its
+ * connections over multiple cores. The Dispatchers are named after the template, with an index suffix.
+ * A ConcurrentListener created on a group via ConcurrentListener.create(DispatcherGroup, ...) accepts connections on
+ * the group's first Dispatcher and shards them across all its members, according to the group's balancing policy.
+ * Each member Dispatcher is otherwise independent, and applications can also load their own runnables into them.
+ */
+public class DispatcherGroup
+{
+	public enum Balancing {ROUND_ROBIN, LEAST_LOADED}
+
+	public static final String SYSPROP_SIZE = "greynaf.dispatchers.groupsize";
+
+	private static final AtomicInteger anonGroupCount = new AtomicInteger();
+
+	private final String name;
+	private final Dispatcher[] dispatchers;
+	private final Balancing balancing;
+
+	public String getName() {return name;}
+	public int size() {return dispatchers.length;}
+	public Dispatcher getDispatcher(int idx) {return dispatchers[idx];}
+	public Balancing getBalancing() {return balancing;}
+
+	// If size is zero, we create one Dispatcher per core, unless overridden by the system property
+	public static DispatcherGroup create(DispatcherConfig template, int size, Balancing balancing) throws java.io.IOException {
+		return new DispatcherGroup(template, size, balancing);
+	}
+
+	private DispatcherGroup(DispatcherConfig template, int size, Balancing balancing) throws java.io.IOException {
+		if (size <= 0) size = SysProps.get(SYSPROP_SIZE, Runtime.getRuntime().availableProcessors());
+		if (size <= 0) throw new IllegalArgumentException("DispatcherGroup: Invalid size="+size+" for template="+template);
+		String gname = template.getName();
+		if (gname == null || gname.isEmpty()) gname = "DispatcherGroup-"+anonGroupCount.incrementAndGet();
+		name = gname;
+		this.balancing = (balancing == null ? Balancing.ROUND_ROBIN : balancing);
+		dispatchers = new Dispatcher[size];
+
+		for (int idx = 0; idx != size; idx++) {
+			DispatcherConfig def = template.mutate()
+					.withName(name+"-"+idx)
+					.build();
+			dispatchers[idx] = Dispatcher.create(def);
+		}
+		dispatchers[0].getLogger().info("DispatcherGroup="+name+" created with size="+size+", balancing="+this.balancing);
+	}
+
+	public void start() {
+		for (Dispatcher d : dispatchers) {
+			d.start();
+		}
+	}
+
+	// This can be called by other threads
+	public void stop() {
+		for (Dispatcher d : dispatchers) {
+			d.stop();
+		}
+	}
+
+	// Returns STOPPED if all the Dispatchers stopped of their own accord, ALIVE if any failed to stop, else FORCED
+	public Dispatcher.STOPSTATUS waitStopped(long timeout, boolean force) {
+		Dispatcher.STOPSTATUS status = Dispatcher.STOPSTATUS.STOPPED;
+		for (Dispatcher d : dispatchers) {
+			Dispatcher.STOPSTATUS sts = d.waitStopped(timeout, force);
+			if (sts == Dispatcher.STOPSTATUS.ALIVE || status == Dispatcher.STOPSTATUS.STOPPED) status = sts;
+		}
+		return status;
+	}
+
+	public boolean completedOK() {
+		for (Dispatcher d : dispatchers) {
+			if (!d.completedOK()) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DispatcherGroup="+name+"/size="+dispatchers.length+"/balancing="+balancing;
+	}
+}
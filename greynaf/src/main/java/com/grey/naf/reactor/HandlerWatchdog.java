@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.TimeOps;
+import com.grey.logging.Logger.LEVEL;
+
+/*
+ * Detects I/O and timer handlers which hold up their Dispatcher for longer than a configured threshold, since a single
+ * slow handler stalls every other connection on the Dispatcher.
+ * The Dispatcher brackets each handler invocation with begin() and end(), which merely record a timestamp in a volatile
+ * field. A single monitoring thread shared by all Dispatchers checks those timestamps periodically, and if it finds a
+ * handler which has exceeded the threshold, it takes a sample of the Dispatcher thread's stack while it's still stuck
+ * in there. The Dispatcher then logs the handler along with that stack sample once it finally returns, as loggers are
+ * not generally thread-safe.
+ * The counters are only updated by the Dispatcher thread, so other threads can only see approximate values.
+ */
+public final class HandlerWatchdog
+{
+	private static final long NANOS_PER_MILLI = 1_000_000L;
+
+	private static java.util.concurrent.ScheduledExecutorService monitor; //shared by all Dispatchers
+
+	private final Dispatcher dsptch;
+	private final Thread thrd;
+	private final long threshold; //nanoseconds
+	private java.util.concurrent.ScheduledFuture<?> monitorTask;
+
+	// These are written by the Dispatcher thread, and read by the monitor thread
+	private volatile long timeStart; //zero means no handler is currently active
+	private volatile long seq; //identifies the current invocation
+
+	// This is written by the monitor thread, and read by the Dispatcher thread
+	private volatile Sample sample;
+
+	// Only accessed by the Dispatcher thread
+	private boolean activeTimer;
+	private Object activeHandler;
+	private int activeId;
+	private long slowIO;
+	private long slowTimers;
+	private long maxTime;
+	private String lastOffender;
+
+	public long getThreshold() {return threshold / NANOS_PER_MILLI;}
+	public long getSlowIOCount() {return slowIO;}
+	public long getSlowTimerCount() {return slowTimers;}
+	public long getMaxTime() {return maxTime / NANOS_PER_MILLI;}
+	public String getLastOffender() {return lastOffender;}
+
+	HandlerWatchdog(Dispatcher d, Thread t, long thresholdMillis) {
+		dsptch = d;
+		thrd = t;
+		threshold = thresholdMillis * NANOS_PER_MILLI;
+	}
+
+	void start() {
+		long interval = Math.max(1, threshold / 2);
+		monitorTask = getMonitor().scheduleAtFixedRate(this::check, interval, interval, java.util.concurrent.TimeUnit.NANOSECONDS);
+	}
+
+	void stop() {
+		if (monitorTask != null) monitorTask.cancel(false);
+		monitorTask = null;
+	}
+
+	// The ID is the CMID for I/O handlers and the timer type for timer handlers
+	void begin(boolean isTimer, Object handler, int id) {
+		activeTimer = isTimer;
+		activeHandler = handler;
+		activeId = id;
+		seq++;
+		timeStart = System.nanoTime();
+	}
+
+	void end() {
+		long elapsed = System.nanoTime() - timeStart;
+		timeStart = 0;
+		if (elapsed < threshold) {
+			activeHandler = null;
+			return;
+		}
+		if (activeTimer) {
+			slowTimers++;
+		} else {
+			slowIO++;
+		}
+		if (elapsed > maxTime) maxTime = elapsed;
+		lastOffender = (activeHandler == null ? "null" : activeHandler.getClass().getName())+(activeTimer ? "/type=" : "/E")+activeId;
+		Sample smpl = sample;
+		sample = null;
+		activeHandler = null;
+
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("Dispatcher=").append(dsptch.getName()).append(": Slow ").append(activeTimer ? "Timer" : "I/O");
+		sb.append(" handler=").append(lastOffender).append(" took ");
+		TimeOps.expandMilliTime(elapsed / NANOS_PER_MILLI, sb, false);
+		sb.append(" - slow-io=").append(slowIO).append(", slow-timers=").append(slowTimers);
+		if (smpl == null || smpl.seq != seq) {
+			sb.append(" - no stack sample");
+		} else {
+			sb.append(" - stack sample after ");
+			TimeOps.expandMilliTime(smpl.elapsed / NANOS_PER_MILLI, sb, false).append(':');
+			for (StackTraceElement frame : smpl.stack) {
+				sb.append("\n\tat ").append(frame);
+			}
+		}
+		dsptch.getLogger().log(LEVEL.WARN, sb);
+	}
+
+	// Runs in the monitor thread
+	private void check() {
+		long tstart = timeStart;
+		long curseq = seq;
+		if (tstart == 0) return;
+		long elapsed = System.nanoTime() - tstart;
+		if (elapsed < threshold) return;
+		Sample smpl = sample;
+		if (smpl != null && smpl.seq == curseq) return; //already sampled this invocation
+		StackTraceElement[] stack = thrd.getStackTrace();
+		if (timeStart != tstart) return; //handler completed while we were sampling, so stack is no longer relevant
+		sample = new Sample(curseq, elapsed, stack);
+	}
+
+	public StringBuilder dumpState(StringBuilder sb, String dlm) {
+		sb.append("Threshold=");
+		TimeOps.expandMilliTime(getThreshold(), sb, false);
+		sb.append(dlm).append("Slow I/O handlers=").append(slowIO);
+		sb.append(dlm).append("Slow Timer handlers=").append(slowTimers);
+		if (slowIO + slowTimers != 0) {
+			sb.append(dlm).append("Max time=");
+			TimeOps.expandMilliTime(getMaxTime(), sb, false);
+			sb.append(dlm).append("Last offender=").append(lastOffender);
+		}
+		return sb;
+	}
+
+	@Override
+	public String toString() {
+		return dumpState(new StringBuilder("HandlerWatchdog["), ", ").append(']').toString();
+	}
+
+	private static synchronized java.util.concurrent.ScheduledExecutorService getMonitor() {
+		if (monitor == null) {
+			monitor = java.util.concurrent.Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, "NAF-HandlerWatchdog");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return monitor;
+	}
+
+
+	private static final class Sample {
+		final long seq;
+		final long elapsed;
+		final StackTraceElement[] stack;
+		Sample(long seq, long elapsed, StackTraceElement[] stack) {
+			this.seq = seq;
+			this.elapsed = elapsed;
+			this.stack = stack;
+		}
+	}
+}
@@ -12,15 +12,23 @@ public abstract class IOExecReader
 	protected static final int F_ENABLED = 1 << 1; //receive is currently enabled
 	protected static final int F_HASDLM = 1 << 2;  //current receive phase is delimited by particular byte value (rcvdlm)
 	protected static final int F_INRCVCB = 1 << 3; //inside ChannelMonitor.ioReceived() callback
+	protected static final int F_INREAD = 1 << 4; //inside the subclass's handleIO() - only used when borrowing rcvbuf from an arena
+	protected static final int F_DLMSEQ = 1 << 5; //current receive phase is delimited by a multi-byte sequence (only set along with F_HASDLM)
+	protected static final int F_FRAMED = 1 << 6; //current receive phase consists of frames with a length prefix
 
 	private final ByteArrayRef userbuf;  //for passing data back to user (ie. the callback entity)
-	private final java.nio.ByteBuffer rcvbuf;
+	private final com.grey.naf.BufferGenerator bufspec;
+	private final com.grey.naf.BufferArena arena; //if non-null, we only hold rcvbuf while it contains data
+	private final int rcvbufsiz;
+	private java.nio.ByteBuffer rcvbuf;
+	private java.nio.ByteBuffer userarr; //if rcvbuf is borrowed but has no backing array, this provides the array for userbuf
 
 	private ChannelMonitor chanmon;
 	private byte iostate;
 
 	protected ByteArrayRef getUserBuffer() {return userbuf;}
 	protected java.nio.ByteBuffer getReceiveBuffer() {return rcvbuf;}
+	protected int getReceiveCapacity() {return rcvbufsiz;}
 	protected ChannelMonitor getCM() {return chanmon;}
 
 	protected void setFlag(int f) {iostate |= f;}
@@ -28,25 +36,72 @@ public abstract class IOExecReader
 	protected boolean isFlagSet(int f) {return ((iostate & f) != 0);}
 
 	protected IOExecReader(com.grey.naf.BufferGenerator spec)
+	{
+		this(spec, null);
+	}
+
+	protected IOExecReader(com.grey.naf.BufferGenerator spec, com.grey.naf.BufferArena arena)
 	{
 		if (spec == null || spec.rcvbufsiz == 0) {
 			//app wants to perform the reads for itself
-			rcvbuf = null;
+			bufspec = null;
+			this.arena = null;
+			rcvbufsiz = 0;
 			userbuf = null;
 			return;
 		}
-		rcvbuf = spec.createReadBuffer();
-
-		int off = 0;
-		byte[] arrb;
-		if (rcvbuf.hasArray()) {
+		bufspec = spec;
+		this.arena = arena;
+		rcvbufsiz = spec.rcvbufsiz;
+		userbuf = new ByteArrayRef();
+		if (arena == null) {
+			rcvbuf = spec.createReadBuffer();
+			if (rcvbuf.hasArray()) {
+				setFlag(F_ARRBACK);
+				userbuf.set(rcvbuf.array(), rcvbuf.arrayOffset(), 0);
+			} else {
+				userbuf.set(new byte[rcvbufsiz], 0, 0);
+			}
+		} else if (!spec.directbufs) {
 			setFlag(F_ARRBACK);
-			arrb = rcvbuf.array();
-			off = rcvbuf.arrayOffset();
+		}
+	}
+
+	// Obtains a cleared receive buffer from the arena, if we don't already hold one.
+	// Returns true if we had to borrow it, in which case userbuf has also been pointed at the new buffer.
+	protected boolean borrowReceiveBuffer()
+	{
+		if (rcvbuf != null) return false;
+		rcvbuf = bufspec.borrowReadBuffer(arena);
+		if (isFlagSet(F_ARRBACK)) {
+			userbuf.set(rcvbuf.array(), rcvbuf.arrayOffset(), 0);
 		} else {
-			arrb = new byte[spec.rcvbufsiz];
+			userarr = arena.alloc(rcvbufsiz, false);
+			userbuf.set(userarr.array(), userarr.arrayOffset(), 0);
 		}
-		userbuf = new ByteArrayRef(arrb, off, 0);
+		return true;
+	}
+
+	// Returns the receive buffer to the arena, unless we're in the middle of processing its contents.
+	// This is a no-op if we're not using an arena, as we then hold the same receive buffer for our lifetime.
+	protected boolean returnReceiveBuffer()
+	{
+		if (rcvbuf == null || arena == null || isFlagSet(F_INRCVCB | F_INREAD)) return false;
+		arena.release(rcvbuf);
+		rcvbuf = null;
+		if (userarr != null) {
+			arena.release(userarr);
+			userarr = null;
+		}
+		userbuf.set((byte[])null, 0, 0);
+		return true;
+	}
+
+	// The receive buffer's capacity might exceed rcvbufsiz if it came from an arena, so this is used instead of clear()
+	protected void clearReceiveBuffer()
+	{
+		rcvbuf.clear();
+		rcvbuf.limit(rcvbufsiz);
 	}
 
 	protected void initChannel(ChannelMonitor cm)
@@ -59,6 +114,7 @@ public abstract class IOExecReader
 	{
 		chanmon = null;
 		clearFlag(F_ENABLED);
+		returnReceiveBuffer();
 	}
 
 	protected boolean enableReceive() throws java.io.IOException
@@ -82,7 +138,7 @@ public abstract class IOExecReader
 
 	protected void dumpState(StringBuilder sb, String dlm)
 	{
-		char buftype = (rcvbuf == null ? 'U' : (isFlagSet(F_ARRBACK) ? 'H' : 'D'));
+		char buftype = (userbuf == null ? 'U' : (isFlagSet(F_ARRBACK) ? 'H' : 'D'));
 		sb.append(isFlagSet(F_ENABLED)?"on":"off").append('/').append(buftype);
 	}
 }
\ No newline at end of file
@@ -4,47 +4,141 @@
  */
 package com.grey.naf.reactor;
 
+import com.grey.base.config.SysProps;
+import com.grey.base.utils.ByteArrayRef;
+import com.grey.base.utils.ByteOps;
 import com.grey.logging.Logger.LEVEL;
 import com.grey.naf.errors.NAFException;
 
+/*
+ * By default, the receive buffer is linear, so once it fills up with a partial message, we have to shift that fragment
+ * down to the start of the buffer (see compact()) to make room for the rest of it.
+ * If the BufferGenerator specifies ring buffers, we instead treat it as a circular buffer and carry on reading into
+ * whatever space has been freed up at the start of it, so received data is never shifted.
+ * In ring mode, the readmark, scanmark and fillmark positions are allowed to run past the end of the buffer (up to twice
+ * its size) and wrap back to its start, which lets the linear-mode logic work unchanged on a continuous range of positions.
+ * The only copying is of any chunk of data that spans the wrap point, as that has to be passed to the user as a single
+ * contiguous block.
+ *
+ * Each reader can also be given a read budget, which limits how much data it delivers to the user on each pass through
+ * the Dispatcher's event loop. Once that's used up, we hold back any remaining data and ask the Dispatcher to resume us
+ * on its next pass, after it has serviced the other connections. Without this, a connection which is receiving a rapid
+ * stream of small messages could keep the Dispatcher tied up delivering them, at the expense of all the others.
+ */
 public class IOExecReaderStream
 	extends IOExecReader
 {
+	private static final int BUDGET_BYTES = SysProps.get("greynaf.io.rdbudget_bytes", 0); //zero means no limit
+	private static final int BUDGET_MSGS = SysProps.get("greynaf.io.rdbudget_msgs", 0); //zero means no limit
+
+	private final boolean ringmode;
+	private int fillmark; // ring mode only - end position of the received data (getReceiveBuffer().position() serves in linear mode)
+	private ByteArrayRef wrapbuf; // ring mode only - holds a contiguous copy of any chunk that spans the wrap point
 	private int readmark;  // getReceiveBuffer() position - number of bytes we've already consumed and returned to caller, marks start position of next read
 	private int scanmark; // getReceiveBuffer() position - number of bytes we've already scanned, looking for read demarcation. Always: readmark <= scanmark
 	private int rcvmax;   // if non-zero, the max bytes to return - if rcvdlm not specified, then this is also the min size, ie. a fixed-size read
 	private byte rcvdlm;  // the byte-value that demarcates delimited reads, eg. a line-oriented reader would specify LineFeed ('\n' = 0xA)
-	private final int rcvbuf0;
+	private byte[] rcvdlmseq; // the byte sequence that demarcates delimited reads, if it's longer than a single byte (eg. CRLF)
+	private int rcvlensiz; // size of the length prefix in framed reads - 1, 2 or 4 bytes
+	private boolean rcvlenLE; // the length prefix in framed reads is little-endian, else it's in network order
+	private int rcvbuf0; //offset of getReceiveBuffer() within userbuf's array
+	private int budgetBytes = BUDGET_BYTES; //max bytes to deliver per Dispatcher loop - zero means no limit
+	private int budgetMsgs = BUDGET_MSGS; //max ioReceived() callbacks per Dispatcher loop - zero means no limit
+	private int usedBytes; //bytes delivered so far in budgetCycle
+	private int usedMsgs; //callbacks made so far in budgetCycle
+	private int budgetCycle; //the Dispatcher loop which usedBytes and usedMsgs apply to
+	private boolean resumePending; //we're waiting for the Dispatcher to resume us, having used up our budget
 
 	IOExecReaderStream(com.grey.naf.BufferGenerator spec)
 	{
-		super(spec);
+		this(spec, null);
+	}
+
+	IOExecReaderStream(com.grey.naf.BufferGenerator spec, com.grey.naf.BufferArena arena)
+	{
+		super(spec, arena);
 		rcvbuf0 = (getUserBuffer() == null ? 0 : getUserBuffer().offset());
+		ringmode = (getUserBuffer() != null && spec.ringbufs);
 	}
 
 	void initChannel(CM_Stream cm)
 	{
 		super.initChannel(cm);
-		if (getReceiveBuffer() != null) getReceiveBuffer().clear(); //this is only compatible with receive(0) and non-SSL mode
+		if (getReceiveBuffer() != null) clearReceiveBuffer(); //this is only compatible with receive(0) and non-SSL mode
 		readmark = 0;
 		scanmark = 0;
+		fillmark = 0;
+		resumePending = false; //if we were still queued for resumption by a previous connection, that will be a no-op
 	}
 
 	// Non-zero max means a fixed-size read.
 	public void receive(int max) throws java.io.IOException
 	{
-		clearFlag(F_HASDLM);
-		if (max != 0 && max > getReceiveBuffer().capacity()) max = getReceiveBuffer().capacity(); //just return the max possible
+		clearFlag(F_HASDLM | F_DLMSEQ | F_FRAMED);
+		if (max != 0 && max > getReceiveCapacity()) max = getReceiveCapacity(); //just return the max possible
 		enableReceive(max);
 	}
 
 	public void receiveDelimited(byte dlm) throws java.io.IOException
 	{
+		clearFlag(F_DLMSEQ | F_FRAMED);
 		setFlag(F_HASDLM);
 		rcvdlm = dlm;
 		enableReceive(0);
 	}
 
+	/*
+	 * Each read returns everything up to and including the next occurrence of the given byte sequence, eg. CRLF for a
+	 * line-oriented protocol, or CRLF.CRLF to read an entire SMTP message body.
+	 * As with single-byte delimiters, a line which is too long to fit in the receive buffer is returned in pieces.
+	 * The caller must not modify the dlm array while this receive mode is in effect.
+	 */
+	public void receiveDelimited(byte[] dlm) throws java.io.IOException
+	{
+		if (dlm.length == 1) {
+			receiveDelimited(dlm[0]);
+			return;
+		}
+		if (dlm.length == 0) throw new IllegalArgumentException("IOExecReaderStream: Empty delimiter");
+		clearFlag(F_FRAMED);
+		setFlag(F_HASDLM | F_DLMSEQ);
+		rcvdlmseq = dlm;
+		enableReceive(0);
+	}
+
+	/*
+	 * Each read returns one frame, where frames consist of a 1, 2 or 4-byte length prefix followed by that number of
+	 * bytes, eg. DNS over TCP. Only the frame body is passed to ioReceived(), ie. excluding the length prefix, and it is
+	 * returned in place in the receive buffer, ie. without any copying.
+	 * The maximum frame size is capped by the receive buffer size, and a zero maxlen means the max possible. If a frame
+	 * header exceeds the maximum, we treat it as a protocol violation and disconnect.
+	 */
+	public void receiveFramed(int lensiz, boolean littleEndian, int maxlen) throws java.io.IOException
+	{
+		if (lensiz != 1 && lensiz != 2 && lensiz != 4) {
+			throw new IllegalArgumentException("IOExecReaderStream: Invalid length-prefix size="+lensiz);
+		}
+		int lmt = getReceiveCapacity() - lensiz;
+		if (maxlen == 0 || maxlen > lmt) maxlen = lmt;
+		clearFlag(F_HASDLM | F_DLMSEQ);
+		setFlag(F_FRAMED);
+		rcvlensiz = lensiz;
+		rcvlenLE = littleEndian;
+		enableReceive(maxlen);
+	}
+
+	/*
+	 * Sets the read budget for this connection, ie. the max bytes and max number of ioReceived() callbacks per pass
+	 * through the Dispatcher loop, with zero meaning no limit. Either limit may be exceeded by the final callback, as a
+	 * message is never split up to satisfy them.
+	 * The defaults for these are taken from the greynaf.io.rdbudget_bytes and greynaf.io.rdbudget_msgs system properties.
+	 */
+	public void setReadBudget(int maxBytes, int maxMsgs)
+	{
+		budgetBytes = maxBytes;
+		budgetMsgs = maxMsgs;
+	}
+
 	// We use F_INRCVCB to guard against reentrancy here, ie. a ChannelMonitor calling this from within its ioReceived()
 	// callback, and thus calling back into itself with potentially bad results (including infinite recursion).
 	// It also guards against a parallel reentrancy bug in the SSL case, where we might call its deliver() method while
@@ -52,35 +146,71 @@ public class IOExecReaderStream
 	private void enableReceive(int max) throws java.io.IOException
 	{
 		if (!enableReceive()) return;
-		if (getReceiveBuffer() == null) return;
+		if (getUserBuffer() == null) return;
 		rcvmax = max;
 		if (isFlagSet(F_INRCVCB)) return; //beyond here lies re-entrancy
+		deliverPending();
+	}
 
+	// Called by the Dispatcher to resume delivering the data we held back when we used up our read budget
+	void resumeReceive() throws java.io.IOException
+	{
+		resumePending = false;
+		if (getCM() == null || getUserBuffer() == null || !isFlagSet(F_ENABLED)) return;
+		deliverPending();
+	}
+
+	private void deliverPending() throws java.io.IOException
+	{
 		//deliver any pending data in our local holding buffer
 		CM_Stream cm = (CM_Stream)getCM();
 		while (deliverNextChunk(cm));
+		releaseIdleBuffer();
 		//check if SSL layer (if any) has any more data buffered up - make sure we're still enabled first
 		if (getCM() != null && cm.sslConnection() != null && isFlagSet(F_ENABLED)) cm.sslConnection().deliver();
 	}
 
 	int handleIO(java.nio.ByteBuffer srcbuf) throws java.io.IOException
 	{
-		CM_Stream cm = (CM_Stream)getCM();
-		if (getReceiveBuffer() == null) {
+		if (getUserBuffer() == null) {
 			if (srcbuf != null) {
 				throw new IllegalStateException("IOExecReaderStream.handleIO() called with srcbuf="+srcbuf+" for "+getClass().getName()+" with null rcvbuf");
 			}
-			cm.ioReceived(null);
+			((CM_Stream)getCM()).ioReceived(null);
 			return 0;
 		}
+		// F_INREAD stops the receive buffer being returned to the arena before we're finished with it, including
+		// when the SSL layer calls back into here while we're still handing it data from our own buffer.
+		if (isFlagSet(F_INREAD)) return receiveData(srcbuf);
+		setFlag(F_INREAD);
+		try {
+			return receiveData(srcbuf);
+		} finally {
+			clearFlag(F_INREAD);
+			releaseIdleBuffer();
+		}
+	}
+
+	private int receiveData(java.nio.ByteBuffer srcbuf) throws java.io.IOException
+	{
+		CM_Stream cm = (CM_Stream)getCM();
+		if (borrowReceiveBuffer()) resetBuffer();
 		int bufpos = 0; //only relevant if getReceiveBuffer() doesn't have backing array
 		int nbytes = -1;  //will remain -1 if channel-read throws
 		String discmsg = "Remote disconnect";
 
 		// Windows (or Java?) doesn't reliably report a lost connection by returning -1, so trap exceptions and interpret in same way
 		try {
-			if (scanmark == getReceiveBuffer().capacity()) {
-				// the receive buffer is full and we've scanned up to the end of it (but not necessarily consumed it all)
+			if (ringmode) {
+				// read into the free space beyond fillmark, up to the wrap point or the start of the unread data
+				final int cap = getReceiveCapacity();
+				final int endpos = (fillmark < cap ? cap : readmark + cap);
+				getReceiveBuffer().limit(ringIndex(endpos - 1) + 1);
+				getReceiveBuffer().position(ringIndex(fillmark));
+				if (fillmark == endpos) getReceiveBuffer().limit(getReceiveBuffer().position()); //ring is full
+			} else if (getReceiveBuffer().position() == getReceiveCapacity()) {
+				// The receive buffer is full and we've scanned up to the end of it (but not necessarily consumed it all).
+				// A multi-byte delimiter scan can stop short of the end, as it might have to rescan a partial delimiter.
 				compact();
 			}
 			if (!isFlagSet(F_ARRBACK)) bufpos = getReceiveBuffer().position();
@@ -103,14 +233,27 @@ public class IOExecReaderStream
 			getCM().ioDisconnected(discmsg);
 			return -1;
 		}
+		if (srcbuf == null) cm.chargeRead(nbytes);
 
 		if (!isFlagSet(F_ARRBACK)) {
 			// rewind to start of the block we just read, to copy it - the get() will then restore getReceiveBuffer() position to where it was after read()
 			getReceiveBuffer().position(bufpos);
 			getReceiveBuffer().get(getUserBuffer().buffer(), bufpos, nbytes);
 		}
+		if (ringmode) fillmark += nbytes;
 
 		while (deliverNextChunk(cm)) {
+			if (ringmode && getCM() != null && cm.sslConnection() != null && srcbuf == null) {
+				// As below, but the remaining data might span the wrap point. The SSL layer copies it all before it
+				// makes any callbacks into us, so we can reset our buffer first.
+				final ByteArrayRef rem = chunk(readmark, fillmark - readmark);
+				clearReceiveBuffer();
+				scanmark = 0;
+				readmark = 0;
+				fillmark = 0;
+				cm.sslConnection().handleIO(java.nio.ByteBuffer.wrap(rem.buffer(), rem.offset(), rem.size()));
+				break;
+			}
 			if (getCM() != null && cm.sslConnection() != null && srcbuf == null) {
 				// We've obviously switched to SSL mode while working through the contents of the last read, and
 				// the rest of it is part of the SSL phase. Hand it off to the SSL manager and our own handleIO()
@@ -119,7 +262,7 @@ public class IOExecReaderStream
 				getReceiveBuffer().position(readmark);
 				scanmark = readmark; //guard against callbacks from sslconn.handleIO()
 				cm.sslConnection().handleIO(getReceiveBuffer());
-				getReceiveBuffer().clear();
+				clearReceiveBuffer();
 				scanmark = 0;
 				readmark = 0;
 				break;
@@ -131,20 +274,61 @@ public class IOExecReaderStream
 	// Returns false to indicate getReceiveBuffer() definitely cannot satisfy another user read
 	private boolean deliverNextChunk(CM_Stream cm) throws java.io.IOException
 	{
-		final int buflimit = getReceiveBuffer().position();
-		if (!isFlagSet(F_ENABLED) || scanmark == buflimit) return false;
+		if (!isFlagSet(F_ENABLED) || getReceiveBuffer() == null) return false;
+		final int buflimit = fillMark();
+		if (scanmark == buflimit) return false;
+		final int prevscan = scanmark; //in case we have to hold back the chunk we find
 		int userbytes = 0; //number of bytes to return in callback
+		int useroff = readmark; //getReceiveBuffer() position of the bytes to return in callback
 
-		if (isFlagSet(F_HASDLM)) {
-			// NB: If we do find the delimiter byte, we set userbytes to include it
-			while (scanmark != buflimit) {
-				if (getUserBuffer().buffer()[rcvbuf0 + scanmark++] == rcvdlm) {
-					userbytes = scanmark - readmark;
-					break;
+		if (isFlagSet(F_FRAMED)) {
+			// frames are delivered whole, so there is no partial-data fallback below
+			if (buflimit - readmark < rcvlensiz) {
+				scanmark = buflimit;
+				return false;
+			}
+			final long framelen = decodeFrameLength(readmark);
+			if (framelen > rcvmax) {
+				if (getCM().getLogger().isActive(CM_TCP.LOGLEVEL_CNX)) {
+					getCM().getLogger().log(CM_TCP.LOGLEVEL_CNX, "IOExec: Oversized frame="+framelen+" (max="+rcvmax+") on "
+							+getCM().getClass().getName()+"/E"+getCM().getCMID()+"/"+getCM().getChannel());
 				}
+				scanmark = buflimit;
+				getCM().ioDisconnected("Oversized frame="+framelen);
+				return false;
+			}
+			useroff = readmark + rcvlensiz;
+			if (buflimit - useroff < framelen) {
+				scanmark = buflimit;
+				return false;
+			}
+			userbytes = (int)framelen;
+			scanmark = useroff + userbytes;
+		} else if (isFlagSet(F_DLMSEQ)) {
+			// NB: If we do find the delimiter, we set userbytes to include it
+			final int pos = scan(scanmark, buflimit, rcvdlmseq);
+			if (pos == -1) {
+				// the end of the buffer might hold the start of a delimiter, so we will have to rescan it next time
+				scanmark = Math.max(readmark, buflimit - rcvdlmseq.length + 1);
+			} else {
+				scanmark = pos + rcvdlmseq.length;
+				userbytes = scanmark - readmark;
+			}
+		} else if (isFlagSet(F_HASDLM)) {
+			// NB: If we do find the delimiter byte, we set userbytes to include it
+			final int pos = scan(scanmark, buflimit, rcvdlm);
+			if (pos == -1) {
+				scanmark = buflimit;
+			} else {
+				scanmark = pos + 1;
+				userbytes = scanmark - readmark;
 			}
 		} else {
-			if (rcvmax == 0) {
+			if (rcvmax == 0 && ringmode) {
+				// Return the data in place, up to the wrap point - anything beyond that follows in the next callback.
+				userbytes = (readmark < getReceiveCapacity() ? Math.min(buflimit, getReceiveCapacity()) : buflimit) - readmark;
+				scanmark = readmark + userbytes;
+			} else if (rcvmax == 0) {
 				// User just wants all data returned as it arrives - we can optimise this case.
 				// For comparison with the other modes below, the theoretical sequence of ops
 				// after setting buf.ar_off is:
@@ -152,8 +336,10 @@ public class IOExecReaderStream
 				//     readmark = scanmark (or alternatively, readmark += userbytes)
 				//     compact()
 				// So we effectively condense them into 2 assignments with the same effect.
+				if (deferDelivery(cm)) return false;
 				getUserBuffer().set(getUserBuffer().buffer(), rcvbuf0 + readmark, buflimit - readmark);
-				getReceiveBuffer().clear();
+				chargeBudget(cm, buflimit - readmark);
+				clearReceiveBuffer();
 				scanmark = 0;
 				readmark = 0;
 				setFlag(F_INRCVCB);
@@ -163,11 +349,8 @@ public class IOExecReaderStream
 					clearFlag(F_INRCVCB);
 				}
 				return true; //there might be more data if app called pushback()
-			}
-
-			// we are in a fixed-sized read
-			if (buflimit - readmark >= rcvmax) {
-				// we have sufficient data to satisfy it
+			} else if (buflimit - readmark >= rcvmax) {
+				// we are in a fixed-sized read and we have sufficient data to satisfy it
 				userbytes = rcvmax;
 				scanmark = readmark + userbytes;
 			} else {
@@ -175,32 +358,133 @@ public class IOExecReaderStream
 			}
 		}
 
-		if (buflimit == getReceiveBuffer().capacity() && userbytes == 0 && readmark == 0) {
+		if (buflimit - readmark == getReceiveCapacity() && userbytes == 0 && !isFlagSet(F_FRAMED)) {
 			// We're now potentially deadlocked as getReceiveBuffer() is full of unread data, but it's not enough to satisfy the read op.
-			// Just return the partial data to the caller.
-			userbytes = buflimit;
-
+			// Just return the partial data to the caller - in ring mode, readmark need not be zero here.
+			userbytes = buflimit - readmark;
+			scanmark = buflimit;
+		}
+		if (userbytes == 0 && !isFlagSet(F_FRAMED)) return false; //a framed read can have an empty body
+		if (deferDelivery(cm)) {
+			scanmark = prevscan; //we will find the same chunk again when we resume
+			return false;
 		}
-		if (userbytes == 0) return false;
 
-		getUserBuffer().set(getUserBuffer().buffer(), rcvbuf0 + readmark, userbytes);
+		final ByteArrayRef userdata = chunk(useroff, userbytes);
+		chargeBudget(cm, userbytes);
 		if (scanmark == buflimit) {
 			// We can optimise by clearing the receive buffer now that it's been fully consumed.
 			// Else we will keep bumping into the end of it and having to shift the contents leftward
 			// in compact() so this minimises the number of such buffer-copy ops.
-			getReceiveBuffer().clear();
+			clearReceiveBuffer();
 			scanmark = 0;
+			fillmark = 0;
 		}
 		readmark = scanmark;  //gives same result as readmark += userbytes (assuming we didn't do a clear)
+		if (readmark >= getReceiveCapacity()) {
+			// we've consumed all the data up to the wrap point, so the remainder is now at the start of the ring
+			readmark -= getReceiveCapacity();
+			scanmark -= getReceiveCapacity();
+			fillmark -= getReceiveCapacity();
+		}
 		setFlag(F_INRCVCB);
 		try {
-			cm.ioReceived(getUserBuffer());
+			cm.ioReceived(userdata);
 		} finally {
 			clearFlag(F_INRCVCB);
 		}
 		return true;
 	}
 
+	// Returns true if a complete chunk has to be held back because we've used up our read budget for this Dispatcher cycle,
+	// in which case we get resumed on the next cycle. Incomplete data doesn't need a continuation, as we couldn't deliver it
+	// anyway until more arrives, and the next read will pick it up.
+	private boolean deferDelivery(CM_Stream cm)
+	{
+		if ((budgetBytes | budgetMsgs) == 0 || !budgetExhausted(cm)) return false;
+		if (!resumePending) {
+			resumePending = true;
+			cm.getDispatcher().scheduleReadContinuation(this);
+		}
+		return true;
+	}
+
+	private boolean budgetExhausted(CM_Stream cm)
+	{
+		if (cm.getDispatcher().getLoopCycle() != budgetCycle) return false; //we haven't delivered anything in this loop yet
+		return ((budgetBytes != 0 && usedBytes >= budgetBytes) || (budgetMsgs != 0 && usedMsgs >= budgetMsgs));
+	}
+
+	private void chargeBudget(CM_Stream cm, int nbytes)
+	{
+		if ((budgetBytes | budgetMsgs) == 0) return;
+		final int cycle = cm.getDispatcher().getLoopCycle();
+		if (cycle != budgetCycle) {
+			budgetCycle = cycle;
+			usedBytes = 0;
+			usedMsgs = 0;
+		}
+		usedBytes += nbytes;
+		usedMsgs++;
+	}
+
+	private long decodeFrameLength(int pos)
+	{
+		long len = 0;
+		for (int idx = 0; idx != rcvlensiz; idx++) {
+			int shift = 8 * (rcvlenLE ? idx : rcvlensiz - idx - 1);
+			len |= (byteAt(pos + idx) & 0xFFL) << shift;
+		}
+		return len;
+	}
+
+	// Returns the position of the first occurrence of val in the given range of positions, or -1 if not found
+	private int scan(int from, int to, byte val)
+	{
+		final int cap = getReceiveCapacity();
+		if (from < cap && to > cap) {
+			int pos = scan(from, cap, val);
+			return (pos == -1 ? scan(cap, to, val) : pos);
+		}
+		final int off = rcvbuf0 + ringIndex(from);
+		final int idx = ByteOps.indexOf(getUserBuffer().buffer(), off, to - from, val);
+		return (idx == -1 ? -1 : from + idx - off);
+	}
+
+	private int scan(int from, int to, byte[] seq)
+	{
+		final int lmt = to - seq.length + 1; //a match can't start beyond here
+		for (int pos = from; pos < lmt; pos++) {
+			pos = scan(pos, lmt, seq[0]);
+			if (pos == -1) break;
+			int idx = 1;
+			while (idx != seq.length && byteAt(pos + idx) == seq[idx]) idx++;
+			if (idx == seq.length) return pos;
+		}
+		return -1;
+	}
+
+	// Returns a contiguous view of the specified data, which only has to be copied if it spans the wrap point
+	private ByteArrayRef chunk(int pos, int len)
+	{
+		final int cap = getReceiveCapacity();
+		if (pos >= cap || pos + len <= cap) {
+			getUserBuffer().set(getUserBuffer().buffer(), rcvbuf0 + ringIndex(pos), len);
+			return getUserBuffer();
+		}
+		if (wrapbuf == null) wrapbuf = new ByteArrayRef(cap);
+		final int len1 = cap - pos;
+		System.arraycopy(getUserBuffer().buffer(), rcvbuf0 + pos, wrapbuf.buffer(), 0, len1);
+		System.arraycopy(getUserBuffer().buffer(), rcvbuf0, wrapbuf.buffer(), len1, len - len1);
+		wrapbuf.set(wrapbuf.buffer(), 0, len);
+		return wrapbuf;
+	}
+
+	// Maps a receive-data position to its getReceiveBuffer() index, which is the same thing in linear mode
+	private int ringIndex(int pos) {return (pos < getReceiveCapacity() ? pos : pos - getReceiveCapacity());}
+	private byte byteAt(int pos) {return getUserBuffer().buffer()[rcvbuf0 + ringIndex(pos)];}
+	private int fillMark() {return (ringmode ? fillmark : getReceiveBuffer().position());}
+
 	/*
 	 * Discard the bytes we've already returned to the caller.
 	 * This can be more or less laborious, depending on whether there's still a fragment of unread data left at the
@@ -216,7 +500,7 @@ public class IOExecReaderStream
 		int unread = getReceiveBuffer().position() - readmark;
 		if (unread == 0) {
 			// the buffer has been fully consumed by the user, so discard all contents
-			getReceiveBuffer().clear();
+			clearReceiveBuffer();
 			scanmark = 0;
 		} else {
 			// there is a fragment of unread data at end of buffer so shift it down to start of buffer
@@ -230,22 +514,30 @@ public class IOExecReaderStream
 	// Discards everything in receive buffer, whether it's been read yet or not.
 	public int flush()
 	{
-		int nbytes = getReceiveBuffer().position() - readmark;
-		getReceiveBuffer().clear();
+		if (getReceiveBuffer() == null) return 0;
+		int nbytes = fillMark() - readmark;
+		clearReceiveBuffer();
 		scanmark = 0;
 		readmark = 0;
+		fillmark = 0;
+		releaseIdleBuffer();
 		return nbytes;
 	}
 
 	// As with compact(), we don't need to update getReceiveBuffer() contents if we're not using its backing array.
 	public void pushback(byte[] data, int off, int len)
 	{
+		if (borrowReceiveBuffer()) resetBuffer();
+		if (ringmode) {
+			ringPushback(data, off, len);
+			return;
+		}
 		int unread = getReceiveBuffer().position() - readmark;
 		if (unread != 0) {
 			byte[] tmp = getCM().getDispatcher().allocMemBuffer(len + unread);
 			System.arraycopy(data, off, tmp, 0, len);
 			getUserBuffer().copyOut(readmark, tmp, len, unread);
-			getReceiveBuffer().clear();
+			clearReceiveBuffer();
 			data = tmp;
 			off = 0;
 			len += unread;
@@ -256,13 +548,69 @@ public class IOExecReaderStream
 		getReceiveBuffer().position(len);
 	}
 
+	// In ring mode, the pushed-back data can simply be prepended in the free space preceding the unread data
+	private void ringPushback(byte[] data, int off, int len)
+	{
+		final int cap = getReceiveCapacity();
+		if (fillmark == readmark) {
+			// there's no unread data, so start afresh with the pushed-back data at the start of the buffer
+			clearReceiveBuffer();
+			fillmark = len;
+			readmark = len;
+		}
+		if (fillmark - readmark + len > cap) {
+			throw new IllegalStateException("IOExecReaderStream: No room to push back "+len+" bytes, with unread="+(fillmark - readmark)+"/"+cap);
+		}
+		readmark -= len;
+		if (readmark < 0) {
+			readmark += cap;
+			fillmark += cap;
+		}
+		scanmark = readmark;
+		final int len1 = Math.min(len, cap - readmark);
+		System.arraycopy(data, off, getUserBuffer().buffer(), rcvbuf0 + readmark, len1);
+		System.arraycopy(data, off + len1, getUserBuffer().buffer(), rcvbuf0, len - len1);
+	}
+
+	// If we're borrowing our receive buffer from the Dispatcher's arena, then this gives it back once all the data
+	// in it has been consumed.
+	private void releaseIdleBuffer()
+	{
+		if (getReceiveBuffer() == null) return;
+		if (getCM() != null && fillMark() != readmark) return; //we're still holding unconsumed data
+		if (returnReceiveBuffer()) {
+			scanmark = 0;
+			readmark = 0;
+			fillmark = 0;
+		}
+	}
+
+	// Called when we've just borrowed a fresh receive buffer
+	private void resetBuffer()
+	{
+		clearReceiveBuffer();
+		rcvbuf0 = getUserBuffer().offset();
+		scanmark = 0;
+		readmark = 0;
+		fillmark = 0;
+	}
+
 	@Override
 	protected void dumpState(StringBuilder sb, String dlm)
 	{
 		super.dumpState(sb, dlm);
-		if (getReceiveBuffer() == null) return;
-		String rdlm = (isFlagSet(F_HASDLM) ? "0x"+Integer.toHexString(rcvdlm) :String.valueOf(rcvmax));
+		if (getUserBuffer() == null) return;
+		String rdlm;
+		if (isFlagSet(F_FRAMED)) {
+			rdlm = "frame"+rcvlensiz+(rcvlenLE ? "LE" : "BE")+":"+rcvmax;
+		} else if (isFlagSet(F_DLMSEQ)) {
+			rdlm = "0x"+new String(com.grey.base.crypto.Ascii.hexEncode(rcvdlmseq));
+		} else {
+			rdlm = (isFlagSet(F_HASDLM) ? "0x"+Integer.toHexString(rcvdlm) :String.valueOf(rcvmax));
+		}
 		sb.append('/').append(rdlm);
-		sb.append('/').append(String.valueOf(getReceiveBuffer().position() - scanmark));
+		sb.append('/').append(getReceiveBuffer() == null ? "0" : String.valueOf(fillMark() - scanmark));
+		if (ringmode) sb.append("/ring");
+		if (resumePending) sb.append("/yielded");
 	}
 }
\ No newline at end of file
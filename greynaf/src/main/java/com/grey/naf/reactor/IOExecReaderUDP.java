@@ -4,15 +4,28 @@
  */
 package com.grey.naf.reactor;
 
+import com.grey.base.config.SysProps;
 import com.grey.logging.Logger.LEVEL;
 import com.grey.naf.errors.NAFException;
 
 public class IOExecReaderUDP
 	extends IOExecReader
 {
+	static final int MAXBATCH = SysProps.get("greynaf.io.udpbatch", 64);
+
+	private int maxbatch = MAXBATCH; //max number of datagrams to receive per Read-ready indication
+
+	// A burst of datagrams can be received without going back to the Selector for each one, up to this limit.
+	public void setMaxBatch(int max) {maxbatch = Math.max(max, 1);}
+
 	IOExecReaderUDP(com.grey.naf.BufferGenerator spec)
 	{
-		super(spec);
+		this(spec, null);
+	}
+
+	IOExecReaderUDP(com.grey.naf.BufferGenerator spec, com.grey.naf.BufferArena arena)
+	{
+		super(spec, arena);
 	}
 
 	public void receive() throws java.io.IOException
@@ -22,26 +35,44 @@ public class IOExecReaderUDP
 
 	void handleIO() throws java.io.IOException
 	{
-		if (getReceiveBuffer() == null) {
+		if (getUserBuffer() == null) {
 			((CM_UDP)getCM()).ioReceived(null, null);
 			return;
 		}
+		// each datagram is delivered in full, so if we're borrowing the receive buffer we can give it back straight away
+		borrowReceiveBuffer();
+		setFlag(F_INREAD);
+		try {
+			for (int cnt = 0; cnt != maxbatch; cnt++) {
+				if (!receiveDatagram()) break;
+				if (getCM() == null || !isFlagSet(F_ENABLED)) break; //app has disconnected or stopped receiving
+			}
+		} finally {
+			clearFlag(F_INREAD);
+			returnReceiveBuffer();
+		}
+	}
+
+	// Returns false if there was no datagram to be read, which means we've drained the socket
+	private boolean receiveDatagram() throws java.io.IOException
+	{
 		java.net.InetSocketAddress remaddr;
 
 		try {
 			final java.nio.channels.DatagramChannel iochan = getCM().getDatagramChannel();
-			getReceiveBuffer().clear();
+			clearReceiveBuffer();
 			remaddr = (java.net.InetSocketAddress)iochan.receive(getReceiveBuffer());
 		} catch (Exception ex) {
-			if (ex instanceof java.net.PortUnreachableException) return;  //we've received associated ICMP packet - discard
+			if (ex instanceof java.net.PortUnreachableException) return false;  //we've received associated ICMP packet - discard
 			LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : LEVEL.TRC3);
 			if (getCM().getLogger().isActive(lvl)) {
 				getCM().getLogger().log(lvl, ex, lvl==LEVEL.ERR, "IOExecUDP: read() failed on "+getCM().getClass().getName()+"/E"+getCM().getCMID()+"/"+getCM().getChannel());
 			}
-			return;
+			return false;
 		}
-		int nbytes = (remaddr == null ? 0 : getReceiveBuffer().position());
-		if (nbytes == 0) return;
+		if (remaddr == null) return false;
+		int nbytes = getReceiveBuffer().position();
+		if (nbytes == 0) return true; //an empty datagram, so nothing to deliver but there might be more behind it
 
 		if (!isFlagSet(F_ARRBACK)) {
 			// rewind to start of the block we just read, to copy it - the get() will then restore rcvbuf position to where it was after read()
@@ -50,5 +81,6 @@ public class IOExecReaderUDP
 		}
 		getUserBuffer().setSize(nbytes);
 		((CM_UDP)getCM()).ioReceived(getUserBuffer(), remaddr);
+		return true;
 	}
 }
\ No newline at end of file
@@ -17,14 +17,40 @@ public class IOExecWriter
 {
 	static final int MAXBUFSIZ = SysProps.get("greynaf.io.xmtqbufsiz", 64*1024);
 	static final int FILEBUFSIZ = SysProps.get("greynaf.io.filebufsiz", 8*1024*1024);
+	static final int GATHERMAX = SysProps.get("greynaf.io.gathermax", 64);
+	static final boolean SSLSTREAM = SysProps.get("greynaf.io.sslstream", true); //stream file-sends over SSL, rather than encrypting them up front
+	static final int SSLMAPSIZ = SysProps.get("greynaf.io.sslmapsiz", 4*1024*1024); //how much of the file to memory-map at a time
+	private static final int SSLCHUNK = 16*1024; //max plaintext size of a TLS record
+	static final int WMARK_HIGH = SysProps.get("greynaf.io.wmark_high", 0); //zero means no watermark callbacks
+	static final int WMARK_LOW = SysProps.get("greynaf.io.wmark_low", WMARK_HIGH / 2);
 	private static final LEVEL WRBLOCKTRC = LEVEL.valueOf(SysProps.get("greynaf.io.blocktrc", LEVEL.OFF.toString()));
 
 	private final com.grey.naf.BufferGenerator bufspec; //NB: xmtbufsiz is ignored as a starting point
+	private final com.grey.naf.BufferArena arena; //if non-null, our buffers come from here rather than the bufspec's pool
 	private final com.grey.base.collections.ObjectQueue<Object> xmtq;
 	private CM_Stream chanmon;
 	private int writemark; //current position in buffer at head of xmtq queue
-
-	public boolean isBlocked() {return (xmtq.size() != 0);}
+	private java.nio.ByteBuffer[] gatherbufs; //allocated on demand, as most connections never block with more than one queued buffer
+	private boolean corked;
+	private int wmarkHigh = WMARK_HIGH;
+	private int wmarkLow = WMARK_LOW;
+	private long queuedBytes; //total size of the buffers on xmtq and sslq - file-sends don't count, as they don't occupy memory
+	private boolean overWatermark;
+	private long jfrBlockedSince; //non-zero while the connection is blocked, if JFR events are enabled
+
+	// When streaming a file over SSL, we only encrypt the next chunk once the connection has accepted all the previous
+	// ciphertext, so these hold the file-sends (and any plaintext that was transmitted after them) still to be encrypted.
+	private com.grey.base.collections.ObjectQueue<Object> sslq; //allocated on demand
+	private java.nio.MappedByteBuffer sslmap; //currently mapped region of the file at the head of sslq
+	private java.nio.channels.FileChannel sslmapchan;
+	private long sslmapoff;
+	private boolean sslflush; //encrypt all the pending sslq data without waiting for the connection to drain
+
+	public boolean isBlocked() {return (isQueued() || (sslq != null && sslq.size() != 0));}
+	private boolean isQueued() {return (xmtq.size() != 0);}
+	public boolean isCorked() {return corked;}
+	public long getQueuedBytes() {return queuedBytes;}
+	public boolean isOverWatermark() {return overWatermark;}
 	public void transmit(FileChannel fchan) throws java.io.IOException {transmit(fchan, 0, false);}
 	public void transmit(FileChannel fchan, long pos, boolean noclose) throws java.io.IOException {transmit(fchan, pos, 0, noclose);}
 	public void transmit(java.nio.ByteBuffer xmtbuf) throws java.io.IOException {transmit(xmtbuf, false);}
@@ -35,8 +61,14 @@ public class IOExecWriter
 	public void transmit(ByteChars data) throws java.io.IOException {transmit((ByteArrayRef)data);}
 
 	IOExecWriter(com.grey.naf.BufferGenerator spec)
+	{
+		this(spec, null);
+	}
+
+	IOExecWriter(com.grey.naf.BufferGenerator spec, com.grey.naf.BufferArena arena)
 	{
 		bufspec = spec;
+		this.arena = arena;
 		xmtq = new com.grey.base.collections.ObjectQueue<>(4, 4);
 	}
 
@@ -50,7 +82,54 @@ public class IOExecWriter
 	void clearChannel()
 	{
 		while (xmtq.size() != 0) dequeue(null);
+		if (sslq != null) {
+			while (sslq.size() != 0) dequeueSSL();
+		}
+		sslmap = null;
+		sslmapchan = null;
 		chanmon = null;
+		corked = false;
+		queuedBytes = 0;
+		overWatermark = false;
+		jfrBlockedSince = 0;
+	}
+
+	// Once the amount of data queued (because the connection is blocked) reaches the high watermark, the CM_Stream's
+	// writeBlocked() method is called, and then writeResumed() is called once the queue has drained to the low watermark.
+	// This allows an application such as a relay to stop reading from its upstream connection while the downstream one
+	// is backed up, rather than buffering everything in memory.
+	// A high watermark of zero disables this, and the defaults are set by the greynaf.io.wmark_high/low properties.
+	public void setWatermarks(int high, int low)
+	{
+		if (high < 0 || low < 0 || (high != 0 && low > high)) {
+			throw new IllegalArgumentException("Invalid watermarks - high="+high+", low="+low);
+		}
+		wmarkHigh = high;
+		wmarkLow = low;
+	}
+
+	// While corked, all transmitted data is held on the queue rather than being written to the connection, so that an
+	// application which composes a response from several small transmit() calls can have them all sent in one (gathering)
+	// write when it calls uncork(), which it would typically do before returning from its callback.
+	// Note that isBlocked() reports True while there is any corked data, and that closing the connection uncorks it.
+	public void cork()
+	{
+		corked = true;
+	}
+
+	public void uncork() throws java.io.IOException
+	{
+		if (!corked) return;
+		corked = false;
+		// if we're waiting for the connection to become writable, then the queue will get drained when it does
+		if (chanmon == null || !isBlocked() || chanmon.isFlagSetCM(ChannelMonitor.S_INWRITE)) return;
+		if (!drainQueue() || !pumpSSL()) {
+			if (chanmon != null && xmtq.size() != 0) {
+				chanmon.enableWrite();
+				blocked();
+			}
+		}
+		checkLowWatermark();
 	}
 
 	public void transmit(byte[] data, int off, int len) throws java.io.IOException
@@ -101,17 +180,38 @@ public class IOExecWriter
 	private boolean transmit(java.nio.ByteBuffer xmtbuf, boolean is_poolbuf) throws java.io.IOException
 	{
 		if (chanmon.sslConnection() != null) {
+			if (sslq != null && sslq.size() != 0) {
+				// a file-send is still being streamed, so this has to wait its turn
+				holdSSL(xmtbuf);
+				checkHighWatermark();
+				return false;
+			}
 			chanmon.sslConnection().transmit(xmtbuf);
 			return false;
 		}
 		write(xmtbuf, is_poolbuf);
-		return is_poolbuf && isBlocked();
+		return is_poolbuf && isQueued();
 	}
 
 	void write(java.nio.ByteBuffer xmtbuf, boolean is_poolbuf) throws java.io.IOException
 	{
-		if (isBlocked()) {
+		if (isQueued()) {
 			enqueue(xmtbuf, xmtbuf.remaining(), is_poolbuf);
+			checkHighWatermark();
+			return;
+		}
+		if (corked) {
+			// queue is empty, so this becomes its head
+			writemark = enqueue(xmtbuf, xmtbuf.remaining(), is_poolbuf);
+			checkHighWatermark();
+			return;
+		}
+		if (chanmon.isWriteThrottled()) {
+			// we've exceeded the connection's rate limit, so this has to wait for the limiter to re-enable OP_WRITE
+			writemark = enqueue(xmtbuf, xmtbuf.remaining(), is_poolbuf);
+			chanmon.enableWrite();
+			blocked();
+			checkHighWatermark();
 			return;
 		}
 		final int nbytes = sendBuffer(xmtbuf);
@@ -126,6 +226,8 @@ public class IOExecWriter
 		}
 		writemark = enqueue(xmtbuf, remainbytes, is_poolbuf);
 		chanmon.enableWrite();
+		blocked();
+		checkHighWatermark();
 	}
 
 	// Note that this method takes ownership of the file stream, and closes it when done.
@@ -136,6 +238,35 @@ public class IOExecWriter
 	public void transmit(java.nio.channels.FileChannel fchan, long pos, long lmt, boolean noclose) throws java.io.IOException
 	{
 		try {
+			if (chanmon.sslConnection() != null && SSLSTREAM) {
+				final long maxlmt = fchan.size();
+				lmt = (lmt == 0 ? maxlmt : (lmt > maxlmt ? maxlmt : lmt));
+				if (pos >= lmt) return;
+				final Dispatcher dsptch = chanmon.getDispatcher();
+				final FileWrite fw = dsptch.allocFileWrite().set(fchan, pos, lmt);
+				if (sslq == null) sslq = new com.grey.base.collections.ObjectQueue<>(4, 4);
+				boolean queued = false;
+				try {
+					// try to send it all right now, and only queue it if we can't
+					if (sslq.size() != 0 || isQueued() || corked || !sendFileSSL(fw)) {
+						if (chanmon != null) {
+							sslq.add(fw);
+							queued = true;
+							noclose = true; //this transmit op has been queued
+						}
+					}
+				} finally {
+					if (!queued) {
+						if (sslmapchan == fchan) {
+							sslmap = null;
+							sslmapchan = null;
+						}
+						fw.chan = null;
+						dsptch.releaseFileWrite(fw);
+					}
+				}
+				return;
+			}
 			if (chanmon.sslConnection() != null) {
 				final java.nio.ByteBuffer niobuf = chanmon.getDispatcher().allocNIOBuffer((int)Math.min(lmt-pos, MAXBUFSIZ));
 				final long maxlmt = fchan.size();
@@ -152,17 +283,22 @@ public class IOExecWriter
 				return;
 			}
 			if (lmt == 0) lmt = fchan.size(); //sendFile() will correct lmt if it's too large
-			if (isBlocked()) {
+			if (isQueued()) {
 				enqueue(fchan, pos, lmt);
 				noclose = true;
 				return;
 			}
-			if (sendFile(fchan, pos, lmt, null)) return;
+			if (chanmon.isWriteThrottled()) {
+				enqueue(fchan, pos, lmt); //wait for the rate limiter to re-enable OP_WRITE
+			} else if (sendFile(fchan, pos, lmt, null)) {
+				return;
+			}
 			noclose = true; //this transmit op has been queued
 		} finally {
 			if (!noclose) fchan.close();
 		}
 		chanmon.enableWrite();
+		blocked();
 	}
 
 	public void transmitChunked(java.nio.channels.FileChannel fchan, long pos, long lmt, int bufsiz, boolean noclose) throws java.io.IOException
@@ -175,8 +311,8 @@ public class IOExecWriter
 				transmit(fchan, pos, chunklmt, true); //need to send all the chunks before we consider closing
 				pos = chunklmt;
 			}
-			//even if an SSL connection is blocked, file will have been transferred to queued ByteBuffers so can close
-			if (isBlocked() && chanmon.sslConnection() == null) noclose = true;
+			//if an SSL connection isn't streaming file-sends, the file will have been transferred to queued ByteBuffers so can close
+			if (chanmon != null && isBlocked() && (chanmon.sslConnection() == null || SSLSTREAM)) noclose = true;
 		} finally {
 			if (!noclose) fchan.close();
 		}
@@ -191,12 +327,132 @@ public class IOExecWriter
 
 	// Recall that a file-send can be initiated while previous ByteBuffer sends are still backlogged, so
 	// this method makes sure all pending ByteBuffers have been sent before checking for a file-send.
-	void handleIO() throws CM_Stream.BrokenPipeException
+	void handleIO() throws java.io.IOException
 	{
 		if (drainQueue()) {
+			if (!pumpSSL()) {
+				// if nothing got queued, we must be waiting for an SSL handshake, which will call resumeSSL() when done
+				if (chanmon != null && !isQueued()) chanmon.disableWrite();
+				checkLowWatermark();
+				return;
+			}
 			// we've drained the write backlog, so reset Dispatcher registration
+			unblocked();
 			chanmon.transmitCompleted();
 		}
+		// Do this after transmitCompleted(), in case the application responds by transmitting more data
+		checkLowWatermark();
+	}
+
+	// These report the connection blocking and unblocking to JFR
+	private void blocked()
+	{
+		if (!JfrEvents.ENABLED || jfrBlockedSince != 0) return;
+		jfrBlockedSince = System.nanoTime();
+		JfrEvents.writerBlocked(chanmon, queuedBytes, xmtq.size());
+	}
+
+	private void unblocked()
+	{
+		if (jfrBlockedSince == 0) return;
+		JfrEvents.writerUnblocked(chanmon, System.nanoTime() - jfrBlockedSince);
+		jfrBlockedSince = 0;
+	}
+
+	// Called by SSLConnection when a handshake completes, as we hold off on streaming files during a handshake
+	void resumeSSL() throws java.io.IOException
+	{
+		if (sslq == null || sslq.size() == 0 || isQueued() || corked) return;
+		if (!pumpSSL() && chanmon != null && isQueued()) chanmon.enableWrite();
+		checkLowWatermark();
+	}
+
+	// Called when the connection is being closed, at which point we encrypt and queue everything that's still
+	// pending, so that it can be flushed during the linger-on-close.
+	void flushSSL() throws java.io.IOException
+	{
+		if (sslq == null || sslq.size() == 0) return;
+		sslflush = true;
+		try {
+			pumpSSL();
+		} finally {
+			sslflush = false;
+		}
+		if (chanmon != null && isQueued() && !chanmon.isFlagSetCM(ChannelMonitor.S_INWRITE)) chanmon.enableWrite();
+	}
+
+	// Encrypts and sends the pending SSL data in order, until we either run out or the connection blocks.
+	// Returns True if it has all been sent.
+	private boolean pumpSSL() throws java.io.IOException
+	{
+		while (sslq != null && sslq.size() != 0) {
+			if (chanmon == null) return false;
+			final Object obj = sslq.peek();
+			if (obj.getClass() == FileWrite.class) {
+				if (!sendFileSSL((FileWrite)obj)) return false;
+			} else {
+				java.nio.ByteBuffer buf = (java.nio.ByteBuffer)obj;
+				if (!sslflush && (isQueued() || chanmon.sslConnection().isHandshaking())) return false;
+				queuedBytes -= buf.remaining();
+				chanmon.sslConnection().transmit(buf);
+			}
+			if (sslq.size() != 0 && sslq.peek() == obj) dequeueSSL(); //else the connection has been closed under us
+		}
+		return true;
+	}
+
+	// Encrypts the file one TLS record at a time, directly from a memory-mapped view of it, and hands each one
+	// to the SSLConnection (which will transmit it via our write() method) until the connection blocks.
+	// Returns True if the file-send is complete (or was abandoned because the connection has been closed).
+	private boolean sendFileSSL(FileWrite fw) throws java.io.IOException
+	{
+		final SSLConnection sslconn = chanmon.sslConnection();
+		final long maxlmt = fw.chan.size();
+		if (fw.limit > maxlmt) fw.limit = maxlmt; //file has shrunk since we started
+		while (fw.offset < fw.limit) {
+			if (!sslflush && (isQueued() || sslconn.isHandshaking())) return false;
+			if (sslmap == null || sslmapchan != fw.chan || fw.offset < sslmapoff || fw.offset >= sslmapoff + sslmap.capacity()) {
+				sslmap = fw.chan.map(FileChannel.MapMode.READ_ONLY, fw.offset, Math.min(fw.limit - fw.offset, SSLMAPSIZ));
+				sslmapchan = fw.chan;
+				sslmapoff = fw.offset;
+			}
+			final int off = (int)(fw.offset - sslmapoff);
+			final int len = (int)Math.min(Math.min(fw.limit - fw.offset, sslmap.capacity() - off), SSLCHUNK);
+			final java.nio.ByteBuffer chunk = sslmap.duplicate();
+			chunk.limit(off + len);
+			chunk.position(off);
+			sslconn.transmit(chunk);
+			fw.offset += len - chunk.remaining();
+			if (chanmon == null || chanmon.sslConnection() != sslconn) return true;
+		}
+		sslmap = null;
+		sslmapchan = null;
+		return true;
+	}
+
+	// Takes a copy of plaintext which was transmitted while a file was still being streamed ahead of it
+	private void holdSSL(java.nio.ByteBuffer databuf)
+	{
+		int xmtbytes = databuf.remaining();
+		queuedBytes += xmtbytes;
+		while (xmtbytes != 0) {
+			final int chunk = Math.min(xmtbytes, MAXBUFSIZ);
+			final java.nio.ByteBuffer qbuf = allocBuffer(chunk);
+			final int nbytes = chanmon.getDispatcher().transfer(databuf, qbuf);
+			qbuf.flip();
+			sslq.add(qbuf);
+			xmtbytes -= nbytes;
+		}
+	}
+
+	private void dequeueSSL()
+	{
+		Object obj = sslq.remove();
+		if (obj.getClass() == FileWrite.class) {
+			releaseFileWrite((FileWrite)obj);
+		} else {
+			releaseBuffer((java.nio.ByteBuffer)obj);
+		}
 	}
 
 	// Beware: A broken pipe in sendFile() or sendBuffer() could mean that the whole channel has been diposed of and our
@@ -205,7 +461,7 @@ public class IOExecWriter
 	private boolean drainQueue() throws CM_Stream.BrokenPipeException
 	{
 		while (xmtq.size() != 0) {
-			if (chanmon == null) return false;
+			if (chanmon == null || chanmon.isWriteThrottled()) return false;
 			final Object obj = xmtq.peek();
 			if (obj.getClass() == FileWrite.class) {
 				final FileWrite fw = (FileWrite)obj;
@@ -214,8 +470,14 @@ public class IOExecWriter
 			} else {
 				final java.nio.ByteBuffer xmtbuf = (java.nio.ByteBuffer)obj;
 				xmtbuf.position(writemark);
+				final int bufcnt = countBuffers();
+				if (bufcnt > 1) {
+					if (!sendBuffers(bufcnt)) return false;
+					continue;
+				}
 				final int nbytes = sendBuffer(xmtbuf);
 				if (nbytes == -1) return false;
+				queuedBytes -= nbytes;
 
 				if (xmtbuf.remaining() != 0) {
 					//buffer not yet fully transmitted
@@ -229,8 +491,81 @@ public class IOExecWriter
 		return true;
 	}
 
+	// Returns the number of consecutive ByteBuffers at the head of the queue, up to the point where we either reach a
+	// FileWrite or the maximum number we're prepared to send in one gathering write.
+	// The same read-only buffer can be queued several times over, but it only has the one position, so we also stop at
+	// the second occurrence of any buffer.
+	private int countBuffers()
+	{
+		if (GATHERMAX < 2 || !(chanmon.getChannel() instanceof java.nio.channels.GatheringByteChannel)) return 1;
+		if (chanmon.hasWriteLimit()) return 1; //sendBuffer() has to cap each write at the rate limiter's allowance
+		final int maxcnt = Math.min(xmtq.size(), GATHERMAX);
+		int cnt = 1;
+		while (cnt != maxcnt) {
+			final Object obj = xmtq.peek(cnt);
+			if (obj.getClass() == FileWrite.class) break;
+			if (((java.nio.ByteBuffer)obj).isReadOnly() && isQueuedBefore(obj, cnt)) break;
+			cnt++;
+		}
+		return cnt;
+	}
+
+	private boolean isQueuedBefore(Object obj, int pos)
+	{
+		for (int idx = 0; idx != pos; idx++) {
+			if (xmtq.peek(idx) == obj) return true;
+		}
+		return false;
+	}
+
+	// Sends the given number of ByteBuffers from the head of the queue in one gathering write, and dequeues those that
+	// were fully written. If the write was partial, writemark is left pointing at the first unsent byte of the new head
+	// buffer, and all the buffers behind it are still at position zero.
+	// Returns True if all the buffers were sent, else False to indicate that we're blocked (or the connection is broken).
+	private boolean sendBuffers(int bufcnt) throws CM_Stream.BrokenPipeException
+	{
+		if (gatherbufs == null || gatherbufs.length < bufcnt) gatherbufs = new java.nio.ByteBuffer[Math.min(Math.max(bufcnt, 16), GATHERMAX)];
+		gatherbufs[0] = (java.nio.ByteBuffer)xmtq.peek(); //caller has already set its position to writemark
+		for (int idx = 1; idx != bufcnt; idx++) {
+			gatherbufs[idx] = (java.nio.ByteBuffer)xmtq.peek(idx);
+			gatherbufs[idx].position(0);
+		}
+		final java.nio.channels.GatheringByteChannel iochan = (java.nio.channels.GatheringByteChannel)chanmon.getChannel();
+		final long nbytes;
+		try {
+			//throws on closed channel (java.io.IOException) or other error, so can't be sure it's closed, but it might as well be
+			nbytes = iochan.write(gatherbufs, 0, bufcnt);
+		} catch (Exception ex) {
+			java.util.Arrays.fill(gatherbufs, 0, bufcnt, null);
+			LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : CM_TCP.LOGLEVEL_CNX);
+			String errmsg = "IOExec: gathered buffer-send="+bufcnt+" failed";
+			if (chanmon.getLogger().isActive(lvl)) errmsg += " on "+iochan;
+			chanmon.brokenPipe(lvl, "Broken pipe on buffer-send", errmsg, ex);
+			return false;
+		}
+		queuedBytes -= nbytes;
+		chanmon.chargeWrite(nbytes);
+
+		boolean ok = true;
+		for (int idx = 0; idx != bufcnt; idx++) {
+			final java.nio.ByteBuffer xmtbuf = gatherbufs[idx];
+			gatherbufs[idx] = null;
+			if (ok) {
+				if (xmtbuf.remaining() == 0) {
+					dequeue(Boolean.FALSE);
+				} else {
+					writemark = xmtbuf.position();
+					ok = false;
+				}
+			}
+		}
+		if (ok) writemark = 0;
+		return ok;
+	}
+
 	private int enqueue(java.nio.ByteBuffer databuf, int xmtbytes, boolean is_poolbuf)
 	{
+		queuedBytes += xmtbytes;
 		if (is_poolbuf || databuf.isReadOnly()) {
 			// no need to take copy of read-only buffer, as it is guaranteed to be preserved while on the queue
 			int pos = databuf.position();
@@ -292,7 +627,9 @@ public class IOExecWriter
 		final long sendbytes = lmt - pos;
 		try {
 			//throws on closed channel (java.io.IOException) or other error, so can't be sure it's closed, but it might as well be
-			final long nbytes = fchan.transferTo(pos, sendbytes, iochan);
+			//If we're rate-limited then we might be unable to send it all, which looks the same as being blocked.
+			final long nbytes = fchan.transferTo(pos, Math.min(sendbytes, chanmon.getWriteAllowance()), iochan);
+			chanmon.chargeWrite(nbytes);
 			if (nbytes != sendbytes) {
 				//We didn't write as much as we requested, so we're probably blocked, but it could also be because
 				//we reached end-of-file.
@@ -329,26 +666,34 @@ public class IOExecWriter
 	private int sendBuffer(java.nio.ByteBuffer xmtbuf) throws CM_Stream.BrokenPipeException
 	{
 		final java.nio.channels.WritableByteChannel iochan = (java.nio.channels.WritableByteChannel)chanmon.getChannel();
+		final long allowance = chanmon.getWriteAllowance();
+		final int lmt = xmtbuf.limit();
+		if (allowance < xmtbuf.remaining()) xmtbuf.limit(xmtbuf.position() + (int)allowance); //rate-limited, so only send what we can
+		final int nbytes;
 		try {
 			//throws on closed channel (java.io.IOException) or other error, so can't be sure it's closed, but it might as well be
-			return iochan.write(xmtbuf);
+			nbytes = iochan.write(xmtbuf);
 		} catch (Exception ex) {
+			xmtbuf.limit(lmt);
 			LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : CM_TCP.LOGLEVEL_CNX);
 			String errmsg = "IOExec: buffer-send failed";
 			if (chanmon.getLogger().isActive(lvl)) errmsg += " on "+iochan;
 			chanmon.brokenPipe(lvl, "Broken pipe on buffer-send", errmsg, ex);
 			return -1;
 		}
+		xmtbuf.limit(lmt);
+		chanmon.chargeWrite(nbytes);
+		return nbytes;
 	}
 
 	private java.nio.ByteBuffer allocBuffer(int siz)
 	{
-		return bufspec.allocBuffer(siz);
+		return bufspec.allocBuffer(siz, arena);
 	}
 
 	private void releaseBuffer(java.nio.ByteBuffer buf)
 	{
-		bufspec.releaseBuffer(buf);
+		bufspec.releaseBuffer(buf, arena);
 	}
 
 	// Note that because of methods like transmitChunked() we could have multiple FileWrite objects on the xmtq
@@ -356,14 +701,10 @@ public class IOExecWriter
 	// before we close.
 	private void releaseFileWrite(FileWrite fw)
 	{
-		final int cnt = xmtq.size();
-		boolean close = true;
-		for (int idx = 0; idx != cnt; idx++) {
-			final Object obj = xmtq.peek(idx);
-			if (obj.getClass() == FileWrite.class && ((FileWrite)obj).chan == fw.chan) {
-				close = false;
-				break;
-			}
+		final boolean close = !isFileQueued(xmtq, fw.chan) && !(sslq != null && isFileQueued(sslq, fw.chan));
+		if (sslmapchan == fw.chan) {
+			sslmap = null;
+			sslmapchan = null;
 		}
 		if (close) {
 			try {
@@ -379,6 +720,30 @@ public class IOExecWriter
 		chanmon.getDispatcher().releaseFileWrite(fw);
 	}
 
+	private void checkHighWatermark() throws java.io.IOException
+	{
+		if (overWatermark || wmarkHigh == 0 || queuedBytes < wmarkHigh || chanmon == null) return;
+		overWatermark = true;
+		chanmon.writeBlocked();
+	}
+
+	private void checkLowWatermark() throws java.io.IOException
+	{
+		if (!overWatermark || queuedBytes > wmarkLow || chanmon == null) return;
+		overWatermark = false;
+		chanmon.writeResumed();
+	}
+
+	private static boolean isFileQueued(com.grey.base.collections.ObjectQueue<Object> q, java.nio.channels.FileChannel fchan)
+	{
+		final int cnt = q.size();
+		for (int idx = 0; idx != cnt; idx++) {
+			final Object obj = q.peek(idx);
+			if (obj.getClass() == FileWrite.class && ((FileWrite)obj).chan == fchan) return true;
+		}
+		return false;
+	}
+
 
 	static final class FileWrite {
 		java.nio.channels.FileChannel chan;
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+/*
+ * The mechanism by which a Dispatcher waits for its channels to become ready for I/O, and delivers the ready events to
+ * their ChannelMonitors. Interest and ready ops are expressed as the JDK's SelectionKey flags, whatever the transport.
+ * The default is IOTransportNIO, which is based on the JDK Selector. On Linux, a Dispatcher can instead be configured to
+ * use IOTransportEpoll, which drives epoll directly via the Foreign Function and Memory API and is only present in the
+ * Java 22+ part of the greynaf multi-release JAR.
+ * This is only ever accessed within the Dispatcher thread, apart from wakeup(), so implementations are not thread-safe.
+ */
+interface IOTransport
+{
+	int OPS_NONE = -1; //returned by getInterestOps() if the channel is not registered
+	int OPS_CANCELLED = -2; //returned by getInterestOps() if the channel's registration has been cancelled
+
+	// Registers the channel on its first call, and thereafter updates its interest ops
+	void monitorIO(ChannelMonitor cm, int ops) throws java.io.IOException;
+
+	// Cancels the channel's registration, if any
+	void deregisterIO(ChannelMonitor cm);
+
+	// Returns the channel's registered interest ops, or one of the OPS_xxx constants above
+	int getInterestOps(ChannelMonitor cm);
+
+	// Waits for at least one channel to become ready, for up to the given timeout, where zero means wait indefinitely.
+	// Returns the number of channels which are ready, which can be zero if we timed out or were woken up.
+	int select(long timeout) throws java.io.IOException;
+
+	// As above, but does not block
+	int selectNow() throws java.io.IOException;
+
+	// Delivers the events collected by the last select() to the Dispatcher, via Dispatcher.ioReady()
+	void fireIO();
+
+	// Makes the current or next select() return immediately - this may be called by any thread
+	void wakeup();
+
+	void close() throws java.io.IOException;
+
+	// Returns the epoll transport if that was requested and it is available, else falls back to the NIO Selector
+	static IOTransport create(Dispatcher d, boolean epoll, boolean flatKeys) throws java.io.IOException {
+		if (epoll) {
+			try {
+				Class<?> clss = Class.forName("com.grey.naf.reactor.IOTransportEpoll");
+				return (IOTransport)clss.getDeclaredConstructor(Dispatcher.class).newInstance(d);
+			} catch (Throwable ex) {
+				if (ex instanceof java.lang.reflect.InvocationTargetException) ex = ex.getCause();
+				if (ex instanceof ExceptionInInitializerError && ex.getCause() != null) ex = ex.getCause();
+				d.getLogger().info("Dispatcher="+d.getName()+": Epoll transport not available, so using NIO Selector - "+ex);
+			}
+		}
+		return new IOTransportNIO(d, flatKeys);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/*
+ * The standard transport, based on a JDK Selector.
+ * Each ChannelMonitor's SelectionKey is held in the ChannelMonitor itself, so registration updates don't need any lookups.
+ */
+final class IOTransportNIO
+	implements IOTransport
+{
+	private final Dispatcher dsptch;
+	private final java.nio.channels.Selector slct;
+	private final SelectedKeySet flatSelectedKeys; //null means we're using the Selector's standard selected-key set
+
+	IOTransportNIO(Dispatcher d, boolean flatKeys) throws java.io.IOException
+	{
+		dsptch = d;
+		slct = java.nio.channels.Selector.open();
+		flatSelectedKeys = (flatKeys ? SelectedKeySet.install(slct, d.getLogger()) : null);
+	}
+
+	@Override
+	public void monitorIO(ChannelMonitor cm, int ops) throws java.nio.channels.ClosedChannelException
+	{
+		if (cm.getRegistrationKey() == null) { //equivalent to !cm.iochan.isRegistered(), but obviously cheaper
+			//3rd arg has same effect as calling attach(handler) on returned SelectionKey
+			cm.setRegistrationKey(cm.getChannel().register(slct, ops, cm));
+		} else {
+			cm.getRegistrationKey().interestOps(ops);
+		}
+	}
+
+	@Override
+	public void deregisterIO(ChannelMonitor cm)
+	{
+		if (cm.getRegistrationKey() != null) {
+			cm.getRegistrationKey().cancel();
+			cm.setRegistrationKey(null);
+		}
+	}
+
+	@Override
+	public int getInterestOps(ChannelMonitor cm)
+	{
+		java.nio.channels.SelectionKey key = cm.getRegistrationKey();
+		if (key == null) return OPS_NONE;
+		if (!key.isValid()) return OPS_CANCELLED;
+		return key.interestOps();
+	}
+
+	@Override
+	public int select(long timeout) throws java.io.IOException
+	{
+		return slct.select(timeout);
+	}
+
+	@Override
+	public int selectNow() throws java.io.IOException
+	{
+		return slct.selectNow();
+	}
+
+	@Override
+	public void fireIO()
+	{
+		if (flatSelectedKeys != null) {
+			java.nio.channels.SelectionKey[] keys = flatSelectedKeys.keys;
+			int cnt = flatSelectedKeys.size();
+			for (int idx = 0; idx != cnt; idx++) {
+				java.nio.channels.SelectionKey key = keys[idx];
+				keys[idx] = null; //don't retain keys once we've processed them
+				fireIO(key);
+			}
+			flatSelectedKeys.reset(); //this clears the NIO Ready set - NIO would hang otherwise
+			return;
+		}
+		Set<java.nio.channels.SelectionKey> keys = slct.selectedKeys();
+		Iterator<java.nio.channels.SelectionKey> itkey = keys.iterator();
+
+		while (itkey.hasNext()) {
+			fireIO(itkey.next());
+		}
+		keys.clear(); //this clears the NIO Ready set - NIO would hang otherwise
+	}
+
+	private void fireIO(java.nio.channels.SelectionKey key)
+	{
+		// By testing if SelectionKey is still valid, we guard against delivering events to a monitor that was disabled by an earlier
+		// event in the current callout cycle.
+		if (!key.isValid()) return;
+		dsptch.ioReady((ChannelMonitor)key.attachment(), key.readyOps());
+	}
+
+	@Override
+	public void wakeup()
+	{
+		slct.wakeup();
+	}
+
+	@Override
+	public void close() throws java.io.IOException
+	{
+		if (slct.isOpen()) slct.close();
+	}
+
+	@Override
+	public String toString() {
+		return "Selector="+slct.getClass().getCanonicalName()+", Provider="+slct.provider().getClass().getCanonicalName()
+				+", selected-keys="+(flatSelectedKeys == null ? "set" : "flat");
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.config.SysProps;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/*
+ * Emits Java Flight Recorder events for the reactor's activity, so that production NAF services can be profiled with
+ * the standard JFR tooling. JFR events cost next to nothing while no recording is active (or the event type is disabled),
+ * as the JIT reduces them to a flag check.
+ * All references to the jdk.jfr module are confined to this class, and the callers check ENABLED first, so that we can
+ * still run on a JVM which has been built without that module. The greynaf.jfr property can also switch them off.
+ *
+ * The loop-iteration and timer-firing events are disabled by default as they are emitted at a very high rate, so they
+ * have to be enabled explicitly in the JFR settings, eg. com.grey.naf.LoopIteration#enabled=true
+ * The handler-invocation event is only recorded for invocations which exceed its threshold (20ms by default).
+ */
+final class JfrEvents
+{
+	static final boolean ENABLED = SysProps.get("greynaf.jfr", true) && isAvailable();
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
+
+	// Returns null if the event is not enabled, else an event whose end must be passed to endLoop()
+	static Object beginLoop() {
+		LoopIteration evt = new LoopIteration();
+		if (!evt.isEnabled()) return null;
+		evt.begin();
+		return evt;
+	}
+
+	static void endLoop(Object obj, Dispatcher d, long selectTime, int nkeys, int ntimers) {
+		LoopIteration evt = (LoopIteration)obj;
+		evt.end();
+		if (!evt.shouldCommit()) return;
+		evt.dispatcher = d.getName();
+		evt.selectTime = selectTime;
+		evt.readyKeys = nkeys;
+		evt.timersFired = ntimers;
+		evt.commit();
+	}
+
+	// Returns null if the event is not enabled, else an event whose end must be passed to endHandler()
+	static Object beginHandler() {
+		HandlerInvocation evt = new HandlerInvocation();
+		if (!evt.isEnabled()) return null;
+		evt.begin();
+		return evt;
+	}
+
+	static void endHandler(Object obj, Dispatcher d, boolean isTimer, Object handler, int id) {
+		HandlerInvocation evt = (HandlerInvocation)obj;
+		evt.end();
+		if (!evt.shouldCommit()) return;
+		evt.dispatcher = d.getName();
+		evt.handlerType = (isTimer ? "Timer" : "I/O");
+		evt.handlerClass = (handler == null ? null : handler.getClass());
+		evt.id = id;
+		evt.commit();
+	}
+
+	static void timerFired(Dispatcher d, TimerNAF tmr, long lateness) {
+		TimerFired evt = new TimerFired();
+		if (!evt.shouldCommit()) return;
+		evt.dispatcher = d.getName();
+		evt.handlerClass = (tmr.getHandler() == null ? null : tmr.getHandler().getClass());
+		evt.timerType = tmr.getType();
+		evt.lateness = Math.max(0, lateness);
+		evt.commit();
+	}
+
+	static void channelConnected(CM_TCP cm, boolean outbound) {
+		ChannelConnected evt = new ChannelConnected();
+		if (!evt.shouldCommit()) return;
+		setChannel(evt, cm);
+		evt.outbound = outbound;
+		try {
+			evt.remoteAddress = String.valueOf(cm.getRemoteAddress());
+		} catch (Exception ex) {
+			evt.remoteAddress = ex.toString(); //channel must have already failed
+		}
+		evt.commit();
+	}
+
+	static void channelDisconnected(ChannelMonitor cm) {
+		ChannelDisconnected evt = new ChannelDisconnected();
+		if (!evt.shouldCommit()) return;
+		setChannel(evt, cm);
+		evt.lifetime = cm.getSystemTime() - cm.getStartTime();
+		evt.commit();
+	}
+
+	static void writerBlocked(ChannelMonitor cm, long queuedBytes, int queuedBuffers) {
+		WriterBlocked evt = new WriterBlocked();
+		if (!evt.shouldCommit()) return;
+		setChannel(evt, cm);
+		evt.queuedBytes = queuedBytes;
+		evt.queuedBuffers = queuedBuffers;
+		evt.commit();
+	}
+
+	static void writerUnblocked(ChannelMonitor cm, long blockedTime) {
+		WriterUnblocked evt = new WriterUnblocked();
+		if (!evt.shouldCommit()) return;
+		setChannel(evt, cm);
+		evt.blockedTime = blockedTime;
+		evt.commit();
+	}
+
+	static void sslHandshake(ChannelMonitor cm, javax.net.ssl.SSLEngine engine, boolean initial, long shakeTime) {
+		SSLHandshake evt = new SSLHandshake();
+		if (!evt.shouldCommit()) return;
+		setChannel(evt, cm);
+		evt.client = engine.getUseClientMode();
+		evt.initial = initial;
+		evt.shakeTime = shakeTime;
+		javax.net.ssl.SSLSession sess = engine.getSession();
+		evt.protocol = sess.getProtocol();
+		evt.cipherSuite = sess.getCipherSuite();
+		evt.commit();
+	}
+
+	private static void setChannel(ChannelEvent evt, ChannelMonitor cm) {
+		evt.dispatcher = cm.getDispatcher().getName();
+		evt.channelClass = cm.getClass();
+		evt.cmid = cm.getCMID();
+	}
+
+
+	@Category({"NAF", "Reactor"})
+	@StackTrace(false)
+	private static abstract class DispatcherEvent extends jdk.jfr.Event {
+		@Label("Dispatcher")
+		String dispatcher;
+	}
+
+	private static abstract class ChannelEvent extends DispatcherEvent {
+		@Label("Channel Class")
+		Class<?> channelClass;
+
+		@Label("Channel ID")
+		@Description("The CMID of the ChannelMonitor")
+		int cmid;
+	}
+
+	@Name("com.grey.naf.LoopIteration")
+	@Label("Dispatcher Loop Iteration")
+	@Description("One pass through the Dispatcher's event loop, including the time blocked in select()")
+	@Enabled(false)
+	private static final class LoopIteration extends DispatcherEvent {
+		@Label("Select Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long selectTime;
+
+		@Label("Ready Keys")
+		int readyKeys;
+
+		@Label("Timers Fired")
+		int timersFired;
+	}
+
+	@Name("com.grey.naf.HandlerInvocation")
+	@Label("Slow Handler Invocation")
+	@Description("An I/O or Timer handler which held up the Dispatcher thread")
+	@Threshold("20 ms")
+	@StackTrace(true)
+	private static final class HandlerInvocation extends DispatcherEvent {
+		@Label("Handler Type")
+		String handlerType;
+
+		@Label("Handler Class")
+		Class<?> handlerClass;
+
+		@Label("ID")
+		@Description("The CMID for I/O handlers, or the timer type for Timer handlers")
+		int id;
+	}
+
+	@Name("com.grey.naf.TimerFired")
+	@Label("Timer Fired")
+	@Enabled(false)
+	private static final class TimerFired extends DispatcherEvent {
+		@Label("Handler Class")
+		Class<?> handlerClass;
+
+		@Label("Timer Type")
+		int timerType;
+
+		@Label("Lateness")
+		@Description("How long after its expiry time the timer fired")
+		@Timespan(Timespan.MILLISECONDS)
+		long lateness;
+	}
+
+	@Name("com.grey.naf.ChannelConnected")
+	@Label("Connection Established")
+	private static final class ChannelConnected extends ChannelEvent {
+		@Label("Remote Address")
+		String remoteAddress;
+
+		@Label("Outbound")
+		boolean outbound;
+	}
+
+	@Name("com.grey.naf.ChannelDisconnected")
+	@Label("Connection Closed")
+	private static final class ChannelDisconnected extends ChannelEvent {
+		@Label("Lifetime")
+		@Timespan(Timespan.MILLISECONDS)
+		long lifetime;
+	}
+
+	@Name("com.grey.naf.WriterBlocked")
+	@Label("Writer Blocked")
+	@Description("A connection's socket buffer filled up, so its outgoing data is being queued")
+	private static final class WriterBlocked extends ChannelEvent {
+		@Label("Queued Bytes")
+		@DataAmount
+		long queuedBytes;
+
+		@Label("Queued Buffers")
+		int queuedBuffers;
+	}
+
+	@Name("com.grey.naf.WriterUnblocked")
+	@Label("Writer Unblocked")
+	@Description("A blocked connection's queued outgoing data has all been sent")
+	private static final class WriterUnblocked extends ChannelEvent {
+		@Label("Blocked Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long blockedTime;
+	}
+
+	@Name("com.grey.naf.SSLHandshake")
+	@Label("SSL Handshake")
+	private static final class SSLHandshake extends ChannelEvent {
+		@Label("Client Mode")
+		boolean client;
+
+		@Label("Initial")
+		@Description("False if this was a renegotiation of an established connection")
+		boolean initial;
+
+		@Label("Handshake Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long shakeTime;
+
+		@Label("Protocol")
+		String protocol;
+
+		@Label("Cipher Suite")
+		String cipherSuite;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.TimeOps;
+
+/*
+ * Records where a Dispatcher's event loop spends its time, as a set of histograms which are updated once per loop
+ * iteration: The time blocked in select(), the time spent handling I/O and timer events, and the number of ready keys
+ * and timers that were processed.
+ * A loop which is rarely blocked in select() while its handler times grow is saturated, and this is meant to show that
+ * before it turns into a latency problem.
+ *
+ * The histograms have fixed power-of-two buckets, so recording a value is just a few array increments, without any
+ * allocation. They are only updated by the Dispatcher thread, without synchronisation, so other threads will only see
+ * approximate values, which is fine for monitoring purposes. They can be read consistently (and reset) by using
+ * Dispatcher.submit() to do so in the Dispatcher thread.
+ */
+public final class LoopStats
+{
+	private final Histogram selectTime = new Histogram("Select", true);
+	private final Histogram ioTime = new Histogram("IO-Handlers", true);
+	private final Histogram timerTime = new Histogram("Timer-Handlers", true);
+	private final Histogram readyKeys = new Histogram("Ready-Keys", false);
+	private final Histogram timersFired = new Histogram("Timers-Fired", false);
+	private long loops;
+	private long timeReset = System.currentTimeMillis();
+
+	public Histogram getSelectTime() {return selectTime;}
+	public Histogram getIOTime() {return ioTime;}
+	public Histogram getTimerTime() {return timerTime;}
+	public Histogram getReadyKeys() {return readyKeys;}
+	public Histogram getTimersFired() {return timersFired;}
+	public long getLoopCount() {return loops;}
+	public long getTimeReset() {return timeReset;}
+
+	LoopStats() {}
+
+	// The times are in nanoseconds
+	void record(long tSelect, int nkeys, long tIO, int ntimers, long tTimers) {
+		loops++;
+		selectTime.record(tSelect);
+		readyKeys.record(nkeys);
+		if (nkeys != 0) ioTime.record(tIO);
+		if (ntimers != 0) {
+			timersFired.record(ntimers);
+			timerTime.record(tTimers);
+		}
+	}
+
+	public void reset() {
+		selectTime.reset();
+		ioTime.reset();
+		timerTime.reset();
+		readyKeys.reset();
+		timersFired.reset();
+		loops = 0;
+		timeReset = System.currentTimeMillis();
+	}
+
+	// Returns the proportion of the wall-clock time since the last reset that was spent outside of select()
+	public double getBusyRatio() {
+		long elapsed = (System.currentTimeMillis() - timeReset) * 1_000_000L;
+		if (elapsed <= 0) return 0;
+		double busy = 1.0 - ((double)selectTime.getTotal() / elapsed);
+		return Math.max(0, Math.min(1, busy));
+	}
+
+	public StringBuilder dumpState(StringBuilder sb, String dlm) {
+		sb.append("Loops=").append(loops).append(", busy=").append(Math.round(getBusyRatio() * 100)).append("% since ");
+		TimeOps.makeTimeLogger(timeReset, sb, true, true);
+		selectTime.dumpState(sb.append(dlm));
+		ioTime.dumpState(sb.append(dlm));
+		timerTime.dumpState(sb.append(dlm));
+		readyKeys.dumpState(sb.append(dlm));
+		timersFired.dumpState(sb.append(dlm));
+		return sb;
+	}
+
+	@Override
+	public String toString() {
+		return dumpState(new StringBuilder(), " - ").toString();
+	}
+
+
+	/*
+	 * Bucket N holds the values which are less than 2^N (and at least 2^(N-1)), with bucket zero holding the zero values
+	 * and the final bucket absorbing everything beyond the range. That covers up to about 17 minutes of nanoseconds.
+	 */
+	public static final class Histogram
+	{
+		public static final int BUCKETS = 41;
+
+		private final String name;
+		private final boolean nanos;
+		private final long[] buckets = new long[BUCKETS];
+		private long count;
+		private long total;
+		private long max;
+
+		public String getName() {return name;}
+		public long getCount() {return count;}
+		public long getTotal() {return total;}
+		public long getMax() {return max;}
+		public long getBucketCount(int idx) {return buckets[idx];}
+		public boolean isNanos() {return nanos;}
+
+		// Returns the exclusive upper bound of the given bucket's values, where the final bucket is unbounded
+		public static long getBucketLimit(int idx) {return (idx == BUCKETS - 1 ? Long.MAX_VALUE : 1L << idx);}
+
+		Histogram(String name, boolean nanos) {
+			this.name = name;
+			this.nanos = nanos;
+		}
+
+		void record(long val) {
+			if (val < 0) val = 0; //guard against any clock anomaly
+			int idx = 64 - Long.numberOfLeadingZeros(val);
+			buckets[idx < BUCKETS ? idx : BUCKETS - 1]++;
+			count++;
+			total += val;
+			if (val > max) max = val;
+		}
+
+		void reset() {
+			java.util.Arrays.fill(buckets, 0);
+			count = 0;
+			total = 0;
+			max = 0;
+		}
+
+		public long getMean() {
+			return (count == 0 ? 0 : total / count);
+		}
+
+		// Returns the upper bound of the bucket containing the given percentile (0-100), capped by the maximum value seen
+		public long getPercentile(double pct) {
+			if (count == 0) return 0;
+			long target = (long)Math.ceil(count * pct / 100.0);
+			long sum = 0;
+			for (int idx = 0; idx != BUCKETS; idx++) {
+				sum += buckets[idx];
+				if (sum >= target && sum != 0) return Math.min(getBucketLimit(idx) - 1, max);
+			}
+			return max;
+		}
+
+		public StringBuilder dumpState(StringBuilder sb) {
+			sb.append(name).append(": count=").append(count);
+			if (count == 0) return sb;
+			appendValue(sb.append(", mean="), getMean());
+			appendValue(sb.append(", p50="), getPercentile(50));
+			appendValue(sb.append(", p99="), getPercentile(99));
+			appendValue(sb.append(", max="), max);
+			return sb;
+		}
+
+		private void appendValue(StringBuilder sb, long val) {
+			if (nanos) {
+				sb.append(val / 1000).append("us");
+			} else {
+				sb.append(val);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return dumpState(new StringBuilder()).toString();
+		}
+	}
+}
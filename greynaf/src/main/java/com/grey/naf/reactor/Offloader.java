@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.config.SysProps;
+import com.grey.logging.Logger.LEVEL;
+
+/*
+ * Runs blocking tasks on worker threads on behalf of a Dispatcher, and hands their results back to the Dispatcher
+ * thread via a Producer. This is what backs Dispatcher.offload().
+ * The Producer only signals the Dispatcher once for any burst of completions and they are all drained in a single
+ * callback, so a busy Offloader doesn't cost the Dispatcher a wakeup per task.
+ * There is one instance of this class per Dispatcher, and its Producer is shut down once there have been no tasks
+ * outstanding for a while, so that its pipe doesn't keep an otherwise idle Dispatcher alive.
+ * The default worker pool is shared by all Dispatchers in the JVM and is sized by the greynaf.offload.threads property,
+ * where zero or less (the default) means virtual threads, falling back to an unbounded pool of platform threads before
+ * Java 21. Callers can also supply their own pool.
+ */
+final class Offloader
+	implements Producer.Consumer<Offloader.Completion<?>>, TimerNAF.Handler
+{
+	private static final int THREADS = SysProps.get("greynaf.offload.threads", 0);
+	private static final long LINGER = SysProps.getTime("greynaf.offload.linger", "10s"); //how long to retain Producer after going idle
+
+	private static volatile java.util.concurrent.ExecutorService dfltWorkers;
+
+	private final Producer<Completion<?>> completions;
+	private int pending; //number of tasks in progress - only accessed by the Dispatcher thread
+	private TimerNAF tmr_idle;
+
+	static Offloader get(Dispatcher d) {
+		return d.getNamedItem(Offloader.class.getName(), () -> new Offloader(d));
+	}
+
+	private Offloader(Dispatcher d) {
+		try {
+			completions = new Producer<>("Offloader", d, this);
+			completions.startDispatcherRunnable();
+		} catch (java.io.IOException ex) {
+			throw new IllegalStateException("Failed to create Offloader on Dispatcher="+d.getName(), ex);
+		}
+	}
+
+	// Throws RejectedExecutionException if the task couldn't be handed off to the worker pool
+	<T> void submit(java.util.concurrent.ExecutorService workers,
+			java.util.concurrent.Callable<T> task,
+			java.util.function.Consumer<? super T> onResult,
+			java.util.function.Consumer<? super Throwable> onError) {
+		Completion<T> c = new Completion<>(task, onResult, onError);
+		try {
+			(workers == null ? getDefaultWorkers() : workers).execute(() -> runTask(c));
+		} catch (java.util.concurrent.RejectedExecutionException ex) {
+			if (pending == 0) setIdle();
+			throw ex;
+		}
+		pending++;
+	}
+
+	// Runs in worker thread
+	private void runTask(Completion<?> c) {
+		try {
+			c.run();
+		} finally {
+			try {
+				completions.produce(c);
+			} catch (Throwable ex) {
+				//Dispatcher must be shutting down, so there's nobody left to deliver the result to
+			}
+		}
+	}
+
+	@Override
+	public void producerIndication(Producer<Completion<?>> p) {
+		Completion<?> c;
+		while ((c = p.consume()) != null) {
+			pending--;
+			try {
+				c.deliver();
+			} catch (Throwable ex) {
+				p.getDispatcher().getLogger().log(LEVEL.INFO, ex, true, "Dispatcher="+p.getDispatcher().getName()+" failed to deliver offloaded task="+c.task);
+			}
+		}
+		if (pending == 0) setIdle();
+	}
+
+	@Override
+	public void timerIndication(TimerNAF tmr, Dispatcher d) {
+		tmr_idle = null;
+		if (pending != 0) return; //we'll set a new timer when we next go idle
+		d.removeNamedItem(Offloader.class.getName());
+		completions.shutdown(false);
+	}
+
+	private void setIdle() {
+		if (tmr_idle == null) tmr_idle = completions.getDispatcher().setTimer(LINGER, 0, this);
+	}
+
+	private static java.util.concurrent.ExecutorService getDefaultWorkers() {
+		java.util.concurrent.ExecutorService pool = dfltWorkers;
+		if (pool == null) {
+			synchronized (Offloader.class) {
+				pool = dfltWorkers;
+				if (pool == null) {
+					pool = WorkerPool.create("NAF-offload", THREADS);
+					dfltWorkers = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+
+	static final class Completion<T> {
+		final java.util.concurrent.Callable<T> task;
+		private final java.util.function.Consumer<? super T> onResult;
+		private final java.util.function.Consumer<? super Throwable> onError;
+		private T result;
+		private Throwable error;
+
+		Completion(java.util.concurrent.Callable<T> task, java.util.function.Consumer<? super T> onResult, java.util.function.Consumer<? super Throwable> onError) {
+			this.task = task;
+			this.onResult = onResult;
+			this.onError = onError;
+		}
+
+		// Runs in worker thread - the Producer's queue publishes the outcome to the Dispatcher thread
+		void run() {
+			try {
+				result = task.call();
+			} catch (Throwable ex) {
+				error = ex;
+			}
+		}
+
+		// Runs in Dispatcher thread
+		void deliver() throws Throwable {
+			if (error == null) {
+				if (onResult != null) onResult.accept(result);
+			} else {
+				if (onError == null) throw error;
+				onError.accept(error);
+			}
+		}
+	}
+}
@@ -8,8 +8,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Pipe;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.grey.base.config.SysProps;
 import com.grey.base.collections.Circulist;
+import com.grey.base.collections.MpscQueue;
 import com.grey.base.utils.ByteArrayRef;
 import com.grey.base.utils.NIOBuffers;
 import com.grey.naf.BufferGenerator;
@@ -31,7 +34,10 @@ public class Producer<T> implements DispatcherRunnable
 
 	private final String name;
 	private final Consumer<T> consumer;
-	private final Circulist<T> exchgq;  //MT queue, on which Dispatcher receives items from producer
+	// Max items moved to availq per producer event, so a producer which never lets up can't keep the consumer in its callout forever
+	static final int BATCHMAX = SysProps.get("greynaf.producer.batch", 4096);
+
+	private final MpscQueue<T> exchgq;  //lock-free MT queue, on which Dispatcher receives items from producer
 	private final Circulist<T> availq;  //non-MT staging queue, only accessed by the Dispatcher
 	private final AlertsPipe<T> alertspipe;
 	private final Logger logger;
@@ -47,7 +53,7 @@ public class Producer<T> implements DispatcherRunnable
 	public Producer(String producerName, Dispatcher dsptch, Consumer<T> itemConsumer) throws IOException {
 		name = producerName;
 		consumer = itemConsumer;
-		exchgq = new Circulist<>();
+		exchgq = new MpscQueue<>();
 		availq = new Circulist<>();
 		logger = dsptch.getLogger();
 
@@ -72,12 +78,13 @@ public class Producer<T> implements DispatcherRunnable
 		} catch (Throwable ex) {
 			logger.log(LEVEL.INFO, ex, true, "Error on Producer shutdown - "+this);
 		}
+		// Don't touch exchgq unless we've been asked to drain it, as a producer which is still running could keep it topped up forever
 		int ready = availq.size();
-		takePendingItems();
-		int pending = availq.size() - ready;
+		boolean pending = !exchgq.isEmpty();
 
 		logger.info("Shutdown Producer with pending="+ready+"+"+pending+"/drain="+consume_pending+" - "+this);
-		if (consume_pending && ready == 0 && pending != 0) {
+		if (consume_pending && ready == 0 && pending) {
+			takePendingItems(Integer.MAX_VALUE);
 			notifyConsumer();
 			logger.info("Shutdown Producer="+this+": Drainage completed - pending="+availq.size());
 		}
@@ -90,35 +97,18 @@ public class Producer<T> implements DispatcherRunnable
 	}
 
 	public void produce(T item) throws IOException {
-		int cnt;
-		synchronized (exchgq) {
-			cnt = exchgq.size();
-			exchgq.append(item);
-		}
-		produce(cnt);
+		exchgq.add(item);
+		itemsProduced();
 	}
 
 	public void produce(List<T> items) throws IOException {
-		int cnt;
-		synchronized (exchgq) {
-			cnt = exchgq.size();
-			for (int idx = 0; idx != items.size(); idx++) {
-				exchgq.append(items.get(idx));
-			}
-		}
-		produce(cnt);
+		exchgq.add(items);
+		itemsProduced();
 	}
 
 	public void produce(T[] items, int off, int len) throws IOException {
-		int lmt = off + len;
-		int cnt;
-		synchronized (exchgq) {
-			cnt = exchgq.size();
-			for (int idx = off; idx != lmt; idx++) {
-				exchgq.append(items[idx]);
-			}
-		}
-		produce(cnt);
+		exchgq.add(items, off, len);
+		itemsProduced();
 	}
 
 	public void produce(T[] items) throws IOException {
@@ -128,17 +118,16 @@ public class Producer<T> implements DispatcherRunnable
 	// This is the final act of the public produce() methods, which are called by the external producer and
 	// are the only methods in this class that might be called by a different thread (ie. not the Dispatcher
 	// thread).
-	// This method is called internally after exchgq has been populated with the new items, and the Dispatcher arg
-	// represents the Dispatcher in the context of which this call is being made. If it's the same as the Dispatcher
-	// which owns this Producer object, then it is a synchronous call by an in-thread producer, else we have to use
-	// the AlertsPipe to signal the owner Dispatcher.
-	// If exchgq already had unconsumed items on it, then we assume the owner Dispatcher has already been signalled,
-	// so we can skip the I/O cost of sending it a redundant signal.
-	private void produce(int exchq_prevsize) throws IOException {
+	// This method is called internally after exchgq has been populated with the new items. If we are running
+	// in the thread of the Dispatcher which owns this Producer object, then it is a synchronous call by an
+	// in-thread producer, else we have to use the AlertsPipe to signal the owner Dispatcher.
+	// The AlertsPipe only sends a signal if one isn't already outstanding, so a burst of produce() calls costs
+	// the producers a single pipe write between them.
+	private void itemsProduced() throws IOException {
 		if (getDispatcher().isDispatcherThread()) {
 			producerEvent(); //we can synchronously call the Consumer
 		} else {
-			if (exchq_prevsize == 0) alertspipe.signalConsumer();  //one signal is enough
+			alertspipe.signalConsumer();
 		}
 	}
 
@@ -152,17 +141,22 @@ public class Producer<T> implements DispatcherRunnable
 		}
 	}
 
-	private void takePendingItems() {
-		synchronized (exchgq) {
-			while (exchgq.size() != 0) {
-				availq.append(exchgq.remove());
-			}
+	// Returns False if it had to leave some items behind on exchgq
+	private boolean takePendingItems(int max) {
+		T item;
+		while ((item = exchgq.remove()) != null) {
+			availq.append(item);
+			if (--max == 0) return exchgq.isEmpty();
 		}
+		return true;
 	}
 
-	private void producerEvent() {
-		takePendingItems();
+	// If we leave items behind, we signal ourself to come back for them on a later pass through the Dispatcher
+	// loop, rather than looping here, so that the other channels and timers get a turn in the meantime.
+	private void producerEvent() throws IOException {
+		boolean drained = takePendingItems(BATCHMAX);
 		notifyConsumer();
+		if (!drained && !in_shutdown) alertspipe.signalConsumer();
 	}
 
 	@Override
@@ -179,7 +173,11 @@ public class Producer<T> implements DispatcherRunnable
 	 * This class is non-private only because Dispatcher.dumpState() needs to be able to see it.
 	 */
 	static final class AlertsPipe<T> extends CM_Stream {
+		// Each signalling thread has its own 1-byte buffer, so they don't have to lock or allocate a new one per signal
+		private static final ThreadLocal<ByteBuffer> signalBuffer = ThreadLocal.withInitial(() -> NIOBuffers.create(1, true));
+
 		private final Producer<T> producer;
+		private final AtomicBoolean signalled = new AtomicBoolean(); //true means a signal is in the pipe and hasn't been read yet
 		private final Pipe.SinkChannel wep;   //Write end-point of pipe
 		private final Pipe.SourceChannel rep; //Read end-point of pipe
 		private final ByteBuffer rcvbuf;
@@ -209,12 +207,18 @@ public class Producer<T> implements DispatcherRunnable
 			disconnect();
 		}
 
-		// This is called by Producers outside the Dispatcher thread.
+		// This is called by Producers outside the Dispatcher thread, after they have added their items to exchgq.
+		// Only the thread which flips the signalled flag actually writes to the pipe, and the flag isn't cleared until
+		// the consumer has read the signal, so there is never more than one signal in the pipe and a burst of items
+		// costs one syscall. The consumer clears the flag before it drains exchgq, so any items which are added after
+		// it has stopped draining will be accompanied by a fresh signal.
 		// We don't care if the write() returns zero because it's blocked. We are not sending data which the
 		// consumer has to read, but merely kicking it into action, and if the pipe is full, then the
 		// consumer will surely be signalled that I/O is pending.
-		private synchronized void signalConsumer() throws IOException {
-			ByteBuffer buf = NIOBuffers.create(1, false);
+		private void signalConsumer() throws IOException {
+			if (!signalled.compareAndSet(false, true)) return; //one signal is enough
+			ByteBuffer buf = signalBuffer.get();
+			buf.clear();
 			wep.write(buf);
 		}
 
@@ -224,6 +228,7 @@ public class Producer<T> implements DispatcherRunnable
 		public void ioReceived(ByteArrayRef data) throws IOException {
 			rcvbuf.clear();
 			rep.read(rcvbuf);
+			signalled.set(false);
 			producer.producerEvent();
 		}
 	}
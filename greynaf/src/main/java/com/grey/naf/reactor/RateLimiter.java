@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+/*
+ * A token bucket which limits the rate at which a CM_Stream reads from or writes to its connection - see
+ * CM_Stream.setReadRateLimit() and setWriteRateLimit().
+ * The bucket holds up to 'burst' bytes worth of tokens and refills at 'rate' bytes per second. Each I/O op is charged
+ * after the fact, and once the bucket is empty the connection's interest in the relevant I/O op is suspended, until
+ * our timer restores it once the bucket is back in credit.
+ * Writes are capped at the tokens we hold (see allowance()) but we don't know how much a read will return until it's
+ * done, so a read can take the bucket into debt. The long-term rate is still exact, as the debt has to be repaid
+ * before we read again, and the overshoot is bounded by the size of the receive buffer.
+ * Tokens are held in thousandths of a byte, which makes one millisecond's refill exactly 'rate' tokens, so that we
+ * don't lose precision at low rates.
+ */
+final class RateLimiter
+	implements TimerNAF.Handler
+{
+	private static final long MINPAUSE = 10; //msecs - avoids a storm of tiny timers at high rates
+
+	private final CM_Stream cm;
+	private final boolean isWrite;
+	private final long rate; //bytes per second, which is also millibytes per millisecond
+	private final long burst; //max size of bucket, in millibytes
+	private long tokens; //in millibytes - negative means we're in debt
+	private long lastRefill; //system time at which tokens was last brought up to date
+	private TimerNAF tmr; //non-null while we're throttled
+
+	boolean isThrottled() {return (tmr != null);}
+
+	RateLimiter(CM_Stream cm, boolean isWrite, long rate, long burst)
+	{
+		if (rate <= 0 || burst < 0) throw new IllegalArgumentException("Invalid rate limit="+rate+"/"+burst+" for "+cm);
+		this.cm = cm;
+		this.isWrite = isWrite;
+		this.rate = rate;
+		this.burst = (burst == 0 ? rate : burst) * 1000;
+		reset();
+	}
+
+	// Starts us off with a full bucket. The caller is responsible for resuming the I/O op if we were throttled.
+	void reset()
+	{
+		cancel();
+		tokens = burst;
+		lastRefill = cm.getSystemTime();
+	}
+
+	void cancel()
+	{
+		if (tmr == null) return;
+		tmr.cancel();
+		tmr = null;
+	}
+
+	// Returns the max number of bytes that can be written right now. This is rounded up, so it's at least 1 if we
+	// are not throttled, and a write of that size can only take the bucket into debt by a fraction of a byte.
+	long allowance()
+	{
+		if (tmr != null) return 0;
+		refill();
+		return (tokens + 999) / 1000;
+	}
+
+	void charge(long nbytes)
+	{
+		refill();
+		tokens -= nbytes * 1000;
+		if (tokens > 0 || tmr != null) return;
+		pause();
+		cm.suspendIO(isWrite);
+	}
+
+	@Override
+	public void timerIndication(TimerNAF t, Dispatcher d) throws java.io.IOException
+	{
+		tmr = null;
+		refill();
+		if (tokens <= 0) {
+			//timers can fire a bit early - see TimerNAF.JITTER_THRESHOLD
+			pause();
+			return;
+		}
+		cm.resumeIO(isWrite);
+	}
+
+	@Override
+	public void eventError(TimerNAF t, Dispatcher d, Throwable ex) throws java.io.IOException
+	{
+		cm.failed(true, ex);
+	}
+
+	// Sets the timer for when we will have earned back enough tokens to be in credit by at least one byte
+	private void pause()
+	{
+		long interval = (1000 - tokens + rate - 1) / rate;
+		tmr = cm.getDispatcher().setTimer(Math.max(interval, MINPAUSE), 0, this);
+	}
+
+	private void refill()
+	{
+		long now = cm.getSystemTime();
+		long elapsed = now - lastRefill;
+		if (elapsed <= 0) return;
+		lastRefill = now;
+		long credit = (elapsed > Long.MAX_VALUE / rate ? Long.MAX_VALUE : elapsed * rate);
+		tokens = (credit >= burst - tokens ? burst : tokens + credit);
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter["+(isWrite ? "write" : "read")+"="+rate+"/"+(burst/1000)+", tokens="+(tokens/1000)+", throttled="+isThrottled()+"]";
+	}
+}
@@ -16,18 +16,27 @@ class SSLConnection
 {
 	private static final int BUFSIZ_SSL = SysProps.get("greynaf.ssl.bufsiz_ssl", 0);
 	private static final int BUFSIZ_APP = SysProps.get("greynaf.ssl.bufsiz_app", 0);
+	// If true, the SSL buffers are borrowed from a per-Dispatcher pool while data is in flight, rather than being
+	// allocated for the lifetime of the connection
+	private static final boolean POOLEDBUFS = SysProps.get("greynaf.ssl.pooledbufs", true);
+	static final String ARENA_NAME = SSLConnection.class.getName()+"-arena"; //Dispatcher named-item, if SSL needs its own arena
 
 	private static final int S_STARTED = 1 << 0; //initial handshake completed
 	private static final int S_HANDSHAKE = 1 << 1; //currently in a handshake
 	private static final int S_CLOSING = 1 << 2;
 	private static final int S_ABORTED = 1 << 3;
 	private static final int S_CMSTALLED = 1 << 4;
+	private static final int S_INTASK = 1 << 5; //delegated tasks are running in a worker thread
+	private static final int S_INIO = 1 << 6; //we're processing received data, so can't release receive buffers yet
 
 	private final javax.net.ssl.SSLEngine engine;
 	private final CM_Stream cm;
-	private final java.nio.ByteBuffer sslprotoXmtBuf;
-	private final java.nio.ByteBuffer sslprotoRcvBuf;
-	private final java.nio.ByteBuffer appdataRcvBuf;
+	private final com.grey.naf.BufferArena arena; //null means the buffers below are allocated up front and never released
+	private final int netbufsiz;
+	private final int appbufsiz;
+	private java.nio.ByteBuffer sslprotoXmtBuf;
+	private java.nio.ByteBuffer sslprotoRcvBuf;
+	private java.nio.ByteBuffer appdataRcvBuf;
 	private final java.nio.ByteBuffer dummyShakeBuf; //for SSL-handshake Wrap ops, where source buf is ignored
 	private final String logpfx;
 
@@ -36,38 +45,42 @@ class SSLConnection
 	private final long sessionTimeout;
 	private final long shakeTimeout;
 	private final long shakeFreq;
+	private final boolean offloadTasks;
 
 	private XmitQueue xmitq;
 	private byte iostate;
 	private long lastExpireTime;
 	private long lastShakeTime;
 	private TimerNAF tmr_shake;
+	private long shakeStart; //System.nanoTime() at start of current handshake
 
 	private boolean setFlag(int f) {if (isFlagSet(f)) return false; iostate |= (byte) f; return true;}
 	private boolean clearFlag(int f) {if (!isFlagSet(f)) return false; iostate &= (byte) ~f; return true;}
 	private boolean isFlagSet(int f) {return ((iostate & f) != 0);}
+	boolean isHandshaking() {return isFlagSet(S_HANDSHAKE);}
+	private void enterHandshake() {if (setFlag(S_HANDSHAKE)) shakeStart = System.nanoTime();}
 
 	public SSLConnection(CM_Stream chanmon)
 	{
 		cm = chanmon;
-		int peerport = (cm.getChannel() instanceof java.nio.channels.SocketChannel ?
-				cm.getSocketChannel().socket().getPort() : 0);
 		com.grey.naf.reactor.config.SSLConfig sslcfg = cm.getSSLConfig();
 		isClient = sslcfg.isClient();
 		peerCertName = sslcfg.getPeerCertName();
 		sessionTimeout = sslcfg.getSessionTimeout();
 		shakeTimeout = sslcfg.getShakeTimeout();
 		shakeFreq = sslcfg.getShakeFreq();
+		offloadTasks = sslcfg.isOffloadTasks();
 		javax.net.ssl.SSLContext ctx = sslcfg.getContext();
-		engine = isClient ?
-				ctx.createSSLEngine(sslcfg.getPeerCertName(), peerport)
-				: ctx.createSSLEngine();
+		engine = isClient ? createClientEngine(ctx) : ctx.createSSLEngine();
 		javax.net.ssl.SSLSession sess = engine.getSession();
-		int netbufsiz = (BUFSIZ_SSL == 0 ? sess.getPacketBufferSize() : BUFSIZ_SSL);
-		int appbufsiz = (BUFSIZ_APP == 0 ? sess.getApplicationBufferSize() : BUFSIZ_APP);
-		sslprotoXmtBuf = com.grey.base.utils.NIOBuffers.create(netbufsiz, com.grey.naf.BufferGenerator.directniobufs);
-		sslprotoRcvBuf = com.grey.base.utils.NIOBuffers.create(netbufsiz, com.grey.naf.BufferGenerator.directniobufs);
-		appdataRcvBuf = com.grey.base.utils.NIOBuffers.create(appbufsiz, com.grey.naf.BufferGenerator.directniobufs);
+		netbufsiz = (BUFSIZ_SSL == 0 ? sess.getPacketBufferSize() : BUFSIZ_SSL);
+		appbufsiz = (BUFSIZ_APP == 0 ? sess.getApplicationBufferSize() : BUFSIZ_APP);
+		arena = (POOLEDBUFS ? getArena(cm.getDispatcher()) : null);
+		if (arena == null) {
+			sslprotoXmtBuf = com.grey.base.utils.NIOBuffers.create(netbufsiz, com.grey.naf.BufferGenerator.directniobufs);
+			sslprotoRcvBuf = com.grey.base.utils.NIOBuffers.create(netbufsiz, com.grey.naf.BufferGenerator.directniobufs);
+			appdataRcvBuf = com.grey.base.utils.NIOBuffers.create(appbufsiz, com.grey.naf.BufferGenerator.directniobufs);
+		}
 		dummyShakeBuf = com.grey.base.utils.NIOBuffers.create(1, false); //could possibly be static?
 		engine.setUseClientMode(isClient); //must call this in both modes - even if getUseClientMode() already seems correct
 
@@ -83,6 +96,31 @@ class SSLConnection
 		logpfx = "SSL-"+(isClient ? "Client" : "Server")+": ";
 	}
 
+	// The JDK's client session cache is keyed on the host and port we pass in here, so we always use the peer's
+	// IP address rather than the expected cert name (which may not be set) to make sure repeat connections to the
+	// same peer can resume their session. That means SNI has to be set explicitly, as the JDK would otherwise have
+	// derived it from the host.
+	private javax.net.ssl.SSLEngine createClientEngine(javax.net.ssl.SSLContext ctx)
+	{
+		java.net.InetSocketAddress peer = null;
+		if (cm.getChannel() instanceof java.nio.channels.SocketChannel) {
+			java.net.Socket sock = cm.getSocketChannel().socket();
+			if (sock.getInetAddress() != null) peer = new java.net.InetSocketAddress(sock.getInetAddress(), sock.getPort());
+		}
+		if (peer == null) return ctx.createSSLEngine(peerCertName, 0);
+		javax.net.ssl.SSLEngine eng = ctx.createSSLEngine(peer.getAddress().getHostAddress(), peer.getPort());
+		if (peerCertName != null) {
+			try {
+				javax.net.ssl.SSLParameters params = eng.getSSLParameters();
+				params.setServerNames(java.util.Collections.singletonList(new javax.net.ssl.SNIHostName(peerCertName)));
+				eng.setSSLParameters(params);
+			} catch (IllegalArgumentException ex) {
+				//not a valid DNS name, so can't be sent as SNI
+			}
+		}
+		return eng;
+	}
+
 	void start() throws java.io.IOException
 	{
 		if (isClient) {
@@ -96,6 +134,7 @@ class SSLConnection
 	{
 		cancelTimer();
 		setFlag(S_CLOSING);
+		if (!isFlagSet(S_INIO)) releaseBuffers(); //else it will be done once we unwind from the receive path
 		if (isFlagSet(S_ABORTED)) return;
 
 		try {
@@ -125,33 +164,56 @@ class SSLConnection
 
 	void handleIO(java.nio.ByteBuffer srcbuf) throws java.io.IOException
 	{
-		int nbytes = cm.getDispatcher().transfer(srcbuf, sslprotoRcvBuf);
-		if (nbytes == 0) return;
-		ioReceived();
+		final boolean outer = setFlag(S_INIO);
+		try {
+			if (sslprotoRcvBuf == null) sslprotoRcvBuf = allocBuffer(netbufsiz);
+			int nbytes = cm.getDispatcher().transfer(srcbuf, sslprotoRcvBuf);
+			if (nbytes == 0) return;
+			ioReceived();
+		} finally {
+			if (outer) endIO();
+		}
 	}
 
 	void handleRead() throws java.io.IOException
 	{
-		int nbytes = -1;
+		final boolean outer = setFlag(S_INIO);
 		try {
-			java.nio.channels.ReadableByteChannel chan = (java.nio.channels.ReadableByteChannel)cm.getChannel();
-			nbytes = chan.read(sslprotoRcvBuf);
-		} catch (Exception ex) {
-			LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : LEVEL.TRC3);
-			if (cm.getLogger().isActive(lvl)) cm.getLogger().log(lvl, ex, lvl==LEVEL.ERR, logpfx+"SSL-read() failed on "+cm+"/"+cm.getChannel());
-		}
-		if (nbytes == 0) return;
+			if (sslprotoRcvBuf == null) sslprotoRcvBuf = allocBuffer(netbufsiz);
+			int nbytes = -1;
+			try {
+				java.nio.channels.ReadableByteChannel chan = (java.nio.channels.ReadableByteChannel)cm.getChannel();
+				nbytes = chan.read(sslprotoRcvBuf);
+			} catch (Exception ex) {
+				LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : LEVEL.TRC3);
+				if (cm.getLogger().isActive(lvl)) cm.getLogger().log(lvl, ex, lvl==LEVEL.ERR, logpfx+"SSL-read() failed on "+cm+"/"+cm.getChannel());
+			}
+			if (nbytes == 0) return;
 
-		if (nbytes == -1) {
-			disconnect(false, "Remote disconnect");
-			return;
+			if (nbytes == -1) {
+				disconnect(false, "Remote disconnect");
+				return;
+			}
+			cm.chargeRead(nbytes);
+			ioReceived();
+		} finally {
+			if (outer) endIO();
 		}
-		ioReceived();
 	}
 	
 	void deliver() throws java.io.IOException
 	{
 		if (!isFlagSet(S_CMSTALLED)) return;
+		final boolean outer = setFlag(S_INIO);
+		try {
+			deliverStalled();
+		} finally {
+			if (outer) endIO();
+		}
+	}
+
+	private void deliverStalled() throws java.io.IOException
+	{
 		// We were previously interrupted in mid-stream, so we may have buffered data sitting in both the application
 		// (decoded) and protocol (SSL) buffers.
 		// Deliver any decoded data first, and once we've emptied it (or as much as possible) we pull any data from the
@@ -164,6 +226,9 @@ class SSLConnection
 
 	private void ioReceived() throws java.io.IOException
 	{
+		if (isFlagSet(S_INTASK)) return; //engine can't progress till the tasks are done, and we'll resume here then
+		if (sslprotoRcvBuf == null) return; //nothing has been received
+		if (appdataRcvBuf == null) appdataRcvBuf = allocBuffer(appbufsiz);
 		SSLEngineResult.Status engineStatus;
 		do {
 			int pos = appdataRcvBuf.position();
@@ -206,9 +271,10 @@ class SSLConnection
 
 	private boolean forwardReceivedIO() throws java.io.IOException
 	{
-		if (appdataRcvBuf.remaining() == 0) {
-			//theoretically impossible given that it is in the unflipped state, but anyway
-			appdataRcvBuf.clear();
+		if (appdataRcvBuf == null) return true;
+		if (appdataRcvBuf.position() == 0) {
+			//nothing to deliver - NB: the buffer is in the unflipped state, so it might legitimately have remaining()==0 if it's full
+			clearFlag(S_CMSTALLED);
 			return true;
 		}
 		appdataRcvBuf.flip();
@@ -217,16 +283,13 @@ class SSLConnection
 			if (cm.getReader().handleIO(appdataRcvBuf) == 0) {
 				// IOExecReader can't consume any more right now, so leave the remainder of appdataRcvBuf pending
 				// and prepare it to be appended to by our ioReceived() method.
-				// I don't think this can actually happen, as IOExecReader will always deliver something to the
-				// app if its own buffer fills up.
+				// This happens when the IOExecReader has used up its read budget with its own buffer full, and
+				// it will call our deliver() method when it resumes.
 				// NB: IOExecReader safely prevents this making reentrant calls to our deliver() method
 				LEVEL lvl = LEVEL.TRC2;
 				if (cm.getLogger().isActive(lvl)) cm.getLogger().log(lvl, logpfx+"SSL stalled on "+cm+"/"+cm.getChannel()+" - "+appdataRcvBuf);
 				setFlag(S_CMSTALLED);
-				appdataRcvBuf.compact();
-				int nbytes = appdataRcvBuf.remaining();
-				appdataRcvBuf.limit(appdataRcvBuf.capacity());
-				appdataRcvBuf.position(nbytes);
+				appdataRcvBuf.compact(); //this leaves the unread bytes at the start, with position() just beyond them
 				return false;
 			}
 		}
@@ -250,6 +313,23 @@ class SSLConnection
 			}
 			return false;
 		}
+		// The writer copies whatever it can't send immediately, so the transmit buffer is only needed during this call.
+		// We might be called recursively (eg. a failed write leads to a close, which sends a close_notify) in which case
+		// only the outermost call borrows and releases it.
+		final boolean borrowed = (sslprotoXmtBuf == null);
+		if (borrowed) sslprotoXmtBuf = allocBuffer(netbufsiz);
+		try {
+			return encodeAndSend(xmtbuf);
+		} finally {
+			if (borrowed && sslprotoXmtBuf != null) {
+				arena.release(sslprotoXmtBuf);
+				sslprotoXmtBuf = null;
+			}
+		}
+	}
+
+	private boolean encodeAndSend(java.nio.ByteBuffer xmtbuf) throws java.io.IOException
+	{
 		SSLEngineResult.Status engineStatus;
 
 		// Prepare to loop, in case xmtbuf is too large to stuff into sslprotoXmtBuf in one go
@@ -324,6 +404,7 @@ class SSLConnection
 			}
 			lastExpireTime = engine.getSession().getCreationTime();
 			lastShakeTime = cm.getSystemTime();
+			if (JfrEvents.ENABLED) JfrEvents.sslHandshake(cm, engine, !isFlagSet(S_STARTED), System.nanoTime() - shakeStart);
 
 			if (setFlag(S_STARTED)) {
 				// this was the initial handshake, so indicate that connection is now ready
@@ -331,13 +412,19 @@ class SSLConnection
 				cm.sslStarted();
 			} else {
 				if (xmitq != null) xmitq.drain();
+				if (cm.getWriter() != null) cm.getWriter().resumeSSL();
 			}
 			return false;
 
 		case NEED_TASK:
-			// TODO: Delegated tasks could be run in a Dispatcher threadpool, and a timer could check on them every half
-			// second - or maybe 100ms, then every half sec. They could set a volatile flag to indicate they're done.
-			setFlag(S_HANDSHAKE);
+			enterHandshake();
+			if (offloadTasks) {
+				// The handshake will be resumed by delegatedTasksDone() once a worker thread has run the tasks
+				if (isFlagSet(S_INTASK)) return false;
+				setFlag(S_INTASK);
+				if (SSLTaskRunner.submit(cm.getDispatcher(), this, engine)) return false;
+				clearFlag(S_INTASK);
+			}
 			Runnable task;
 			while ((task = engine.getDelegatedTask()) != null) {
 				task.run();
@@ -346,11 +433,11 @@ class SSLConnection
 
 		case NEED_UNWRAP:
 			// we will do the unwrap in the normal course of the handleIO() loop on decode()
-			setFlag(S_HANDSHAKE);
+			enterHandshake();
 			return false;
 
 		case NEED_WRAP:
-			setFlag(S_HANDSHAKE);
+			enterHandshake();
 			return transmit(dummyShakeBuf, false);
 
 		default:
@@ -359,6 +446,66 @@ class SSLConnection
 		return (engineStatus == SSLEngineResult.Status.OK);
 	}
 
+	// Called in the Dispatcher thread, once a worker thread has completed the tasks we handed it in doHandshakeAction()
+	void delegatedTasksDone() throws java.io.IOException
+	{
+		clearFlag(S_INTASK);
+		if (isFlagSet(S_CLOSING | S_ABORTED) || cm.sslConnection() != this) return; //connection was closed in the meantime
+		final boolean outer = setFlag(S_INIO);
+		try {
+			while (doHandshakeAction());
+			ioReceived(); //process any SSL protocol data that arrived while the tasks were running
+		} catch (Exception ex) {
+			LEVEL lvl = (NAFException.isError(ex) ? LEVEL.ERR : LEVEL.TRC3);
+			if (cm.getLogger().isActive(lvl)) cm.getLogger().log(lvl, ex, lvl==LEVEL.ERR, logpfx+"SSL handshake failed after delegated tasks on "+cm+"/"+cm.getChannel());
+			disconnect(true, "SSL handshake failed");
+		} finally {
+			if (outer) endIO();
+		}
+	}
+
+	private void endIO()
+	{
+		clearFlag(S_INIO);
+		if (isFlagSet(S_CLOSING)) {
+			releaseBuffers();
+			return;
+		}
+		// Hand back the receive buffers if they've been fully drained. Note that appdataRcvBuf is in the unflipped state
+		// here, so its position is the amount of undelivered data.
+		if (arena == null) return;
+		if (sslprotoRcvBuf != null && sslprotoRcvBuf.position() == 0) {
+			arena.release(sslprotoRcvBuf);
+			sslprotoRcvBuf = null;
+		}
+		if (appdataRcvBuf != null && appdataRcvBuf.position() == 0) {
+			arena.release(appdataRcvBuf);
+			appdataRcvBuf = null;
+		}
+	}
+
+	private void releaseBuffers()
+	{
+		if (arena == null) return;
+		if (sslprotoRcvBuf != null) arena.release(sslprotoRcvBuf);
+		if (appdataRcvBuf != null) arena.release(appdataRcvBuf);
+		sslprotoRcvBuf = null;
+		appdataRcvBuf = null;
+	}
+
+	private java.nio.ByteBuffer allocBuffer(int siz)
+	{
+		return arena.alloc(siz, com.grey.naf.BufferGenerator.directniobufs);
+	}
+
+	// Use the Dispatcher's general-purpose buffer arena if it has one, else give the SSL connections one of their own
+	private static com.grey.naf.BufferArena getArena(Dispatcher d)
+	{
+		com.grey.naf.BufferArena arena = d.getBufferArena();
+		if (arena == null) arena = d.getNamedItem(ARENA_NAME, () -> new com.grey.naf.BufferArena(d.getName()+"-SSL"));
+		return arena;
+	}
+
 	private SSLEngineResult.Status encode(java.nio.ByteBuffer srcbuf) throws java.io.IOException
 	{
 		sslprotoXmtBuf.clear();
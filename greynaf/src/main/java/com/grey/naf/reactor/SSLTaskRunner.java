@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.config.SysProps;
+import com.grey.logging.Logger.LEVEL;
+
+/*
+ * Runs the SSLEngine's delegated tasks (the expensive crypto and cert-validation steps of a handshake) on a pool
+ * of worker threads, rather than on the Dispatcher thread where they would stall every other connection.
+ * The worker pool is shared by all Dispatchers in the JVM and is sized by the greynaf.ssl.taskthreads property,
+ * where zero or less means virtual threads (Java 21+). The default is one thread per CPU.
+ * The tasks are handed off via the Dispatcher's Offloader, which hands the SSLConnection back to the Dispatcher thread
+ * to resume its handshake once they have completed.
+ */
+final class SSLTaskRunner
+{
+	private static final int THREADS = SysProps.get("greynaf.ssl.taskthreads", Runtime.getRuntime().availableProcessors());
+
+	private static volatile java.util.concurrent.ExecutorService workers;
+
+	// Returns false if the tasks couldn't be handed off, in which case the caller should run them itself
+	static boolean submit(Dispatcher d, SSLConnection conn, javax.net.ssl.SSLEngine engine) {
+		try {
+			Offloader.get(d).submit(getWorkers(), () -> runTasks(engine), (v) -> resume(d, conn), null);
+			return true;
+		} catch (java.util.concurrent.RejectedExecutionException ex) {
+			d.getLogger().log(LEVEL.INFO, ex, false, "Failed to offload SSL tasks - "+ex);
+			return false;
+		}
+	}
+
+	// Runs in worker thread. Any task failure will surface as a handshake failure when the engine is next used.
+	private static Void runTasks(javax.net.ssl.SSLEngine engine) {
+		try {
+			Runnable task;
+			while ((task = engine.getDelegatedTask()) != null) {
+				task.run();
+			}
+		} catch (Throwable ex) {
+			//ignore - see above
+		}
+		return null;
+	}
+
+	private static void resume(Dispatcher d, SSLConnection conn) {
+		try {
+			conn.delegatedTasksDone();
+		} catch (Throwable ex) {
+			d.getLogger().log(LEVEL.INFO, ex, true, "Failed to resume SSL handshake after delegated tasks");
+		}
+	}
+
+	private static java.util.concurrent.ExecutorService getWorkers() {
+		java.util.concurrent.ExecutorService pool = workers;
+		if (pool == null) {
+			synchronized (SSLTaskRunner.class) {
+				pool = workers;
+				if (pool == null) {
+					pool = WorkerPool.create("NAF-SSL-tasks", THREADS);
+					workers = pool;
+				}
+			}
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.nio.channels.SelectionKey;
+
+/*
+ * This replaces the JDK Selector's internal HashSet of selected keys with a flat array, so that the Dispatcher can
+ * iterate over the ready keys without the hashing overhead, and without allocating an Iterator on every cycle.
+ * It has to be installed by reflection on the Selector's private fields, which requires the sun.nio.ch package to be
+ * open to us (eg. --add-opens java.base/sun.nio.ch=ALL-UNNAMED) on newer JDKs, and if that fails we just carry on with
+ * the standard selected-key set.
+ *
+ * The Selector only calls add(), and it only calls contains() to check whether a key it is about to add is already
+ * present. That can't happen as long as the Dispatcher drains and resets this set after every select() which returns
+ * a non-zero count, so contains() is a constant false.
+ */
+final class SelectedKeySet extends java.util.AbstractSet<SelectionKey>
+{
+	SelectionKey[] keys = new SelectionKey[256];
+	private int count;
+
+	@Override
+	public int size() {return count;}
+	@Override
+	public boolean contains(Object obj) {return false;}
+	@Override
+	public boolean remove(Object obj) {return false;}
+
+	@Override
+	public boolean add(SelectionKey key) {
+		if (key == null) return false;
+		if (count == keys.length) keys = java.util.Arrays.copyOf(keys, count * 2);
+		keys[count++] = key;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		java.util.Arrays.fill(keys, 0, count, null);
+		count = 0;
+	}
+
+	// The Dispatcher nulls out the entries as it processes them, so we only need to reset the count
+	void reset() {
+		count = 0;
+	}
+
+	@Override
+	public java.util.Iterator<SelectionKey> iterator() {
+		return new java.util.Iterator<SelectionKey>() {
+			private int pos;
+			@Override
+			public boolean hasNext() {return pos != count;}
+			@Override
+			public SelectionKey next() {
+				if (pos == count) throw new java.util.NoSuchElementException();
+				return keys[pos++];
+			}
+		};
+	}
+
+	// Returns null if we were unable to install the flat set in this Selector
+	static SelectedKeySet install(java.nio.channels.Selector slct, com.grey.logging.Logger logger) {
+		SelectedKeySet keyset = new SelectedKeySet();
+		try {
+			Class<?> clss = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+			if (!clss.isAssignableFrom(slct.getClass())) {
+				logger.info("Flat selected-key set not supported for Selector="+slct.getClass().getName());
+				return null;
+			}
+			java.lang.reflect.Field fld1 = clss.getDeclaredField("selectedKeys");
+			java.lang.reflect.Field fld2 = clss.getDeclaredField("publicSelectedKeys");
+			fld1.setAccessible(true);
+			fld2.setAccessible(true);
+			fld1.set(slct, keyset);
+			fld2.set(slct, keyset);
+			return keyset;
+		} catch (Throwable ex) {
+			logger.info("Flat selected-key set not available for Selector="+slct.getClass().getName()+" - "+ex);
+			return null;
+		}
+	}
+}
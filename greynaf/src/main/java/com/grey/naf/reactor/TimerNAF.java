@@ -32,6 +32,12 @@ public class TimerNAF
 	private Handler handler;
 	private Object attachment;
 
+	// these are only used by TimerSchedulerWheel, to link the timer into its wheel slot
+	TimerNAF wheelPrev;
+	TimerNAF wheelNext;
+	int wheelSlot = TimerSchedulerWheel.SLOT_NONE;
+	long wheelSeq;
+
 	public int getID() {return id;}
 	public int getType() {return type;}
 	public long age(TimeProvider tp) {return tp.getSystemTime() - activated;}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.collections.ObjectQueue;
+
+/*
+ * Holds a Dispatcher's scheduled timers, ie. those which have been set but have not yet expired.
+ * Once they expire, they are moved to the Dispatcher's queue of pending timers (ready to fire) by expire().
+ * This is only ever accessed within the Dispatcher thread, so implementations are not thread-safe.
+ */
+interface TimerScheduler
+{
+	int size();
+
+	// Zero-second timers must be scheduled ahead of all others, even ahead of other zero-second timers
+	void add(TimerNAF tmr);
+
+	// Returns False if the timer is not currently scheduled
+	boolean remove(TimerNAF tmr);
+
+	// Returns the time at which the Dispatcher should next call expire(), or Long.MAX_VALUE if no timers are scheduled.
+	// This is never later than the expiry time of the earliest timer, but may be earlier.
+	long nextExpiry();
+
+	// Transfer all timers which expire before the given system time onto the pending queue, in order of expiry
+	void expire(long limit, ObjectQueue<TimerNAF> pending);
+
+	// Appends all scheduled timers to the given list, in order of expiry - not expected to be performance-critical
+	java.util.List<TimerNAF> getTimers(java.util.List<TimerNAF> lst);
+}
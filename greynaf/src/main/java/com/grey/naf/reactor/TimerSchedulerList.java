@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.collections.Circulist;
+import com.grey.base.collections.ObjectQueue;
+
+/*
+ * This is the original Dispatcher timer scheduler, which simply maintains its timers as a list sorted by expiry time.
+ * Adding and resetting timers is a linear operation, but that is efficient enough for the moderate numbers of timers
+ * that most Dispatchers hold, and it is the default.
+ */
+final class TimerSchedulerList implements TimerScheduler
+{
+	private final Circulist<TimerNAF> activeTimers = new Circulist<>();
+
+	@Override
+	public int size() {return activeTimers.size();}
+	@Override
+	public boolean remove(TimerNAF tmr) {return activeTimers.remove(tmr);}
+
+	@Override
+	public void add(TimerNAF tmr) {
+		int pos = 0; // will insert new timer at head of list, if we don't find any earlier timers
+		if (tmr.getInterval() != 0) {
+			//zero-sec timers go straight to front of queue, even ahead of other zero-sec ones
+			for (int idx = activeTimers.size() - 1; idx != -1; idx--) {
+				if (tmr.getExpiryTime() >= activeTimers.get(idx).getExpiryTime()) {
+					// insert tmr AFTER this node
+					pos = idx + 1;
+					break;
+				}
+			}
+		}
+		activeTimers.insert(pos, tmr);
+	}
+
+	@Override
+	public long nextExpiry() {
+		if (activeTimers.size() == 0) return Long.MAX_VALUE;
+		return activeTimers.get(0).getExpiryTime();
+	}
+
+	@Override
+	public void expire(long limit, ObjectQueue<TimerNAF> pending) {
+		while (activeTimers.size() != 0) {
+			TimerNAF tmr = activeTimers.get(0);
+			if (tmr.getExpiryTime() >= limit) break; //no expired timers left
+			activeTimers.remove(0);
+			pending.add(tmr);
+		}
+	}
+
+	@Override
+	public java.util.List<TimerNAF> getTimers(java.util.List<TimerNAF> lst) {
+		for (int idx = 0; idx != activeTimers.size(); idx++) {
+			lst.add(activeTimers.get(idx));
+		}
+		return lst;
+	}
+
+	@Override
+	public String toString() {
+		return "TimerSchedulerList/"+activeTimers;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.collections.ObjectQueue;
+
+/*
+ * Hierarchical timing wheel, which makes adding, resetting and cancelling timers an O(1) operation regardless of how
+ * many timers are active. This is intended for Dispatchers which hold very large numbers of timers (eg. an idle
+ * timer per connection, which gets reset on every read) where the linear insert cost of TimerSchedulerList dominates.
+ *
+ * Time is divided into ticks of the configured duration, and the wheel consists of LEVELS levels of 64 slots each.
+ * Level 0 has a slot per tick, level 1 has a slot per 64 ticks, level 2 a slot per 4096 ticks and so on.
+ * A timer is stored at the lowest level at which its expiry tick lies in the same block as the current tick, ie. where
+ * they only differ in the bits indexing that level, so the slot it lands in is always ahead of the current one at that
+ * level. As the current tick advances into a higher-level slot, that slot's timers are cascaded down to the lower levels,
+ * and by the time a timer is due it is sitting in a level-0 slot. Any given timer is cascaded at most once per level.
+ *
+ * The timers within a slot are held in an intrusive doubly-linked list (via TimerNAF's wheel fields) so they can be
+ * unlinked in constant time, and a per-level occupancy bitmap lets us skip straight to the next non-empty slot, so we
+ * don't have to step through empty ticks when the Dispatcher has been idle.
+ *
+ * Zero-second timers are held on a separate list and are always expired first, with the most recently added first,
+ * to preserve the same firing order as TimerSchedulerList. Other timers which expire in the same call to expire() are
+ * sorted into order of expiry time (ties are in order of activation), so the firing order is also the same as with
+ * TimerSchedulerList, but only the expired batch gets sorted.
+ */
+final class TimerSchedulerWheel implements TimerScheduler
+{
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS; //so that each level's occupancy bitmap fits in a long
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 10; //60 bits worth of ticks is beyond any reachable expiry time
+	private static final long MAX_TICK = (1L << (SLOT_BITS * LEVELS)) - 1;
+	private static final int SLOT_ZERO = LEVELS * SLOTS; //pseudo-slot which holds the zero-second timers
+
+	static final int SLOT_NONE = -1; //TimerNAF.wheelSlot value when it is not on a wheel
+
+	private static final java.util.Comparator<TimerNAF> EXPIRY_ORDER = (t1, t2) -> {
+		int cmp = Long.compare(t1.getExpiryTime(), t2.getExpiryTime());
+		return (cmp == 0 ? Long.compare(t1.wheelSeq, t2.wheelSeq) : cmp);
+	};
+
+	private final long tick;
+	private final TimerNAF[] slotHeads = new TimerNAF[SLOT_ZERO + 1];
+	private final TimerNAF[] slotTails = new TimerNAF[SLOT_ZERO + 1];
+	private final long[] occupied = new long[LEVELS];
+	private long currentTick; //the level-0 slot we're currently on - all earlier ones have been expired
+	private long nextSeq;
+	private int count;
+	private TimerNAF[] batch = new TimerNAF[64]; //work area for expire()
+
+	@Override
+	public int size() {return count;}
+
+	public long getTick() {return tick;}
+
+	TimerSchedulerWheel(long tick, long systime) {
+		if (tick <= 0) throw new IllegalArgumentException("TimerSchedulerWheel: Invalid tick="+tick);
+		this.tick = tick;
+		currentTick = tickOf(systime);
+	}
+
+	@Override
+	public void add(TimerNAF tmr) {
+		tmr.wheelSeq = nextSeq++;
+		if (tmr.getInterval() == 0) {
+			//zero-sec timers go straight to front of queue, even ahead of other zero-sec ones
+			TimerNAF head = slotHeads[SLOT_ZERO];
+			tmr.wheelPrev = null;
+			tmr.wheelNext = head;
+			if (head == null) {
+				slotTails[SLOT_ZERO] = tmr;
+			} else {
+				head.wheelPrev = tmr;
+			}
+			slotHeads[SLOT_ZERO] = tmr;
+			tmr.wheelSlot = SLOT_ZERO;
+		} else {
+			place(tmr);
+		}
+		count++;
+	}
+
+	@Override
+	public boolean remove(TimerNAF tmr) {
+		if (tmr.wheelSlot == SLOT_NONE) return false;
+		unlink(tmr);
+		count--;
+		return true;
+	}
+
+	@Override
+	public long nextExpiry() {
+		if (slotHeads[SLOT_ZERO] != null) return slotHeads[SLOT_ZERO].getExpiryTime();
+		if (count == 0) return Long.MAX_VALUE;
+		long next = Long.MAX_VALUE;
+
+		// The earliest level-0 slot holds the next timer to expire, and it's expected to be short, so scan it
+		long bits = occupied[0] & (-1L << (int)(currentTick & SLOT_MASK));
+		if (bits != 0) {
+			for (TimerNAF tmr = slotHeads[Long.numberOfTrailingZeros(bits)]; tmr != null; tmr = tmr.wheelNext) {
+				if (tmr.getExpiryTime() < next) next = tmr.getExpiryTime();
+			}
+		}
+
+		// Any timers on the higher levels are later than the level-0 ones, but we need to wake up to cascade them
+		for (int lvl = 1; lvl != LEVELS; lvl++) {
+			int shift = lvl * SLOT_BITS;
+			bits = occupied[lvl] & (-1L << (int)((currentTick >>> shift) & SLOT_MASK));
+			if (bits == 0) continue;
+			long slotstart = (currentTick & ~((1L << (shift + SLOT_BITS)) - 1)) | ((long)Long.numberOfTrailingZeros(bits) << shift);
+			long t = Math.max(slotstart, currentTick) * tick;
+			if (t < next) next = t;
+		}
+		return next;
+	}
+
+	@Override
+	public void expire(long limit, ObjectQueue<TimerNAF> pending) {
+		TimerNAF tmr;
+		while ((tmr = slotHeads[SLOT_ZERO]) != null) {
+			if (tmr.getExpiryTime() >= limit) return; //can only happen if system clock went backwards - nothing expires behind it
+			unlink(tmr);
+			count--;
+			pending.add(tmr);
+		}
+		if (count == 0) return;
+
+		// Timers in slots before limitTick are definitely due, while those in limitTick's slot need to be checked individually.
+		// If the system clock has gone backwards, we stay on the current tick rather than rewinding the wheel.
+		final long limitTick = Math.max(tickOf(limit - 1), currentTick);
+		int batchsize = 0;
+
+		for (;;) {
+			// find the earliest slot that needs to be expired or cascaded
+			int evlvl = -1;
+			int evslot = 0;
+			long evtick = Long.MAX_VALUE;
+			for (int lvl = 0; lvl != LEVELS; lvl++) {
+				int shift = lvl * SLOT_BITS;
+				long bits = occupied[lvl] & (-1L << (int)((currentTick >>> shift) & SLOT_MASK));
+				if (bits == 0) continue;
+				int idx = Long.numberOfTrailingZeros(bits);
+				long slotstart = (currentTick & ~((1L << (shift + SLOT_BITS)) - 1)) | ((long)idx << shift);
+				long t = Math.max(slotstart, currentTick);
+				if (t < evtick) {
+					evtick = t;
+					evlvl = lvl;
+					evslot = (lvl * SLOTS) + idx;
+				}
+			}
+			if (evtick > limitTick) break;
+			currentTick = evtick;
+
+			if (evlvl != 0) {
+				// cascade this slot's timers down to the lower levels
+				TimerNAF next = detach(evslot);
+				while ((tmr = next) != null) {
+					next = tmr.wheelNext;
+					place(tmr);
+				}
+				continue;
+			}
+			boolean partial = (evtick == limitTick);
+			TimerNAF next = slotHeads[evslot];
+			while ((tmr = next) != null) {
+				next = tmr.wheelNext;
+				if (partial && tmr.getExpiryTime() >= limit) continue;
+				unlink(tmr);
+				count--;
+				if (batchsize == batch.length) batch = java.util.Arrays.copyOf(batch, batchsize * 2);
+				batch[batchsize++] = tmr;
+			}
+			if (partial) break;
+			currentTick++;
+		}
+		currentTick = limitTick;
+
+		if (batchsize > 1) java.util.Arrays.sort(batch, 0, batchsize, EXPIRY_ORDER);
+		for (int idx = 0; idx != batchsize; idx++) {
+			pending.add(batch[idx]);
+			batch[idx] = null;
+		}
+	}
+
+	@Override
+	public java.util.List<TimerNAF> getTimers(java.util.List<TimerNAF> lst) {
+		for (TimerNAF tmr = slotHeads[SLOT_ZERO]; tmr != null; tmr = tmr.wheelNext) {
+			lst.add(tmr);
+		}
+		java.util.List<TimerNAF> lst2 = new java.util.ArrayList<>();
+		for (int slot = 0; slot != SLOT_ZERO; slot++) {
+			for (TimerNAF tmr = slotHeads[slot]; tmr != null; tmr = tmr.wheelNext) {
+				lst2.add(tmr);
+			}
+		}
+		lst2.sort(EXPIRY_ORDER);
+		lst.addAll(lst2);
+		return lst;
+	}
+
+	private void place(TimerNAF tmr) {
+		long t = tickOf(tmr.getExpiryTime());
+		if (t < currentTick) t = currentTick; //already overdue, so expire it as soon as possible
+		long diff = t ^ currentTick;
+		int lvl = (diff < SLOTS ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS);
+		int idx = (int)((t >>> (lvl * SLOT_BITS)) & SLOT_MASK);
+		int slot = (lvl * SLOTS) + idx;
+
+		TimerNAF tail = slotTails[slot];
+		tmr.wheelNext = null;
+		tmr.wheelPrev = tail;
+		if (tail == null) {
+			slotHeads[slot] = tmr;
+			occupied[lvl] |= (1L << idx);
+		} else {
+			tail.wheelNext = tmr;
+		}
+		slotTails[slot] = tmr;
+		tmr.wheelSlot = slot;
+	}
+
+	private void unlink(TimerNAF tmr) {
+		int slot = tmr.wheelSlot;
+		TimerNAF prev = tmr.wheelPrev;
+		TimerNAF next = tmr.wheelNext;
+		if (prev == null) {
+			slotHeads[slot] = next;
+		} else {
+			prev.wheelNext = next;
+		}
+		if (next == null) {
+			slotTails[slot] = prev;
+		} else {
+			next.wheelPrev = prev;
+		}
+		if (slotHeads[slot] == null && slot != SLOT_ZERO) occupied[slot / SLOTS] &= ~(1L << (slot & SLOT_MASK));
+		tmr.wheelPrev = null;
+		tmr.wheelNext = null;
+		tmr.wheelSlot = SLOT_NONE;
+	}
+
+	// Empties the slot and returns its former head, with its members still linked to each other
+	private TimerNAF detach(int slot) {
+		TimerNAF head = slotHeads[slot];
+		slotHeads[slot] = null;
+		slotTails[slot] = null;
+		occupied[slot / SLOTS] &= ~(1L << (slot & SLOT_MASK));
+		return head;
+	}
+
+	private long tickOf(long systime) {
+		if (systime <= 0) return 0;
+		return Math.min(systime / tick, MAX_TICK);
+	}
+
+	@Override
+	public String toString() {
+		return "TimerSchedulerWheel/tick="+tick+"/size="+count+"/current="+currentTick;
+	}
+}
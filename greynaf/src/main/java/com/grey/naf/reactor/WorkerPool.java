@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.util.concurrent.ExecutorService;
+
+/*
+ * Creates the thread pools on which Dispatchers can run blocking or CPU-heavy work, without stalling their event loops.
+ * The results are expected to be handed back to the Dispatcher via a Producer.
+ * A non-positive thread count asks for virtual threads, which are only available on Java 21+, so they're created by
+ * reflection and we fall back to an unbounded pool of platform threads on older JVMs.
+ * All the platform threads are daemons, so that an idle pool never holds up JVM exit.
+ */
+final class WorkerPool
+{
+	static ExecutorService create(String name, int threads)
+	{
+		if (threads <= 0) {
+			ExecutorService pool = createVirtual();
+			if (pool != null) return pool;
+		}
+		java.util.concurrent.atomic.AtomicInteger seq = new java.util.concurrent.atomic.AtomicInteger();
+		java.util.concurrent.ThreadFactory fact = (r) -> {
+			Thread t = new Thread(r, name+"-"+seq.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		if (threads <= 0) return java.util.concurrent.Executors.newCachedThreadPool(fact);
+		return java.util.concurrent.Executors.newFixedThreadPool(threads, fact);
+	}
+
+	// Returns null if virtual threads are not supported by this JVM
+	static ExecutorService createVirtual()
+	{
+		try {
+			java.lang.reflect.Method meth = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)meth.invoke(null);
+		} catch (Throwable ex) {
+			return null;
+		}
+	}
+}
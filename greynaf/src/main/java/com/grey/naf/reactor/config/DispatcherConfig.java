@@ -13,12 +13,20 @@ import com.grey.naf.ApplicationContextNAF;
 public class DispatcherConfig
 {
 	public static final String SYSPROP_LOGNAME = "greynaf.dispatchers.logname";
+	public static final String SYSPROP_TIMERWHEEL = "greynaf.dispatchers.timerwheel";
+	public static final String SYSPROP_BUFFERARENA = "greynaf.dispatchers.bufarena";
+	public static final String SYSPROP_SLOWHANDLER = "greynaf.dispatchers.slowhandler";
+	public static final String SYSPROP_EPOLL = "greynaf.dispatchers.epoll";
 
 	private final String name;
 	private final String logName;
 	private final ApplicationContextNAF appContext;
 	private final boolean surviveHandlers;
 	private final long flushInterval;
+	private final long timerWheelTick; //zero means timers are held in a sorted list, else it's the tick interval of a timing wheel
+	private final boolean bufferArena; //true means connections share a per-Dispatcher buffer pool, and only hold receive buffers while in use
+	private final long slowHandlerThreshold; //zero means the slow-handler watchdog is disabled
+	private final boolean epoll; //true means use the native epoll transport rather than the NIO Selector, if available
 	private final Clock clock;
 
 	private DispatcherConfig(Builder bldr) {
@@ -27,6 +35,10 @@ public class DispatcherConfig
 		appContext = bldr.appContext;
 		surviveHandlers = bldr.surviveHandlers;
 		flushInterval = bldr.flushInterval;
+		timerWheelTick = bldr.timerWheelTick;
+		bufferArena = bldr.bufferArena;
+		slowHandlerThreshold = bldr.slowHandlerThreshold;
+		epoll = bldr.epoll;
 		clock = bldr.clock;
 	}
 
@@ -50,6 +62,22 @@ public class DispatcherConfig
 		return flushInterval;
 	}
 
+	public long getTimerWheelTick() {
+		return timerWheelTick;
+	}
+
+	public boolean isBufferArena() {
+		return bufferArena;
+	}
+
+	public long getSlowHandlerThreshold() {
+		return slowHandlerThreshold;
+	}
+
+	public boolean isEpoll() {
+		return epoll;
+	}
+
 	public Clock getClock() {
 		return clock;
 	}
@@ -65,6 +93,10 @@ public class DispatcherConfig
 				.withAppContext(appContext)
 				.withSurviveHandlers(surviveHandlers)
 				.withFlushInterval(flushInterval)
+				.withTimerWheelTick(timerWheelTick)
+				.withBufferArena(bufferArena)
+				.withSlowHandlerThreshold(slowHandlerThreshold)
+				.withEpoll(epoll)
 				.withClock(clock);
 	}
 
@@ -75,6 +107,10 @@ public class DispatcherConfig
 				+", appContext=" + appContext
 				+", surviveHandlers="+surviveHandlers
 				+", flushInterval=" + flushInterval
+				+", timerWheelTick=" + timerWheelTick
+				+", bufferArena=" + bufferArena
+				+", slowHandlerThreshold=" + slowHandlerThreshold
+				+", epoll=" + epoll
 				+", clock=" + clock + "]";
 	}
 
@@ -85,6 +121,10 @@ public class DispatcherConfig
 		private ApplicationContextNAF appContext;
 		private boolean surviveHandlers = true;
 		private long flushInterval;
+		private long timerWheelTick = SysProps.getTime(SYSPROP_TIMERWHEEL, 0L);
+		private boolean bufferArena = SysProps.get(SYSPROP_BUFFERARENA, false);
+		private long slowHandlerThreshold = SysProps.getTime(SYSPROP_SLOWHANDLER, 0L);
+		private boolean epoll = SysProps.get(SYSPROP_EPOLL, false);
 		private Clock clock = Clock.systemUTC();
 
 		private Builder() {}
@@ -94,6 +134,10 @@ public class DispatcherConfig
 			logName = cfg.getValue("@logname", true, logName == null ? name : logName);
 			surviveHandlers = cfg.getBool("@survive_handlers", surviveHandlers);
 			flushInterval = cfg.getTime("@flush", flushInterval);
+			timerWheelTick = cfg.getTime("@timerwheel", timerWheelTick);
+			bufferArena = cfg.getBool("@bufarena", bufferArena);
+			slowHandlerThreshold = cfg.getTime("@slowhandler", slowHandlerThreshold);
+			epoll = cfg.getBool("@epoll", epoll);
 			return this;
 		}
 
@@ -122,6 +166,26 @@ public class DispatcherConfig
 			return this;
 		}
 
+		public Builder withTimerWheelTick(long v) {
+			timerWheelTick = v;
+			return this;
+		}
+
+		public Builder withBufferArena(boolean v) {
+			bufferArena = v;
+			return this;
+		}
+
+		public Builder withSlowHandlerThreshold(long v) {
+			slowHandlerThreshold = v;
+			return this;
+		}
+
+		public Builder withEpoll(boolean v) {
+			epoll = v;
+			return this;
+		}
+
 		public Builder withClock(Clock v) {
 			clock = v;
 			return this;
@@ -17,6 +17,7 @@ public class ListenerConfig
 	private final String iface;
 	private final int port;
 	private final int backlog;
+	private final boolean reusePort;
 	private final SSLConfig configSSL;
 	private final Function<CM_Listener,CM_Listener.ServerFactory> serverFactoryGenerator; //server factory creates server instance to handle incoming connection
 
@@ -25,6 +26,7 @@ public class ListenerConfig
 		iface = bldr.iface;
 		port = bldr.port;
 		backlog = bldr.backlog;
+		reusePort = bldr.reusePort;
 		configSSL = bldr.configSSL;
 		serverFactoryGenerator = bldr.serverFactoryGenerator;
 	}
@@ -45,6 +47,10 @@ public class ListenerConfig
 		return backlog;
 	}
 
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
 	public SSLConfig getConfigSSL() {
 		return configSSL;
 	}
@@ -59,6 +65,7 @@ public class ListenerConfig
 				+"name=" + name
 				+", port="+ (iface==null?"":iface+":")+port
 				+", backlog=" + backlog
+				+", reusePort=" + reusePort
 				+", configSSL=" + configSSL
 				+", serverFactoryGenerator=" + serverFactoryGenerator
 				+"]";
@@ -72,6 +79,7 @@ public class ListenerConfig
 		private int portSSL;
 		private SSLConfig configSSL;
 		private int backlog = 5000;
+		private boolean reusePort;
 		private Function<CM_Listener,CM_Listener.ServerFactory> serverFactoryGenerator;
 		private Class<? extends CM_Listener.ServerFactory> serverFactoryClass;
 		private Object serverFactoryParam;
@@ -101,6 +109,7 @@ public class ListenerConfig
 			iface = cfg.getValue("@interface", false, iface);
 			port = cfg.getInt("@port", false, port);
 			backlog = cfg.getInt("@backlog", false, backlog);
+			reusePort = cfg.getBool("@reuseport", reusePort);
 			return self();
 		}
 
@@ -129,6 +138,12 @@ public class ListenerConfig
 			return self();
 		}
 
+		// Allows multiple listeners (typically in different Dispatchers) to bind to the same port, if the OS supports it
+		public T withReusePort(boolean v) {
+			reusePort = v;
+			return self();
+		}
+
 		public T withConfigSSL(SSLConfig v) {
 			configSSL = v;
 			return self();
@@ -7,6 +7,7 @@ package com.grey.naf.reactor.config;
 import com.grey.base.config.SysProps;
 import com.grey.base.config.XmlConfig;
 import com.grey.base.utils.FileOps;
+import com.grey.base.utils.StringOps;
 import com.grey.base.utils.TimeOps;
 import com.grey.naf.NAFConfig;
 import com.grey.naf.errors.NAFConfigException;
@@ -27,6 +28,36 @@ public class SSLConfig
 	 * (which would fail) we simply prevent clients from doing so unless this system property is specified.
 	 */
 	private static final boolean CLIENT_RESHAKE = SysProps.get("greynaf.ssl.clientreshake", false);
+	/*
+	 * Stateless session tickets (RFC 5077) let a server resume sessions without holding them in its cache, but the JDK
+	 * only controls them via JVM-wide properties which are read when JSSE initialises, so they can't be set per config.
+	 * If this property is set, we apply it to both the client and server JDK settings, unless they've been set explicitly.
+	 */
+	private static final String SESSION_TICKETS = SysProps.get("greynaf.ssl.tickets");
+	static {
+		if (SESSION_TICKETS != null) {
+			String enabled = String.valueOf(StringOps.stringAsBool(SESSION_TICKETS)); //JDK expects true/false
+			if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) System.setProperty("jdk.tls.server.enableSessionTicketExtension", enabled);
+			if (System.getProperty("jdk.tls.client.enableSessionTicketExtension") == null) System.setProperty("jdk.tls.client.enableSessionTicketExtension", enabled);
+		}
+	}
+
+	/*
+	 * The JDK caches client sessions in the SSLContext, keyed by the peer host and port, so connections can only resume
+	 * a previous session if they share a context. Clients with identical settings can therefore be configured to share a
+	 * context, even if each one builds its own SSLConfig, so that repeated connections to the same peer can skip full handshakes.
+	 * This is off by default, since the shared contexts outlive the configs that created them. They are keyed on a digest of
+	 * the settings, the passwords and the contents of the key and trust stores, so an updated store results in a new context,
+	 * and only the most recently used ones are retained.
+	 */
+	private static final int SHARED_CLIENT_CONTEXTS_MAX = SysProps.get("greynaf.ssl.sharedclientcache.max", 16);
+	private static final java.util.Map<String, javax.net.ssl.SSLContext> sharedClientContexts = new java.util.LinkedHashMap<String, javax.net.ssl.SSLContext>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(java.util.Map.Entry<String, javax.net.ssl.SSLContext> eldest) {
+			return size() > SHARED_CLIENT_CONTEXTS_MAX;
+		}
+	};
 
 	public static final String KSTYPE_JKS = "JKS";
 	public static final String KSTYPE_PKCS12 = "PKCS12";
@@ -41,11 +72,14 @@ public class SSLConfig
 	private final String storeFormat;
 	private final java.net.URL storePath;
 	private final int sessionCacheSize;
+	private final long sessionCacheTimeout; //how long a cached session remains available for resumption
+	private final boolean sharedClientCache;
 	private final long sessionTimeout; //maximum SSL session lifetime, before forcibly invalidated - zero means never
 	private final long shakeFreq; //maximum time between partial handshakes - zero means never
 	public long shakeTimeout; //timeout on initial handshake - zero means none
 	private final boolean latent; //true means this is not initially an SSL connection - SSL may be activated later
 	private final boolean mdty;
+	private final boolean offloadTasks; //run SSLEngine delegated tasks in worker threads, rather than the Dispatcher thread
 	private final javax.net.ssl.SSLContext ctx;
 
 	public SSLConfig(Builder bldr)
@@ -63,9 +97,12 @@ public class SSLConfig
 		storeFormat = bldr.storeFormat;
 		storePath = bldr.storePath;
 		sessionCacheSize = bldr.sessionCacheSize;
+		sessionCacheTimeout = bldr.sessionCacheTimeout;
+		sharedClientCache = bldr.sharedClientCache;
 		shakeTimeout = bldr.shakeTimeout;
 		latent = bldr.latent;
 		mdty = bldr.mdty;
+		offloadTasks = bldr.offloadTasks;
 		long sesstmt = (bldr.sessionTimeout != 0 && bldr.sessionTimeout < 1000 ? 1000 : bldr.sessionTimeout); //preserve finite value
 
 		if (isClient) {
@@ -89,8 +126,12 @@ public class SSLConfig
 		}
 
 		try {
-			ctx = initContext(protocol, isClient, sessionCacheSize, localCertAlias, trustFormat, trustPath, storeFormat, storePath,
+			if (isClient && sharedClientCache && protocol != null) {
+				ctx = getSharedClientContext(bldr);
+			} else {
+				ctx = initContext(protocol, isClient, sessionCacheSize, sessionCacheTimeout, localCertAlias, trustFormat, trustPath, storeFormat, storePath,
 								bldr.trustPasswd, bldr.storePasswd, bldr.certPasswd);
+			}
 		} catch (NAFConfigException ex) {
 			throw ex;
 		} catch (Exception ex) {
@@ -138,6 +179,14 @@ public class SSLConfig
 		return sessionCacheSize;
 	}
 
+	public long getSessionCacheTimeout() {
+		return sessionCacheTimeout;
+	}
+
+	public boolean isSharedClientCache() {
+		return sharedClientCache;
+	}
+
 	public long getSessionTimeout() {
 		return sessionTimeout;
 	}
@@ -158,6 +207,10 @@ public class SSLConfig
 		return mdty;
 	}
 
+	public boolean isOffloadTasks() {
+		return offloadTasks;
+	}
+
 	public javax.net.ssl.SSLContext getContext() {
 		return ctx;
 	}
@@ -168,8 +221,9 @@ public class SSLConfig
 		String txt = super.toString()+": Context="+getContext().getProtocol()+"/"+getContext().getProvider().getClass().getName()
 				+"; server="+!isClient+(isClient()?"":"/client-auth="+getClientAuth())
 				+"; latent="+isLatent()+(isLatent() ? "/mandatory="+isMandatory() : "")
-				+"; session-cache="+TimeOps.expandMilliTime(getSessionTimeout())+"/"+getSessionCacheSize()+"; shake="+TimeOps.expandMilliTime(getShakeFreq())
-				+"; timeout="+TimeOps.expandMilliTime(getShakeTimeout());
+				+"; session-cache="+TimeOps.expandMilliTime(getSessionTimeout())+"/"+getSessionCacheSize()+"/"+TimeOps.expandMilliTime(getSessionCacheTimeout())
+				+(isClient() ? "/shared="+isSharedClientCache() : "")+"; shake="+TimeOps.expandMilliTime(getShakeFreq())
+				+"; timeout="+TimeOps.expandMilliTime(getShakeTimeout())+"; offload-tasks="+isOffloadTasks();
 		if (getLocalCertAlias() != null) {
 			txt += "\n\tlocal-cert="+getLocalCertAlias()+"; format="+getStoreFormat()+" - "+getStorePath();
 		}
@@ -180,7 +234,57 @@ public class SSLConfig
 		return txt;
 	}
 
-	private static javax.net.ssl.SSLContext initContext(String protocol, boolean isClient, int sessionCacheSize, String localCertAlias,
+	private javax.net.ssl.SSLContext getSharedClientContext(Builder bldr) throws java.io.IOException, java.security.GeneralSecurityException {
+		String key = sharedClientContextKey(bldr);
+		synchronized (sharedClientContexts) {
+			javax.net.ssl.SSLContext sharedctx = sharedClientContexts.get(key);
+			if (sharedctx == null) {
+				sharedctx = initContext(protocol, true, sessionCacheSize, sessionCacheTimeout, localCertAlias, trustFormat, trustPath, storeFormat, storePath,
+						bldr.trustPasswd, bldr.storePasswd, bldr.certPasswd);
+				sharedClientContexts.put(key, sharedctx);
+			}
+			return sharedctx;
+		}
+	}
+
+	// The passwords and store contents are only represented by their digest, so that we don't retain them in the key
+	private String sharedClientContextKey(Builder bldr) throws java.io.IOException, java.security.GeneralSecurityException {
+		java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+		String settings = protocol+"|"+localCertAlias+"|"+storeFormat+"|"+storePath+"|"+trustFormat+"|"+trustPath
+				+"|"+sessionCacheSize+"|"+sessionCacheTimeout;
+		md.update(settings.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+		digestPassword(md, bldr.trustPasswd);
+		digestPassword(md, bldr.storePasswd);
+		digestPassword(md, bldr.certPasswd);
+		if (localCertAlias != null && storePath != null) digestStore(md, storePath);
+		if (trustPath != null) digestStore(md, trustPath);
+		return new String(com.grey.base.crypto.Ascii.hexEncode(md.digest()));
+	}
+
+	private static void digestPassword(java.security.MessageDigest md, char[] passwd) {
+		if (passwd == null) {
+			md.update((byte)0);
+			return;
+		}
+		md.update((byte)1);
+		for (int idx = 0; idx != passwd.length; idx++) {
+			md.update((byte)(passwd[idx] >> 8));
+			md.update((byte)passwd[idx]);
+		}
+		md.update((byte)0); //terminator, so adjacent passwords can't be confused
+	}
+
+	private static void digestStore(java.security.MessageDigest md, java.net.URL pthnam) throws java.io.IOException {
+		try (java.io.InputStream fin = pthnam.openStream()) {
+			byte[] buf = new byte[8192];
+			int nbytes;
+			while ((nbytes = fin.read(buf)) != -1) {
+				md.update(buf, 0, nbytes);
+			}
+		}
+	}
+
+	private static javax.net.ssl.SSLContext initContext(String protocol, boolean isClient, int sessionCacheSize, long sessionCacheTimeout, String localCertAlias,
 			String trustFormat, java.net.URL trustPath,
 			String storeFormat, java.net.URL storePath,
 			char[] trustPasswd, char[] storePasswd, char[] certPasswd) throws java.io.IOException, java.security.GeneralSecurityException {
@@ -216,9 +320,10 @@ public class SSLConfig
 			ctx.init(kmf == null ? null : kmf.getKeyManagers(), tmf == null ? null : tmf.getTrustManagers(), null);
 			javax.net.ssl.SSLSessionContext sessctx = (isClient ? ctx.getClientSessionContext() : ctx.getServerSessionContext());
 			if (sessctx != null) {
-				// This seems to have no effect on SSLEngine, probably only meant for blocking SSL sockets
-				// Set the session cache size anyway just in case, but timeouts will be explicitly enforced by SSLConnection
+				// These only control how long sessions remain available for resumption - the maximum session lifetime is
+				// enforced by SSLConnection (see sessionTimeout).
 				sessctx.setSessionCacheSize(sessionCacheSize);
+				if (sessionCacheTimeout > 0) sessctx.setSessionTimeout((int)Math.max(1, sessionCacheTimeout / 1000));
 			}
 		}
 		return ctx;
@@ -250,11 +355,14 @@ public class SSLConfig
 		private String storeFormat = SysProps.get("javax.net.ssl.keyStoreType", java.security.KeyStore.getDefaultType());
 		private java.net.URL storePath = makeURL(SysProps.get("javax.net.ssl.keyStore"));
 		private int sessionCacheSize = SysProps.get("javax.net.ssl.sessionCacheSize", 0);
+		private long sessionCacheTimeout = TimeOps.parseMilliTime("24h"); //this is the JDK default
+		private boolean sharedClientCache = SysProps.get("greynaf.ssl.sharedclientcache", false);
 		private long sessionTimeout = TimeOps.parseMilliTime("24h"); //this is the JDK default
 		private long shakeFreq = TimeOps.parseMilliTime("1h");
 		private long shakeTimeout = TimeOps.parseMilliTime("2m");
 		private boolean latent;
 		private boolean mdty; //qualifies 'latent' by specifying whether it's mandatory to switch to SSL mode
+		private boolean offloadTasks = SysProps.get("greynaf.ssl.offloadtasks", false);
 		private char[] trustPasswd = makeChars(SysProps.get("javax.net.ssl.trustStorePassword"));
 		private char[] storePasswd = makeChars(SysProps.get("javax.net.ssl.keyStorePassword"));
 		private char[] certPasswd;
@@ -270,11 +378,14 @@ public class SSLConfig
 			storePasswd = cfg.getPassword("@kspass", storePasswd);
 			certPasswd = cfg.getPassword("@certpass", certPasswd);
 			sessionCacheSize = cfg.getInt("@cache", false, sessionCacheSize);
+			sessionCacheTimeout = cfg.getTime("@cachetime", sessionCacheTimeout);
+			sharedClientCache = cfg.getBool("@sharedcache", sharedClientCache);
 			sessionTimeout = cfg.getTime("@expiry", sessionTimeout);
 			shakeFreq = cfg.getTime("@shake", shakeFreq);
 			shakeTimeout = cfg.getTime("@timeout", shakeTimeout);
 			latent = cfg.getBool("@latent", latent);
 			mdty = (latent ? cfg.getBool("@mandatory", mdty) : false);
+			offloadTasks = cfg.getBool("@offloadtasks", offloadTasks);
 			trustPath = nafcfg.getURL(cfg, "@tspath", null, false, trustPath == null ? null : trustPath.toString(), null);
 			storePath = nafcfg.getURL(cfg, "@kspath", null, false, storePath == null ? null : storePath.toString(), null);
 			return this;
@@ -332,6 +443,16 @@ public class SSLConfig
 			return this;
 		}
 
+		public Builder withSessionCacheTimeout(long v) {
+			sessionCacheTimeout = v;
+			return this;
+		}
+
+		public Builder withSharedClientCache(boolean v) {
+			sharedClientCache = v;
+			return this;
+		}
+
 		public Builder withSessionTimeout(long v) {
 			sessionTimeout = v;
 			return this;
@@ -357,6 +478,11 @@ public class SSLConfig
 			return this;
 		}
 
+		public Builder withOffloadTasks(boolean v) {
+			offloadTasks = v;
+			return this;
+		}
+
 		public Builder withTrustPasswd(char[] v) {
 			trustPasswd = v;
 			return this;
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.channels.SelectionKey;
+
+import com.grey.base.config.SysProps;
+import com.grey.base.collections.HashedMapIntKey;
+
+/*
+ * A Linux-only transport which drives epoll directly via the Foreign Function and Memory API, bypassing the JDK Selector.
+ * The Selector has to maintain its key sets, synchronise on them and translate every ready event via a HashMap lookup on
+ * the file descriptor, whereas we tag each epoll registration with the ChannelMonitor's CMID and hand the ready events
+ * straight to the Dispatcher.
+ *
+ * This is only built into the Java 22+ part of the multi-release JAR, and the Dispatcher falls back to IOTransportNIO if
+ * it can't be loaded or constructed. As well as Linux, it requires the JVM to open sun.nio.ch to us, so that we can get
+ * at each channel's file descriptor (--add-opens java.base/sun.nio.ch=ALL-UNNAMED) and to grant us native access
+ * (--enable-native-access=ALL-UNNAMED), without which the JVM merely warns on newer JDKs.
+ *
+ * We register in level-triggered mode, just like the Selector, rather than edge-triggered. Our handlers are not obliged
+ * to read until EAGAIN (read budgets and rate limiters deliberately leave data in the socket) and edge-triggered mode
+ * would never report that data again.
+ * The Dispatcher's wakeups are delivered via an eventfd, which is registered with the reserved ID of zero (real CMIDs
+ * start at 1).
+ */
+final class IOTransportEpoll
+	implements IOTransport
+{
+	private static final int MAXEVENTS = SysProps.get("greynaf.dispatchers.epoll.maxevents", 1024);
+
+	private static final int EPOLLIN = 0x001;
+	private static final int EPOLLOUT = 0x004;
+	private static final int EPOLLERR = 0x008;
+	private static final int EPOLLHUP = 0x010;
+	private static final int EPOLL_CTL_ADD = 1;
+	private static final int EPOLL_CTL_DEL = 2;
+	private static final int EPOLL_CTL_MOD = 3;
+	private static final int EPOLL_CLOEXEC = 0x80000;
+	private static final int EFD_CLOEXEC = 0x80000;
+	private static final int EFD_NONBLOCK = 0x800;
+	private static final int EINTR = 4;
+	private static final int WAKEUP_ID = 0;
+
+	// struct epoll_event is packed on x86-64, so its data member follows the events field directly
+	private static final long EVENT_SIZE;
+	private static final long EVENT_DATA_OFFSET;
+
+	private static final MethodHandle EPOLL_CREATE1;
+	private static final MethodHandle EPOLL_CTL;
+	private static final MethodHandle EPOLL_WAIT;
+	private static final MethodHandle EVENTFD;
+	private static final MethodHandle READ;
+	private static final MethodHandle WRITE;
+	private static final MethodHandle CLOSE;
+	private static final long ERRNO_OFFSET;
+	private static final java.lang.reflect.Method GETFD; //sun.nio.ch.SelChImpl.getFDVal()
+
+	static {
+		String os = System.getProperty("os.name", "").toLowerCase();
+		String arch = System.getProperty("os.arch", "").toLowerCase();
+		if (!os.startsWith("linux")) throw new UnsupportedOperationException("Epoll is not available on OS="+os);
+		if (arch.equals("amd64") || arch.equals("x86_64")) {
+			EVENT_SIZE = 12;
+			EVENT_DATA_OFFSET = 4;
+		} else if (arch.equals("aarch64")) {
+			EVENT_SIZE = 16;
+			EVENT_DATA_OFFSET = 8;
+		} else {
+			throw new UnsupportedOperationException("Epoll is not supported on arch="+arch);
+		}
+		Linker linker = Linker.nativeLinker();
+		Linker.Option errno = Linker.Option.captureCallState("errno");
+		ERRNO_OFFSET = Linker.Option.captureStateLayout().byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+		EPOLL_CREATE1 = downcall(linker, "epoll_create1", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), errno);
+		EPOLL_CTL = downcall(linker, "epoll_ctl", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+				ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS), errno);
+		EPOLL_WAIT = downcall(linker, "epoll_wait", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+				ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), errno);
+		EVENTFD = downcall(linker, "eventfd", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), errno);
+		READ = downcall(linker, "read", FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+		WRITE = downcall(linker, "write", FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+		CLOSE = downcall(linker, "close", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+		try {
+			GETFD = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFDVal");
+			GETFD.setAccessible(true);
+		} catch (Exception ex) {
+			throw new UnsupportedOperationException("Cannot access channel file descriptors - "+ex, ex);
+		}
+	}
+
+	private final Dispatcher dsptch;
+	private final HashedMapIntKey<Registration> registrations = new HashedMapIntKey<>();
+	private final Arena arena = Arena.ofShared(); //shared, because wakeup() can be called by any thread
+	private final MemorySegment errnoState;
+	private final MemorySegment events;
+	private final MemorySegment ctlEvent;
+	private final MemorySegment wakeupBuf;
+	private final MemorySegment drainBuf;
+	private final int epfd;
+	private final int wakeupfd;
+	private final java.util.concurrent.atomic.AtomicBoolean wakeupPending = new java.util.concurrent.atomic.AtomicBoolean();
+	private final Object wakeupLock = new Object();
+	private boolean closed;
+	private int nready;
+
+	private static final class Registration {
+		final ChannelMonitor cm;
+		final java.nio.channels.SelectableChannel chan;
+		final int fd;
+		int ops; //interest ops, as SelectionKey flags
+		int events; //the epoll events we're currently registered for, with zero meaning we're not in the epoll set
+		Registration(ChannelMonitor cm, int fd) {this.cm = cm; this.chan = cm.getChannel(); this.fd = fd;}
+	}
+
+	IOTransportEpoll(Dispatcher d) throws java.io.IOException
+	{
+		dsptch = d;
+		errnoState = arena.allocate(Linker.Option.captureStateLayout());
+		events = arena.allocate(EVENT_SIZE * MAXEVENTS, 8);
+		ctlEvent = arena.allocate(EVENT_SIZE, 8);
+		wakeupBuf = arena.allocate(ValueLayout.JAVA_LONG);
+		drainBuf = arena.allocate(ValueLayout.JAVA_LONG);
+		wakeupBuf.set(ValueLayout.JAVA_LONG, 0, 1L);
+		int fd1 = -1;
+		int fd2 = -1;
+		try {
+			fd1 = (int)EPOLL_CREATE1.invokeExact(errnoState, EPOLL_CLOEXEC);
+			if (fd1 == -1) throw new java.io.IOException("epoll_create1 failed - errno="+errno());
+			fd2 = (int)EVENTFD.invokeExact(errnoState, 0, EFD_CLOEXEC | EFD_NONBLOCK);
+			if (fd2 == -1) throw new java.io.IOException("eventfd failed - errno="+errno());
+			ctl(fd1, EPOLL_CTL_ADD, fd2, EPOLLIN, WAKEUP_ID);
+		} catch (Throwable ex) {
+			closeFD(fd2);
+			closeFD(fd1);
+			arena.close();
+			if (ex instanceof java.io.IOException) throw (java.io.IOException)ex;
+			throw new java.io.IOException("Failed to create epoll transport - "+ex, ex);
+		}
+		epfd = fd1;
+		wakeupfd = fd2;
+	}
+
+	@Override
+	public void monitorIO(ChannelMonitor cm, int ops) throws java.io.IOException
+	{
+		java.nio.channels.SelectableChannel chan = cm.getChannel();
+		if (!chan.isOpen()) throw new java.nio.channels.ClosedChannelException();
+		if (chan.isBlocking()) throw new java.nio.channels.IllegalBlockingModeException();
+		Registration reg = registrations.get(cm.getCMID());
+		if (reg == null) {
+			reg = new Registration(cm, getFD(chan));
+			registrations.put(cm.getCMID(), reg);
+		}
+		reg.ops = ops;
+		int evts = 0;
+		if ((ops & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) evts |= EPOLLIN;
+		if ((ops & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT)) != 0) evts |= EPOLLOUT;
+		if (evts == reg.events) return;
+
+		// As with the JDK's own epoll Selector, we drop out of the epoll set altogether when there are no interest ops
+		int op = (evts == 0 ? EPOLL_CTL_DEL : (reg.events == 0 ? EPOLL_CTL_ADD : EPOLL_CTL_MOD));
+		ctl(epfd, op, reg.fd, evts, cm.getCMID());
+		reg.events = evts;
+	}
+
+	@Override
+	public void deregisterIO(ChannelMonitor cm)
+	{
+		Registration reg = registrations.remove(cm.getCMID());
+		if (reg == null || reg.events == 0) return;
+		// Closing the channel will have removed it from the epoll set already, and its FD could have been reused since
+		if (!reg.chan.isOpen()) return;
+		try {
+			ctl(epfd, EPOLL_CTL_DEL, reg.fd, 0, cm.getCMID());
+		} catch (java.io.IOException ex) {
+			dsptch.getLogger().info("Dispatcher="+dsptch.getName()+": Failed to deregister E"+cm.getCMID()+"/fd="+reg.fd+" from epoll - "+ex);
+		}
+	}
+
+	@Override
+	public int getInterestOps(ChannelMonitor cm)
+	{
+		Registration reg = registrations.get(cm.getCMID());
+		return (reg == null ? OPS_NONE : reg.ops);
+	}
+
+	@Override
+	public int select(long timeout) throws java.io.IOException
+	{
+		int tmt = (timeout == 0 ? -1 : (int)Math.min(timeout, Integer.MAX_VALUE));
+		return epollWait(tmt);
+	}
+
+	@Override
+	public int selectNow() throws java.io.IOException
+	{
+		return epollWait(0);
+	}
+
+	@Override
+	public void fireIO()
+	{
+		int cnt = nready;
+		nready = 0;
+		for (int idx = 0; idx != cnt; idx++) {
+			long off = idx * EVENT_SIZE;
+			int id = (int)events.get(ValueLayout.JAVA_LONG_UNALIGNED, off + EVENT_DATA_OFFSET);
+			if (id == WAKEUP_ID) continue;
+			// Guard against delivering events to a monitor that was deregistered or disabled by an earlier event in this cycle
+			Registration reg = registrations.get(id);
+			if (reg == null || reg.ops == 0) continue;
+			int evts = events.get(ValueLayout.JAVA_INT_UNALIGNED, off);
+			int readyOps;
+			if ((evts & (EPOLLERR | EPOLLHUP)) != 0) {
+				readyOps = reg.ops; //let the handler discover the error when it attempts the I/O
+			} else {
+				readyOps = 0;
+				if ((evts & EPOLLIN) != 0) readyOps |= (reg.ops & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT));
+				if ((evts & EPOLLOUT) != 0) readyOps |= (reg.ops & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT));
+			}
+			if (readyOps != 0) dsptch.ioReady(reg.cm, readyOps);
+		}
+	}
+
+	@Override
+	public void wakeup()
+	{
+		if (!wakeupPending.compareAndSet(false, true)) return;
+		synchronized (wakeupLock) {
+			if (closed) return;
+			try {
+				long rc = (long)WRITE.invokeExact(wakeupfd, wakeupBuf, 8L);
+				if (rc == -1) wakeupPending.set(false); //counter can only overflow if nobody is draining it
+			} catch (Throwable ex) {
+				wakeupPending.set(false);
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		synchronized (wakeupLock) {
+			if (closed) return;
+			closed = true;
+			closeFD(wakeupfd);
+			closeFD(epfd);
+		}
+		arena.close();
+		registrations.clear();
+	}
+
+	// Returns the number of ready channels, excluding the wakeup eventfd
+	private int epollWait(int timeout) throws java.io.IOException
+	{
+		int cnt;
+		try {
+			cnt = (int)EPOLL_WAIT.invokeExact(errnoState, epfd, events, MAXEVENTS, timeout);
+		} catch (Throwable ex) {
+			throw new java.io.IOException("epoll_wait failed - "+ex, ex);
+		}
+		if (cnt == -1) {
+			int err = errno();
+			if (err == EINTR) cnt = 0;
+			else throw new java.io.IOException("epoll_wait failed - errno="+err);
+		}
+		nready = cnt;
+		int nchans = cnt;
+		for (int idx = 0; idx != cnt; idx++) {
+			long off = idx * EVENT_SIZE;
+			if (events.get(ValueLayout.JAVA_LONG_UNALIGNED, off + EVENT_DATA_OFFSET) == WAKEUP_ID) {
+				// clear the flag first, so that a wakeup which races with us is not lost
+				wakeupPending.set(false);
+				try {
+					long rc = (long)READ.invokeExact(wakeupfd, drainBuf, 8L);
+					if (rc == -1) dsptch.getLogger().trace("Dispatcher="+dsptch.getName()+": Epoll wakeup read found nothing");
+				} catch (Throwable ex) {
+					throw new java.io.IOException("eventfd read failed - "+ex, ex);
+				}
+				nchans--;
+				break;
+			}
+		}
+		return nchans;
+	}
+
+	private void ctl(int efd, int op, int fd, int evts, int id) throws java.io.IOException
+	{
+		ctlEvent.set(ValueLayout.JAVA_INT_UNALIGNED, 0, evts);
+		ctlEvent.set(ValueLayout.JAVA_LONG_UNALIGNED, EVENT_DATA_OFFSET, id);
+		int rc;
+		try {
+			rc = (int)EPOLL_CTL.invokeExact(errnoState, efd, op, fd, ctlEvent);
+		} catch (Throwable ex) {
+			throw new java.io.IOException("epoll_ctl failed - "+ex, ex);
+		}
+		if (rc == -1) throw new java.io.IOException("epoll_ctl op="+op+" failed on fd="+fd+" - errno="+errno());
+	}
+
+	private int errno()
+	{
+		return errnoState.get(ValueLayout.JAVA_INT, ERRNO_OFFSET);
+	}
+
+	private static void closeFD(int fd)
+	{
+		if (fd == -1) return;
+		try {
+			int rc = (int)CLOSE.invokeExact(fd);
+		} catch (Throwable ex) {} //nothing we can do about it
+	}
+
+	private static int getFD(java.nio.channels.SelectableChannel chan) throws java.io.IOException
+	{
+		try {
+			return (int)GETFD.invoke(chan);
+		} catch (Exception ex) {
+			throw new java.io.IOException("Cannot obtain file descriptor for channel="+chan+" - "+ex, ex);
+		}
+	}
+
+	private static MethodHandle downcall(Linker linker, String name, FunctionDescriptor desc, Linker.Option... opts)
+	{
+		MemorySegment addr = linker.defaultLookup().find(name).orElseThrow(() -> new UnsupportedOperationException("Missing native function="+name));
+		return linker.downcallHandle(addr, desc, opts);
+	}
+
+	@Override
+	public String toString() {
+		return "Transport=epoll, max-events="+MAXEVENTS;
+	}
+}
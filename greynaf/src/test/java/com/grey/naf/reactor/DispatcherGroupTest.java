@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grey.base.utils.ByteArrayRef;
+import com.grey.base.utils.TimeOps;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.BufferGenerator;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.ConcurrentListenerConfig;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+public class DispatcherGroupTest
+{
+	static {
+		TestUtils.initPaths(DispatcherGroupTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("DispatcherGroupTest", false, null);
+	private static final int GROUP_SIZE = 3;
+
+	private final Map<String, AtomicInteger> connectionsPerDispatcher = new ConcurrentHashMap<>();
+
+	@org.junit.Test
+	public void testRoundRobin() throws Exception
+	{
+		runGroup("grptest-rr", DispatcherGroup.Balancing.ROUND_ROBIN, false);
+	}
+
+	// The connections are held open, so that each one adds to its Dispatcher's load
+	@org.junit.Test
+	public void testLeastLoaded() throws Exception
+	{
+		runGroup("grptest-ll", DispatcherGroup.Balancing.LEAST_LOADED, true);
+	}
+
+	private void runGroup(String name, DispatcherGroup.Balancing balancing, boolean holdOpen) throws Exception
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName(name)
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		DispatcherGroup grp = DispatcherGroup.create(def, GROUP_SIZE, balancing);
+		org.junit.Assert.assertEquals(GROUP_SIZE, grp.size());
+		org.junit.Assert.assertEquals(balancing, grp.getBalancing());
+		org.junit.Assert.assertEquals(name+"-1", grp.getDispatcher(1).getName());
+
+		ConcurrentListenerConfig lcfg = new ConcurrentListenerConfig.Builder<>()
+				.withName(name)
+				.withServerFactoryGenerator((l) -> () -> new EchoServer(l))
+				.withInterface("127.0.0.1")
+				.withPort(0)
+				.build();
+		ConcurrentListener lstnr = ConcurrentListener.create(grp, this, null, lcfg);
+		grp.getDispatcher(0).loadRunnable(lstnr);
+		grp.start();
+
+		int numClients = GROUP_SIZE * 4;
+		java.net.Socket[] clients = new java.net.Socket[numClients];
+		for (int idx = 0; idx != numClients; idx++) {
+			java.net.Socket sock = new java.net.Socket(lstnr.getIP(), lstnr.getPort());
+			sock.setSoTimeout(10_000);
+			sock.getOutputStream().write('A' + idx);
+			int rsp = sock.getInputStream().read();
+			org.junit.Assert.assertEquals('A' + idx, rsp);
+			if (holdOpen) {
+				clients[idx] = sock;
+			} else {
+				sock.close();
+			}
+		}
+		for (int idx = 0; idx != numClients; idx++) {
+			if (clients[idx] != null) clients[idx].close();
+		}
+
+		// every Dispatcher should have received an equal share of the connections
+		org.junit.Assert.assertEquals(connectionsPerDispatcher.toString(), GROUP_SIZE, connectionsPerDispatcher.size());
+		for (int idx = 0; idx != GROUP_SIZE; idx++) {
+			AtomicInteger cnt = connectionsPerDispatcher.get(grp.getDispatcher(idx).getName());
+			org.junit.Assert.assertNotNull(connectionsPerDispatcher.toString(), cnt);
+			org.junit.Assert.assertEquals(connectionsPerDispatcher.toString(), numClients / GROUP_SIZE, cnt.get());
+		}
+
+		grp.stop();
+		Dispatcher.STOPSTATUS stopsts = grp.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(grp.completedOK());
+	}
+
+
+	private static class EchoServer extends CM_Server
+	{
+		private static final BufferGenerator bufspec = new BufferGenerator(new BufferGenerator.BufferConfig(32, true, null, null));
+
+		public EchoServer(CM_Listener l) {
+			super(l, bufspec, bufspec);
+		}
+
+		@Override
+		protected void connected() throws java.io.IOException {
+			org.junit.Assert.assertTrue(getDispatcher().isDispatcherThread());
+			DispatcherGroupTest harness = (DispatcherGroupTest)getListener().getController();
+			harness.connectionsPerDispatcher.computeIfAbsent(getDispatcher().getName(), k -> new AtomicInteger()).incrementAndGet();
+			getReader().receive(0);
+		}
+
+		@Override
+		public void ioReceived(ByteArrayRef rcvdata) throws java.io.IOException {
+			getWriter().transmit(rcvdata);
+		}
+	}
+}
@@ -99,6 +99,108 @@ public class DispatcherTest
 		waitStopped(dsptch);
 	}
 
+	@org.junit.Test
+	public void testOffload() throws java.io.IOException
+	{
+		FileOps.deleteDirectory(rootdir);
+		ApplicationContextNAF appctx = TestUtils.createApplicationContext("DispatcherTest-Offload", true, null);
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName("utest_offload")
+				.withSurviveHandlers(false)
+				.withAppContext(appctx)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		int taskcnt = 10;
+		java.util.List<Object> results = new java.util.ArrayList<>();
+		java.util.concurrent.atomic.AtomicBoolean wrongThread = new java.util.concurrent.atomic.AtomicBoolean();
+		java.util.concurrent.atomic.AtomicBoolean ranInline = new java.util.concurrent.atomic.AtomicBoolean();
+		java.util.function.Consumer<Object> collector = (obj) -> {
+			if (!dsptch.isDispatcherThread()) wrongThread.set(true);
+			results.add(obj);
+			if (results.size() == taskcnt + 1) dsptch.stop();
+		};
+		dsptch.setTimer(1, 0, (t, d) -> {
+			for (int idx = 0; idx != taskcnt; idx++) {
+				final int num = idx;
+				d.offload(() -> {if (dsptch.isDispatcherThread()) ranInline.set(true); return num;}, collector);
+			}
+			d.offload(() -> {throw new java.io.IOException("offload failure");}, collector, collector);
+		});
+
+		// can't offload from outside the Dispatcher thread, once it's running
+		dsptch.start();
+		try {
+			dsptch.offload(() -> 1, collector);
+			org.junit.Assert.fail("Expected offload() to fail outside Dispatcher thread");
+		} catch (IllegalStateException ex) {}
+		waitStopped(dsptch);
+
+		org.junit.Assert.assertFalse(wrongThread.get());
+		org.junit.Assert.assertEquals(taskcnt + 1, results.size());
+		org.junit.Assert.assertFalse(ranInline.get());
+		int errcnt = 0;
+		java.util.Set<Object> nums = new java.util.HashSet<>();
+		for (Object obj : results) {
+			if (obj instanceof java.io.IOException) {
+				errcnt++;
+			} else {
+				nums.add(obj);
+			}
+		}
+		org.junit.Assert.assertEquals(1, errcnt);
+		org.junit.Assert.assertEquals(taskcnt, nums.size());
+	}
+
+	@org.junit.Test
+	public void testExecute() throws Exception
+	{
+		FileOps.deleteDirectory(rootdir);
+		ApplicationContextNAF appctx = TestUtils.createApplicationContext("DispatcherTest-Execute", true, null);
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName("utest_execute")
+				.withSurviveHandlers(false)
+				.withAppContext(appctx)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		int thrdcnt = 4;
+		int taskcnt = 50_000;
+		int[] counter = new int[1]; //only updated in Dispatcher thread
+		java.util.concurrent.atomic.AtomicBoolean wrongThread = new java.util.concurrent.atomic.AtomicBoolean();
+		dsptch.start();
+
+		Thread[] thrds = new Thread[thrdcnt];
+		for (int idx = 0; idx != thrds.length; idx++) {
+			thrds[idx] = new Thread(() -> {
+				for (int idx2 = 0; idx2 != taskcnt; idx2++) {
+					dsptch.execute(() -> {
+						if (!dsptch.isDispatcherThread()) wrongThread.set(true);
+						counter[0]++;
+					});
+				}
+			});
+			thrds[idx].start();
+		}
+		for (Thread t : thrds) t.join();
+
+		// tasks are run in order, so this must see the effects of all the above
+		int total = dsptch.submit(() -> counter[0]).get(10, java.util.concurrent.TimeUnit.SECONDS);
+		org.junit.Assert.assertEquals(thrdcnt * taskcnt, total);
+		org.junit.Assert.assertFalse(wrongThread.get());
+		try {
+			dsptch.submit(() -> {throw new java.io.IOException("submit failure");}).get(10, java.util.concurrent.TimeUnit.SECONDS);
+			org.junit.Assert.fail("Expected submitted task to fail");
+		} catch (java.util.concurrent.ExecutionException ex) {
+			org.junit.Assert.assertEquals(java.io.IOException.class, ex.getCause().getClass());
+		}
+
+		dsptch.submit(() -> dsptch.stop());
+		waitStopped(dsptch);
+		try {
+			dsptch.execute(() -> {});
+			org.junit.Assert.fail("Expected execute() to fail after shutdown");
+		} catch (java.util.concurrent.RejectedExecutionException ex) {}
+	}
+
 	private static void waitStopped(Dispatcher dsptch) {
 		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
 		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.TimeOps;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+public class HandlerWatchdogTest
+	implements TimerNAF.Handler
+{
+	static {
+		TestUtils.initPaths(HandlerWatchdogTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("HandlerWatchdogTest", false, null);
+
+	private static final int TMRTYPE_FAST = 1;
+	private static final int TMRTYPE_SLOW = 2;
+
+	@org.junit.Test
+	public void testSlowTimer() throws java.io.IOException
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName("watchdog")
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.withSlowHandlerThreshold(50)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		HandlerWatchdog watchdog = dsptch.getHandlerWatchdog();
+		org.junit.Assert.assertEquals(50, watchdog.getThreshold());
+		dsptch.setTimer(0, TMRTYPE_FAST, this);
+		dsptch.setTimer(10, TMRTYPE_SLOW, this);
+		dsptch.start();
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+
+		org.junit.Assert.assertEquals(1, watchdog.getSlowTimerCount());
+		org.junit.Assert.assertEquals(0, watchdog.getSlowIOCount());
+		org.junit.Assert.assertTrue(String.valueOf(watchdog.getMaxTime()), watchdog.getMaxTime() >= 200);
+		org.junit.Assert.assertEquals(getClass().getName()+"/type="+TMRTYPE_SLOW, watchdog.getLastOffender());
+	}
+
+	@org.junit.Test
+	public void testDisabled() throws java.io.IOException
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName("nowatchdog")
+				.withAppContext(appctx)
+				.withSlowHandlerThreshold(0)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		org.junit.Assert.assertNull(dsptch.getHandlerWatchdog());
+	}
+
+	@Override
+	public void timerIndication(TimerNAF tmr, Dispatcher d) {
+		if (tmr.getType() == TMRTYPE_SLOW) {
+			TimerNAF.sleep(200);
+			d.stop();
+		}
+	}
+}
@@ -37,6 +37,215 @@ public class IOExecReaderTest
 		launch(bufgen);
 	}
 
+	// With a buffer arena, the reader only holds a receive buffer while it has unconsumed data, and the arena's
+	// buffers are larger than the configured size, so this verifies that the reader sticks to the configured size.
+	@org.junit.Test
+	public void testArenaHeapBuffer() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, false, null);
+		BufferGenerator bufgen = new BufferGenerator(bufcfg);
+		Dispatcher dsptch = launch(bufgen, true);
+		org.junit.Assert.assertEquals(0, dsptch.getBufferArena().getActiveCount());
+	}
+
+	@org.junit.Test
+	public void testArenaDirectBuffer() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, true, null);
+		BufferGenerator bufgen = new BufferGenerator(bufcfg);
+		Dispatcher dsptch = launch(bufgen, true);
+		org.junit.Assert.assertEquals(0, dsptch.getBufferArena().getActiveCount());
+	}
+
+	// In ring mode, the same sequence of reads wraps around the end of the receive buffer rather than compacting it
+	@org.junit.Test
+	public void testRingHeapBuffer() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, false, true, null);
+		BufferGenerator bufgen = new BufferGenerator(bufcfg);
+		launch(bufgen);
+	}
+
+	@org.junit.Test
+	public void testRingDirectBuffer() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, true, true, null);
+		BufferGenerator bufgen = new BufferGenerator(bufcfg);
+		launch(bufgen);
+	}
+
+	@org.junit.Test
+	public void testRingArenaBuffer() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, false, true, null);
+		BufferGenerator bufgen = new BufferGenerator(bufcfg);
+		Dispatcher dsptch = launch(bufgen, true);
+		org.junit.Assert.assertEquals(0, dsptch.getBufferArena().getActiveCount());
+	}
+
+	// pushed-back data is prepended in place, and here it's too big to fit before the unread data without wrapping
+	@org.junit.Test
+	public void testRingPushback() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(25, false, false, true, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		java.nio.channels.Pipe[] pipes = new java.nio.channels.Pipe[]{java.nio.channels.Pipe.open()};
+		String[] expect = new String[]{"line1\n", "0123456789\n", "line2\n", "line3\n"};
+		java.util.List<String> rcvd = new java.util.ArrayList<>();
+		launchStreams(bufspec, pipes, new String[]{expect[0]+expect[2]+expect[3]},
+				(cm, idx) -> cm.getReader().receiveDelimited((byte)'\n'),
+				(cm, idx, rcvdata) -> {
+					rcvd.add(new String(rcvdata.buffer(), rcvdata.offset(), rcvdata.size(), "8859_1"));
+					if (rcvd.size() == 1) {
+						byte[] data = expect[1].getBytes("8859_1");
+						cm.getReader().pushback(data, 0, data.length);
+					} else if (rcvd.size() == expect.length) {
+						cm.disconnect();
+						cm.getDispatcher().stop();
+					}
+				},
+				() -> org.junit.Assert.assertEquals(java.util.Arrays.asList(expect), rcvd));
+	}
+
+	// A partial message fills the ring after an earlier message has been consumed, so the ring is full with readmark
+	// part-way along it and the partial data that gets returned to the user wraps around the end of the buffer.
+	@org.junit.Test
+	public void testRingFullWrapped() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(10, false, false, true, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		java.nio.channels.Pipe[] pipes = new java.nio.channels.Pipe[]{java.nio.channels.Pipe.open()};
+		String[] expect = new String[]{"ab\n", "cdefghijkl", "m\n"};
+		java.util.List<String> rcvd = new java.util.ArrayList<>();
+		launchStreams(bufspec, pipes, new String[]{"ab\ncdefghi"},
+				(cm, idx) -> cm.getReader().receiveDelimited((byte)'\n'),
+				(cm, idx, rcvdata) -> {
+					rcvd.add(new String(rcvdata.buffer(), rcvdata.offset(), rcvdata.size(), "8859_1"));
+					if (rcvd.size() == 1) {
+						pipes[idx].sink().write(NIOBuffers.encode("jklm", null, false));
+					} else if (rcvd.size() == 2) {
+						pipes[idx].sink().write(NIOBuffers.encode("\n", null, false));
+					} else if (rcvd.size() == expect.length) {
+						cm.disconnect();
+						cm.getDispatcher().stop();
+					}
+				},
+				() -> org.junit.Assert.assertEquals(java.util.Arrays.asList(expect), rcvd));
+	}
+
+	// Two connections which each have a backlog of lines should take turns to deliver them, within their read budgets
+	@org.junit.Test
+	public void testReadBudget() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(256, false, false, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		int linecnt = 10;
+		java.nio.channels.Pipe[] pipes = new java.nio.channels.Pipe[]{java.nio.channels.Pipe.open(), java.nio.channels.Pipe.open()};
+		java.util.List<String> rcvd = new java.util.ArrayList<>(); //records cycle:connection:line
+		StringBuilder sb = new StringBuilder();
+		for (int idx = 0; idx != linecnt; idx++) sb.append("line").append(idx).append('\n');
+		launchStreams(bufspec, pipes, new CharSequence[]{sb, sb},
+				(cm, idx) -> {
+					cm.getReader().receiveDelimited((byte)'\n');
+					if (idx == 0) {
+						cm.getReader().setReadBudget(0, 2); //2 lines per loop
+					} else {
+						cm.getReader().setReadBudget(12, 0); //first line is 6 bytes, so also 2 lines per loop
+					}
+				},
+				(cm, idx, rcvdata) -> {
+					String line = new String(rcvdata.buffer(), rcvdata.offset(), rcvdata.size() - 1, "8859_1");
+					rcvd.add(cm.getDispatcher().getLoopCycle()+":"+(char)('A' + idx)+":"+line);
+					if (rcvd.size() == pipes.length * linecnt) cm.getDispatcher().stop();
+				},
+				() -> org.junit.Assert.assertEquals(rcvd.toString(), pipes.length * linecnt, rcvd.size()));
+
+		java.util.Map<String, Integer> percycle = new java.util.HashMap<>();
+		int[] nextline = new int[pipes.length];
+		int lastA = -1;
+		int firstB = -1;
+		for (int idx = 0; idx != rcvd.size(); idx++) {
+			String[] parts = rcvd.get(idx).split(":");
+			int cmidx = parts[1].charAt(0) - 'A';
+			org.junit.Assert.assertEquals(rcvd.toString(), "line"+nextline[cmidx]++, parts[2]);
+			int cnt = percycle.merge(parts[0]+":"+parts[1], 1, Integer::sum);
+			org.junit.Assert.assertTrue(rcvd.toString(), cnt <= 2);
+			if (cmidx == 0) lastA = idx;
+			if (cmidx == 1 && firstB == -1) firstB = idx;
+		}
+		org.junit.Assert.assertTrue(rcvd.toString(), firstB < lastA);
+	}
+
+	// Once the last complete line has been delivered, a trailing partial line mustn't earn the reader a continuation, so the
+	// Dispatcher should take no more cycles to get round to a subsequent timer than it does when there is no partial line.
+	@org.junit.Test
+	public void testReadBudgetPartial() throws java.io.IOException
+	{
+		int expect = budgetedCyclesToTimer("line0\nline1\n");
+		org.junit.Assert.assertEquals(expect, budgetedCyclesToTimer("line0\nline1\npartial"));
+	}
+
+	private int budgetedCyclesToTimer(String data) throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(256, false, false, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		java.nio.channels.Pipe[] pipes = new java.nio.channels.Pipe[]{java.nio.channels.Pipe.open()};
+		java.util.List<String> rcvd = new java.util.ArrayList<>();
+		int[] cycles = new int[2]; //cycle in which the last line was delivered, cycle in which the timer fired
+		TimerNAF.Handler tmrhandler = new TimerNAF.Handler() {
+			@Override
+			public void timerIndication(TimerNAF t, Dispatcher d) {
+				cycles[1] = d.getLoopCycle();
+				d.stop();
+			}
+		};
+		launchStreams(bufspec, pipes, new String[]{data},
+				(cm, idx) -> {
+					cm.getReader().receiveDelimited((byte)'\n');
+					cm.getReader().setReadBudget(0, 1);
+				},
+				(cm, idx, rcvdata) -> {
+					rcvd.add(new String(rcvdata.buffer(), rcvdata.offset(), rcvdata.size() - 1, "8859_1"));
+					if (rcvd.size() != 2) return;
+					cycles[0] = cm.getDispatcher().getLoopCycle();
+					cm.getDispatcher().setTimer(100, 0, tmrhandler);
+				},
+				() -> org.junit.Assert.assertEquals(java.util.Arrays.asList("line0", "line1"), rcvd));
+		return cycles[1] - cycles[0];
+	}
+
+	// The whole payload is sitting in the pipe from the start, so without the rate limiter it would all be read at once
+	@org.junit.Test
+	public void testReadRateLimit() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(256, false, false, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		int rate = 20000;
+		int burst = 2000;
+		StringBuilder sb = new StringBuilder();
+		for (int idx = 0; sb.length() < 8000; idx++) sb.append("line").append(idx).append('\n');
+		java.nio.channels.Pipe[] pipes = new java.nio.channels.Pipe[]{java.nio.channels.Pipe.open()};
+		StringBuilder rcvd = new StringBuilder();
+		boolean[] throttled = new boolean[1];
+		long time1 = System.nanoTime();
+		launchStreams(bufspec, pipes, new CharSequence[]{sb},
+				(cm, idx) -> {
+					cm.setReadRateLimit(rate, burst);
+					cm.getReader().receive(0);
+				},
+				(cm, idx, rcvdata) -> {
+					rcvd.append(new String(rcvdata.buffer(), rcvdata.offset(), rcvdata.size(), "8859_1"));
+					if (cm.isFlagSetCM(ChannelMonitor.S_RDTHROTTLE)) throttled[0] = true;
+					if (rcvd.length() == sb.length()) cm.getDispatcher().stop();
+				},
+				() -> org.junit.Assert.assertEquals(sb.toString(), rcvd.toString()));
+		long elapsed = (System.nanoTime() - time1) / 1_000_000L;
+		org.junit.Assert.assertTrue(throttled[0]);
+		//the last read can overshoot the bucket by up to one buffer, so allow for that and some timer jitter
+		long mintime = (sb.length() - burst - bufspec.rcvbufsiz) * 1000L / rate;
+		org.junit.Assert.assertTrue("elapsed="+elapsed+" vs min="+mintime, elapsed >= mintime * 8 / 10);
+	}
+
 	@org.junit.Test
 	public void testOffsetBuffer() throws java.io.IOException
 	{
@@ -49,11 +258,17 @@ public class IOExecReaderTest
 	}
 
 	private void launch(com.grey.naf.BufferGenerator bufspec) throws java.io.IOException
+	{
+		launch(bufspec, false);
+	}
+
+	private Dispatcher launch(com.grey.naf.BufferGenerator bufspec, boolean withArena) throws java.io.IOException
 	{
 		FileOps.deleteDirectory(rootdir);
 		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
 				.withAppContext(appctx)
 				.withSurviveHandlers(false)
+				.withBufferArena(withArena)
 				.build();
 		Dispatcher dsptch = Dispatcher.create(def);
 		java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
@@ -71,6 +286,58 @@ public class IOExecReaderTest
 		}
 		wep.close();
 		org.junit.Assert.assertFalse(cm.isConnected());
+		return dsptch;
+	}
+
+	// Runs a Dispatcher with a CM_Stream reading from each of the given pipes. Once each CM is registered, the setup callback
+	// prepares its reader and the corresponding data is written into its pipe. The receiver has to stop the Dispatcher once
+	// it's seen all it expects, and the check then verifies what was received.
+	private void launchStreams(BufferGenerator bufspec, java.nio.channels.Pipe[] pipes, CharSequence[] data,
+			StreamSetup setup, StreamReceiver rcvr, Runnable check) throws java.io.IOException
+	{
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		CM_Stream[] cms = new CM_Stream[pipes.length];
+		for (int idx = 0; idx != cms.length; idx++) {
+			final int cmidx = idx;
+			cms[idx] = new CM_Stream(dsptch, bufspec, null) {
+				@Override
+				protected void ioReceived(ByteArrayRef rcvdata) throws java.io.IOException {
+					rcvr.ioReceived(this, cmidx, rcvdata);
+				}
+			};
+		}
+		dsptch.loadRunnable(new DispatcherRunnable() {
+			@Override
+			public String getName() {return "IOExecReaderTest.StreamsRunnable";}
+			@Override
+			public Dispatcher getDispatcher() {return dsptch;}
+			@Override
+			public void startDispatcherRunnable() throws java.io.IOException {
+				for (int idx = 0; idx != cms.length; idx++) {
+					cms[idx].registerConnectedChannel(pipes[idx].source(), true);
+					setup.setup(cms[idx], idx);
+					pipes[idx].sink().write(NIOBuffers.encode(data[idx], null, false));
+				}
+			}
+		});
+		dsptch.start();
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		for (java.nio.channels.Pipe pipe : pipes) pipe.sink().close();
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		check.run();
+	}
+
+	private interface StreamSetup {
+		void setup(CM_Stream cm, int idx) throws java.io.IOException;
+	}
+
+	private interface StreamReceiver {
+		void ioReceived(CM_Stream cm, int idx, ByteArrayRef rcvdata) throws java.io.IOException;
 	}
 
 
@@ -189,17 +456,57 @@ public class IOExecReaderTest
 				expect = "a\n";
 				break;
 			case 11:
-				synchronized (this) {
-					completed = true;
-				}
-				getReader().endReceive();
-				disconnect();
-				disconnect();//make sure twice is safe
-				getDispatcher().stop();
+				// switch to a multi-byte delimiter, where the second line's delimiter will be split across two reads
+				getReader().receiveDelimited(new byte[]{'\r', '\n'});
+				carr = new char[bufspec.rcvbufsiz - 5];
+				java.util.Arrays.fill(carr, 'z');
+				writedata = "ab\r\n"+new String(carr)+"\r\n";
+				org.junit.Assert.assertEquals(bufspec.rcvbufsiz + 1, writedata.length()); //sanity check
+				write(writedata);
+				expect = "ab\r\n";
+				break;
+			case 12:
+				expect = writedata.substring(4);
+				break;
+			case 13:
+				// switch to length-prefixed frames, including an empty one - all 3 arrive in a single read
+				getReader().receiveFramed(2, false, 0);
+				write("\0\3abc\0\0\0\5hello");
+				expect = "abc";
+				break;
+			case 14:
+				expect = "";
+				break;
+			case 15:
+				expect = "hello";
+				break;
+			case 16:
+				getReader().receiveFramed(4, true, 0);
+				write("\5\0\0\0world");
+				expect = "world";
+				break;
+			case 17:
+				// a frame that exceeds the max size should cause a disconnect, rather than a callback
+				getReader().receiveFramed(1, false, 10);
+				write("\13abcdefghijk");
+				expect = null;
 				break;
 			default:
 				throw new RuntimeException("Missing case for phase="+phase);
 			}
 		}
+
+		@Override
+		protected void ioDisconnected(CharSequence diagnostic) {
+			org.junit.Assert.assertEquals(18, phase);
+			org.junit.Assert.assertTrue(diagnostic.toString(), diagnostic.toString().startsWith("Oversized frame="));
+			synchronized (this) {
+				completed = true;
+			}
+			getReader().endReceive();
+			disconnect();
+			disconnect();//make sure twice is safe
+			getDispatcher().stop();
+		}
 	}
 }
@@ -148,6 +148,197 @@ public class IOExecWriterTest
 		org.junit.Assert.assertTrue(ok);
 	}
 
+	// Blocks the writer and then queues a mix of buffers and file-sends, so that the gathering writes in drainQueue()
+	// have to stop at each file and resume after it, as well as deal with a read-only buffer that's queued repeatedly.
+	@org.junit.Test
+	public void testMixedQueue() throws java.io.IOException
+	{
+		FileOps.deleteDirectory(rootdir);
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(0, true, null, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		final String pthnam = rootdir+"/mixedfile";
+		final java.io.File fh = new java.io.File(pthnam);
+		com.grey.base.utils.FileOps.ensureDirExists(fh.getParentFile());
+		byte[] filebody = new byte[20000];
+		java.util.Arrays.fill(filebody, (byte)'F');
+		java.io.FileOutputStream ostrm = new java.io.FileOutputStream(fh, false);
+		try {
+			ostrm.write(filebody);
+		} finally {
+			ostrm.close();
+		}
+
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+		java.nio.channels.Pipe.SourceChannel rep = pipe.source();
+		java.nio.channels.Pipe.SinkChannel wep = pipe.sink();
+		rep.configureBlocking(false);
+		CMW cm = new CMW(dsptch, null, wep, bufspec, fh, null);
+		cm.mixeddata = new StringBuilder();
+		dsptch.loadRunnable(cm);
+		dsptch.start();
+
+		java.nio.ByteBuffer rcvbuf = com.grey.base.utils.NIOBuffers.create(64*1024, false);
+		StringBuilder sb = new StringBuilder();
+		int nbytes;
+		while ((nbytes = rep.read(rcvbuf)) != -1) {
+			if (nbytes == 0) continue;
+			for (int idx = 0; idx != nbytes; idx++) {
+				sb.append((char)rcvbuf.get(idx));
+			}
+			rcvbuf.clear();
+		}
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		synchronized (cm) {
+			org.junit.Assert.assertTrue(cm.completed);
+			org.junit.Assert.assertEquals(cm.mixeddata.length(), sb.length());
+			org.junit.Assert.assertEquals(cm.mixeddata.toString(), sb.toString());
+		}
+		rep.close();
+		org.junit.Assert.assertTrue(fh.delete());
+	}
+
+	// Blocks the writer and keeps sending till the queue passes the high watermark, then verifies that we're notified
+	// once the reader has drained it back down to the low watermark.
+	@org.junit.Test
+	public void testWatermarks() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(0, true, null, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+		java.nio.channels.Pipe.SourceChannel rep = pipe.source();
+		rep.configureBlocking(false);
+		CMW cm = new CMW(dsptch, null, pipe.sink(), bufspec, null, null);
+		cm.mixeddata = new StringBuilder();
+		cm.wmarktest = true;
+		dsptch.loadRunnable(cm);
+		dsptch.start();
+
+		java.nio.ByteBuffer rcvbuf = com.grey.base.utils.NIOBuffers.create(64*1024, false);
+		StringBuilder sb = new StringBuilder();
+		int nbytes;
+		while ((nbytes = rep.read(rcvbuf)) != -1) {
+			if (nbytes == 0) continue;
+			for (int idx = 0; idx != nbytes; idx++) {
+				sb.append((char)rcvbuf.get(idx));
+			}
+			rcvbuf.clear();
+		}
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		synchronized (cm) {
+			org.junit.Assert.assertTrue(cm.completed);
+			org.junit.Assert.assertEquals(1, cm.blockedcnt);
+			org.junit.Assert.assertEquals(1, cm.resumedcnt);
+			org.junit.Assert.assertEquals(cm.mixeddata.toString(), sb.toString());
+		}
+		rep.close();
+	}
+
+	@org.junit.Test
+	public void testCork() throws Exception
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(0, true, null, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		BlockingQueue<BlockingTestData> blockingQueue = new ArrayBlockingQueue<>(5);
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+		java.nio.channels.Pipe.SourceChannel rep = pipe.source();
+		rep.configureBlocking(false);
+		CMW cm = new CMW(dsptch, rep, pipe.sink(), bufspec, null, blockingQueue);
+		cm.corktest = true;
+		dsptch.loadRunnable(cm);
+		dsptch.start();
+		BlockingTestData data = blockingQueue.take();
+		org.junit.Assert.assertEquals("msg0;msg1;msg2;msg3;msg4;", data.expectdata);
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		rep.close();
+	}
+
+
+	// A single large send would normally go straight into the pipe, but the rate limiter makes the writer queue it and
+	// dribble it out.
+	@org.junit.Test
+	public void testWriteRateLimit() throws java.io.IOException
+	{
+		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(0, true, null, null);
+		BufferGenerator bufspec = new BufferGenerator(bufcfg);
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		int rate = 20000;
+		int burst = 2000;
+		StringBuilder sb = new StringBuilder();
+		for (int idx = 0; sb.length() < 8000; idx++) sb.append("line").append(idx).append('\n');
+		java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+		java.nio.channels.Pipe.SourceChannel rep = pipe.source();
+		boolean[] throttled = new boolean[1];
+		CM_Stream cm = new CM_Stream(dsptch, null, bufspec) {
+			@Override
+			protected void ioReceived(ByteArrayRef rcvdata) {}
+		};
+		dsptch.loadRunnable(new DispatcherRunnable() {
+			@Override
+			public String getName() {return "IOExecWriterTest.RateLimitRunnable";}
+			@Override
+			public Dispatcher getDispatcher() {return dsptch;}
+			@Override
+			public void startDispatcherRunnable() throws java.io.IOException {
+				cm.registerConnectedChannel(pipe.sink(), true);
+				cm.setWriteRateLimit(rate, burst);
+				cm.getWriter().transmit(com.grey.base.utils.NIOBuffers.encode(sb, null, false));
+				synchronized (throttled) {
+					throttled[0] = cm.isWriteThrottled() && cm.getWriter().isBlocked();
+				}
+			}
+		});
+		long time1 = System.nanoTime();
+		dsptch.start();
+
+		java.nio.ByteBuffer rcvbuf = com.grey.base.utils.NIOBuffers.create(64*1024, false);
+		StringBuilder rcvd = new StringBuilder();
+		while (rcvd.length() < sb.length()) {
+			int nbytes = rep.read(rcvbuf);
+			if (nbytes == -1) break;
+			for (int idx = 0; idx != nbytes; idx++) {
+				rcvd.append((char)rcvbuf.get(idx));
+			}
+			rcvbuf.clear();
+		}
+		long elapsed = (System.nanoTime() - time1) / 1_000_000L;
+		dsptch.stop();
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		rep.close();
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		org.junit.Assert.assertEquals(sb.toString(), rcvd.toString());
+		synchronized (throttled) {
+			org.junit.Assert.assertTrue(throttled[0]);
+		}
+		long mintime = (sb.length() - burst) * 1000L / rate;
+		org.junit.Assert.assertTrue("elapsed="+elapsed+" vs min="+mintime, elapsed >= mintime * 8 / 10);
+	}
+
 
 	private static class CMW extends CM_Stream implements DispatcherRunnable
 	{
@@ -157,6 +348,11 @@ public class IOExecWriterTest
 		private final java.io.File fh;
 		public boolean completed;
 		public int sendbytes;
+		public StringBuilder mixeddata;
+		public boolean corktest;
+		public boolean wmarktest;
+		public int blockedcnt;
+		public int resumedcnt;
 
 		@Override
 		public String getName() {return "IOExecWriterTest.CMW";}
@@ -176,7 +372,13 @@ public class IOExecWriterTest
 		public void startDispatcherRunnable() throws java.io.IOException {
 			registerConnectedChannel(wchan, true);
 			org.junit.Assert.assertTrue(isConnected());
-			if (rchan == null) {
+			if (corktest) {
+				doCorkTest();
+			} else if (wmarktest) {
+				doWatermarkTest();
+			} else if (mixeddata != null) {
+				doMixedTest();
+			} else if (rchan == null) {
 				doFileTest();
 			} else {
 				doBlockingTest();
@@ -248,6 +450,97 @@ public class IOExecWriterTest
 			org.junit.Assert.assertTrue(isConnected());
 		}
 
+		public void doCorkTest() throws java.io.IOException {
+			getWriter().cork();
+			org.junit.Assert.assertTrue(getWriter().isCorked());
+			for (int idx = 0; idx != 5; idx++) {
+				write("msg"+idx+";");
+			}
+			org.junit.Assert.assertTrue(getWriter().isBlocked());
+			java.nio.ByteBuffer rcvbuf = com.grey.base.utils.NIOBuffers.create(100, false);
+			org.junit.Assert.assertEquals(0, rchan.read(rcvbuf));
+
+			getWriter().uncork();
+			org.junit.Assert.assertFalse(getWriter().isCorked());
+			org.junit.Assert.assertFalse(getWriter().isBlocked());
+			int nbytes = rchan.read(rcvbuf);
+			StringBuilder sb = new StringBuilder();
+			for (int idx = 0; idx != nbytes; idx++) {
+				sb.append((char)rcvbuf.get(idx));
+			}
+
+			// corked data that's still pending when we disconnect gets flushed
+			getWriter().cork();
+			write("last");
+			org.junit.Assert.assertTrue(disconnect(false));
+			rcvbuf.clear();
+			nbytes = rchan.read(rcvbuf);
+			org.junit.Assert.assertEquals(4, nbytes);
+			getDispatcher().stop();
+			blockingQueue.add(new BlockingTestData(sb.toString(), nbytes, 0));
+		}
+
+		public void doWatermarkTest() throws java.io.IOException {
+			getWriter().setWatermarks(4000, 1000);
+			String fill = new String(new char[1000]).replace('\0', 'w');
+			while (write(fill)) mixeddata.append(fill);
+			mixeddata.append(fill);
+			while (blockedcnt == 0) {
+				org.junit.Assert.assertFalse(getWriter().isOverWatermark());
+				write(fill);
+				mixeddata.append(fill);
+			}
+			org.junit.Assert.assertTrue(getWriter().isOverWatermark());
+			org.junit.Assert.assertTrue(getWriter().getQueuedBytes() >= 4000);
+			org.junit.Assert.assertTrue(getWriter().getQueuedBytes() < 5000);
+			write(fill); //no further notification while we're still above the low watermark
+			mixeddata.append(fill);
+		}
+
+		@Override
+		protected void writeBlocked() {
+			blockedcnt++;
+		}
+
+		@Override
+		protected void writeResumed() throws java.io.IOException {
+			synchronized (this) {
+				resumedcnt++;
+			}
+			org.junit.Assert.assertFalse(getWriter().isOverWatermark());
+			org.junit.Assert.assertTrue(getWriter().getQueuedBytes() <= 1000);
+			write("end");
+			mixeddata.append("end");
+			boolean done = disconnect(true);
+			if (done) disconnectLingerDone(true, null, null);
+		}
+
+		public void doMixedTest() throws java.io.IOException {
+			String fill = new String(new char[1000]).replace('\0', 'a');
+			while (write(fill)) mixeddata.append(fill);
+			mixeddata.append(fill);
+			org.junit.Assert.assertTrue(getWriter().isBlocked());
+			for (int loop = 0; loop != 3; loop++) {
+				for (int idx = 0; idx != 5; idx++) {
+					String msg = "msg"+loop+"-"+idx+";";
+					write(msg);
+					mixeddata.append(msg);
+				}
+				java.nio.ByteBuffer robuf = rdonlybuf.duplicate(); //the shared one might have been consumed by another test
+				robuf.position(0);
+				getWriter().transmit(robuf);
+				getWriter().transmit(robuf);
+				mixeddata.append(rdonlydata).append(rdonlydata);
+				getWriter().transmit(java.nio.channels.FileChannel.open(fh.toPath(), FileOps.OPENOPTS_READ));
+				for (long idx = 0; idx != fh.length(); idx++) mixeddata.append('F');
+			}
+			write("end");
+			mixeddata.append("end");
+			org.junit.Assert.assertTrue(getWriter().isBlocked());
+			boolean done = disconnect(true);
+			org.junit.Assert.assertFalse(done);
+		}
+
 		// write to the pipe till it blocks
 		public void doBlockingTest() throws java.io.IOException {
 			org.junit.Assert.assertFalse(getWriter().isBlocked());
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.TimeOps;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+public class JfrEventsTest
+	implements TimerNAF.Handler
+{
+	private static final String rootdir = TestUtils.initPaths(JfrEventsTest.class);
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("JfrEventsTest", false, null);
+
+	private static final int TMRTYPE_FAST = 1;
+	private static final int TMRTYPE_SLOW = 2;
+
+	@org.junit.Test
+	public void testDispatcherEvents() throws Exception
+	{
+		org.junit.Assume.assumeTrue(JfrEvents.ENABLED && jdk.jfr.FlightRecorder.isAvailable());
+		java.nio.file.Path dumpfile = java.nio.file.Paths.get(rootdir, "events.jfr");
+		java.nio.file.Files.createDirectories(dumpfile.getParent());
+		java.util.List<jdk.jfr.consumer.RecordedEvent> events;
+
+		try (jdk.jfr.Recording rec = new jdk.jfr.Recording()) {
+			rec.enable("com.grey.naf.LoopIteration");
+			rec.enable("com.grey.naf.TimerFired");
+			rec.enable("com.grey.naf.HandlerInvocation");
+			rec.start();
+
+			DispatcherConfig def = DispatcherConfig.builder()
+					.withName("jfrtest")
+					.withAppContext(appctx)
+					.withSurviveHandlers(false)
+					.build();
+			Dispatcher dsptch = Dispatcher.create(def);
+			dsptch.setTimer(0, TMRTYPE_FAST, this);
+			dsptch.setTimer(10, TMRTYPE_SLOW, this);
+			dsptch.start();
+			Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+			org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+			org.junit.Assert.assertTrue(dsptch.completedOK());
+
+			rec.stop();
+			rec.dump(dumpfile);
+			events = jdk.jfr.consumer.RecordingFile.readAllEvents(dumpfile);
+		}
+		int loops = 0;
+		int timers = 0;
+		java.util.List<jdk.jfr.consumer.RecordedEvent> handlers = new java.util.ArrayList<>();
+		for (jdk.jfr.consumer.RecordedEvent evt : events) {
+			if (!"jfrtest".equals(evt.getString("dispatcher"))) continue;
+			String name = evt.getEventType().getName();
+			if (name.equals("com.grey.naf.LoopIteration")) loops++;
+			if (name.equals("com.grey.naf.TimerFired")) timers++;
+			if (name.equals("com.grey.naf.HandlerInvocation")) handlers.add(evt);
+		}
+		org.junit.Assert.assertTrue(loops > 0);
+		org.junit.Assert.assertEquals(2, timers);
+		// only the slow handler exceeds the threshold
+		org.junit.Assert.assertEquals(1, handlers.size());
+		jdk.jfr.consumer.RecordedEvent evt = handlers.get(0);
+		org.junit.Assert.assertEquals("Timer", evt.getString("handlerType"));
+		org.junit.Assert.assertEquals(TMRTYPE_SLOW, evt.getInt("id"));
+		org.junit.Assert.assertEquals(getClass().getName(), evt.getClass("handlerClass").getName());
+		org.junit.Assert.assertTrue(evt.getDuration().toMillis() >= 50);
+	}
+
+	@Override
+	public void timerIndication(TimerNAF tmr, Dispatcher d) {
+		if (tmr.getType() == TMRTYPE_SLOW) {
+			TimerNAF.sleep(60);
+			d.stop();
+		}
+	}
+}
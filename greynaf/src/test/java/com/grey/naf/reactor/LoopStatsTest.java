@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.TimeOps;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+public class LoopStatsTest
+{
+	static {
+		TestUtils.initPaths(LoopStatsTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("LoopStatsTest", false, null);
+
+	@org.junit.Test
+	public void testHistogram()
+	{
+		LoopStats.Histogram h = new LoopStats.Histogram("utest", false);
+		org.junit.Assert.assertEquals(0, h.getPercentile(50));
+		h.record(0);
+		for (int idx = 0; idx != 98; idx++) h.record(5);
+		h.record(1000);
+		org.junit.Assert.assertEquals(100, h.getCount());
+		org.junit.Assert.assertEquals(98*5 + 1000, h.getTotal());
+		org.junit.Assert.assertEquals(1000, h.getMax());
+		org.junit.Assert.assertEquals(1, h.getBucketCount(0));
+		org.junit.Assert.assertEquals(98, h.getBucketCount(3)); //4 to 7
+		org.junit.Assert.assertEquals(1, h.getBucketCount(10)); //512 to 1023
+		org.junit.Assert.assertEquals(7, h.getPercentile(50));
+		org.junit.Assert.assertEquals(7, h.getPercentile(99));
+		org.junit.Assert.assertEquals(1000, h.getPercentile(100));
+
+		h.record(Long.MAX_VALUE);
+		org.junit.Assert.assertEquals(1, h.getBucketCount(LoopStats.Histogram.BUCKETS - 1));
+		h.reset();
+		org.junit.Assert.assertEquals(0, h.getCount());
+		org.junit.Assert.assertEquals(0, h.getMax());
+		org.junit.Assert.assertEquals(0, h.getBucketCount(3));
+	}
+
+	@org.junit.Test
+	public void testDispatcher() throws Exception
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName("loopstats")
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		LoopStats stats = dsptch.getLoopStats();
+		org.junit.Assume.assumeNotNull(stats);
+		int tmrcnt = 5;
+		int[] fired = new int[1];
+		TimerNAF.Handler handler = (t, d) -> {
+			if (++fired[0] == tmrcnt) d.stop();
+		};
+		for (int idx = 0; idx != tmrcnt; idx++) {
+			dsptch.setTimer(10 * (idx + 1), 0, handler);
+		}
+		dsptch.start();
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+
+		org.junit.Assert.assertTrue(stats.getLoopCount() > 0);
+		org.junit.Assert.assertEquals(stats.getLoopCount(), stats.getSelectTime().getCount());
+		org.junit.Assert.assertEquals(stats.getLoopCount(), stats.getReadyKeys().getCount());
+		org.junit.Assert.assertEquals(tmrcnt, stats.getTimersFired().getTotal());
+		org.junit.Assert.assertEquals(stats.getTimersFired().getCount(), stats.getTimerTime().getCount());
+		org.junit.Assert.assertTrue(stats.getSelectTime().getTotal() > 0);
+		org.junit.Assert.assertTrue(stats.toString(), stats.toString().contains("Timers-Fired: count="));
+
+		stats.reset();
+		org.junit.Assert.assertEquals(0, stats.getLoopCount());
+		org.junit.Assert.assertEquals(0, stats.getTimersFired().getCount());
+	}
+}
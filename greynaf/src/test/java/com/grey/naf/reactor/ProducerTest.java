@@ -83,6 +83,78 @@ public class ProducerTest
 		org.junit.Assert.assertEquals(produced_cnt, consumed_cnt);
 	}
 
+	// A producer which never lets up mustn't be able to keep the consumer in its callout, and starve the Dispatcher's timers
+	@org.junit.Test
+	public void unremitting()
+			throws java.io.IOException, InterruptedException
+	{
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withName("producertest-unremitting")
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		int[] maxbatch = new int[1];
+		Producer<String> p = new Producer<>("utest-unremitting", dsptch, (prod) -> {
+			int cnt = 0;
+			while (prod.consume() != null) cnt++;
+			if (cnt > maxbatch[0]) maxbatch[0] = cnt;
+		});
+		dsptch.loadRunnable(p);
+		dsptch.setTimer(100, 0, new TimerNAF.Handler() {
+			@Override
+			public void timerIndication(TimerNAF t, Dispatcher d) {d.stop();}
+		});
+		java.util.concurrent.atomic.AtomicBoolean halt = new java.util.concurrent.atomic.AtomicBoolean();
+		Thread thrd = new Thread(() -> {
+			try {
+				String[] items = new String[64];
+				java.util.Arrays.fill(items, "item");
+				while (!halt.get()) p.produce(items);
+			} catch (Exception ex) {
+				throw new RuntimeException("Producer thread failed", ex);
+			}
+		});
+		dsptch.start();
+		thrd.start();
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		halt.set(true);
+		thrd.join();
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		org.junit.Assert.assertTrue("max batch="+maxbatch[0], maxbatch[0] <= Producer.BATCHMAX);
+	}
+
+	// A consumer which shuts down the Producer during its callout mustn't get called back inside itself to drain the rest
+	@org.junit.Test
+	public void shutdownInCallout()
+			throws java.io.IOException, InterruptedException
+	{
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withName("producertest-shutdown")
+				.withSurviveHandlers(false)
+				.build();
+		Dispatcher dsptch = Dispatcher.create(def);
+		int[] depth = new int[2]; //current depth, max depth
+		java.util.List<String> consumed = new java.util.ArrayList<>();
+		Producer<String> p = new Producer<>("utest-shutdown", dsptch, (prod) -> {
+			if (++depth[0] > depth[1]) depth[1] = depth[0];
+			consumed.add(prod.consume());
+			prod.shutdown(true);
+			depth[0]--;
+			prod.getDispatcher().stop();
+		});
+		dsptch.loadRunnable(p);
+		dsptch.start();
+		p.produce(new String[]{"item1", "item2", "item3"});
+		Dispatcher.STOPSTATUS stopsts = dsptch.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true);
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, stopsts);
+		org.junit.Assert.assertTrue(dsptch.completedOK());
+		org.junit.Assert.assertEquals(1, depth[1]);
+		org.junit.Assert.assertEquals(java.util.Arrays.asList("item1"), consumed);
+	}
+
 	@Override
 	public void producerIndication(Producer<String> p) throws java.io.IOException
 	{
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import com.grey.base.utils.ByteArrayRef;
+import com.grey.base.utils.TimeOps;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.BufferGenerator;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.ConcurrentListenerConfig;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+public class ReusePortTest
+{
+	static {
+		TestUtils.initPaths(ReusePortTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("ReusePortTest", false, null);
+
+	@org.junit.Test
+	public void testListeners() throws Exception
+	{
+		org.junit.Assume.assumeTrue(isSupported());
+		Dispatcher d1 = createDispatcher("reuseport-tcp1");
+		Dispatcher d2 = createDispatcher("reuseport-tcp2");
+
+		ConcurrentListenerConfig lcfg = buildListenerConfig(0, true);
+		ConcurrentListener l1 = ConcurrentListener.create(d1, lcfg);
+		lcfg = buildListenerConfig(l1.getPort(), true);
+		ConcurrentListener l2 = ConcurrentListener.create(d2, lcfg);
+		org.junit.Assert.assertEquals(l1.getPort(), l2.getPort());
+		org.junit.Assert.assertNotEquals(l1.getName(), l2.getName());
+
+		// a listener which doesn't ask for SO_REUSEPORT can't join in
+		try {
+			ConcurrentListener.create(d2, buildListenerConfig(l1.getPort(), false));
+			org.junit.Assert.fail("Expected bind to fail on reused port="+l1.getPort());
+		} catch (java.net.BindException ex) {}
+
+		runAndStop(d1, d2, l1, l2);
+	}
+
+	@org.junit.Test
+	public void testUDP() throws Exception
+	{
+		org.junit.Assume.assumeTrue(isSupported());
+		Dispatcher d1 = createDispatcher("reuseport-udp1");
+		Dispatcher d2 = createDispatcher("reuseport-udp2");
+		java.net.InetSocketAddress addr = new java.net.InetSocketAddress("127.0.0.1", 0);
+		UdpEndpoint u1 = new UdpEndpoint(d1, addr, true);
+		addr = new java.net.InetSocketAddress("127.0.0.1", u1.getLocalPort());
+		UdpEndpoint u2 = new UdpEndpoint(d2, addr, true);
+		org.junit.Assert.assertEquals(u1.getLocalPort(), u2.getLocalPort());
+
+		try {
+			new UdpEndpoint(d2, addr, false);
+			org.junit.Assert.fail("Expected bind to fail on reused port="+addr);
+		} catch (java.net.BindException ex) {}
+
+		runAndStop(d1, d2, u1, u2);
+	}
+
+	private static void runAndStop(Dispatcher d1, Dispatcher d2, DispatcherRunnable r1, DispatcherRunnable r2) throws java.io.IOException
+	{
+		d1.loadRunnable(r1);
+		d2.loadRunnable(r2);
+		d1.start();
+		d2.start();
+		d1.stop();
+		d2.stop();
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, d1.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true));
+		org.junit.Assert.assertEquals(Dispatcher.STOPSTATUS.STOPPED, d2.waitStopped(TimeOps.MSECS_PER_SECOND * 10, true));
+		org.junit.Assert.assertTrue(d1.completedOK());
+		org.junit.Assert.assertTrue(d2.completedOK());
+	}
+
+	private static Dispatcher createDispatcher(String name) throws java.io.IOException
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName(name)
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.build();
+		return Dispatcher.create(def);
+	}
+
+	private static ConcurrentListenerConfig buildListenerConfig(int port, boolean reusePort)
+	{
+		return new ConcurrentListenerConfig.Builder<>()
+				.withName("utest_reuseport")
+				.withServerFactoryGenerator((l) -> () -> null)
+				.withInterface("127.0.0.1")
+				.withPort(port)
+				.withReusePort(reusePort)
+				.build();
+	}
+
+	private static boolean isSupported() throws java.io.IOException
+	{
+		try (java.nio.channels.ServerSocketChannel chan = java.nio.channels.ServerSocketChannel.open()) {
+			return chan.supportedOptions().contains(java.net.StandardSocketOptions.SO_REUSEPORT);
+		}
+	}
+
+
+	private static class UdpEndpoint extends CM_UDP
+	{
+		private static final BufferGenerator bufspec = new BufferGenerator(new BufferGenerator.BufferConfig(512, true, null, null));
+
+		@Override
+		public String getName() {return "ReusePortTest.UdpEndpoint";}
+
+		public UdpEndpoint(Dispatcher d, java.net.InetSocketAddress addr, boolean reusePort) throws java.io.IOException {
+			super(d, addr, bufspec, 0, reusePort);
+		}
+
+		@Override
+		protected void ioReceived(ByteArrayRef rcvdata, java.net.InetSocketAddress remaddr) {}
+	}
+}
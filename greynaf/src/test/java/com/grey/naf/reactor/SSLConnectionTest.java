@@ -72,6 +72,7 @@ public class SSLConnectionTest
 	private int startcnt_servers;
 	private int expected_tcpentities;
 	int srvport;
+	int sendfile_size;
 	SSLS lastsrv;
 
 	@org.junit.Test
@@ -94,6 +95,18 @@ public class SSLConnectionTest
 		runtest(clntcfg, srvcfg, true, true, -1);
 	}
 
+	// The file is big enough to fill the socket buffers, so the SSL file-send has to be streamed across multiple
+	// write-ready events.
+	@org.junit.Test
+	public void testLargeFile() throws Exception
+	{
+		String sxml = "<listeners><listener>"+srvcfg_puressl+"</listener></listeners>";
+		String cxml = "<x>"+clntcfg_puressl+"</x>";
+		XmlConfig srvcfg = XmlConfig.makeSection(sxml, ".");
+		XmlConfig clntcfg = XmlConfig.makeSection(cxml, "x");
+		runtest(clntcfg, srvcfg, true, true, -1, FAILTYPE.NONE, 8*1024*1024 + 1);
+	}
+
 	@org.junit.Test
 	public void testSwitchSSL() throws Exception
 	{
@@ -114,6 +127,72 @@ public class SSLConnectionTest
 		runtest(clntcfg, srvcfg, true, false, -1);
 	}
 
+	@org.junit.Test
+	public void testOffloadTasks() throws Exception
+	{
+		String sxml = "<listeners><listener>"+srvcfg_puressl.replace("<ssl", "<ssl offloadtasks=\"Y\"")+"</listener></listeners>";
+		String cxml = "<x>"+clntcfg_puressl.replace("<ssl", "<ssl offloadtasks=\"Y\"")+"</x>";
+		XmlConfig srvcfg = XmlConfig.makeSection(sxml, ".");
+		XmlConfig clntcfg = XmlConfig.makeSection(cxml, "x");
+		runtest(clntcfg, srvcfg, true, true, -1);
+	}
+
+	@org.junit.Test
+	public void testOffloadTasks_switch() throws Exception
+	{
+		String sxml = "<listeners><listener>"+srvcfg_switchssl.replace("<ssl", "<ssl offloadtasks=\"Y\"")+"</listener></listeners>";
+		String cxml = "<x>"+clntcfg_switchssl.replace("<ssl", "<ssl offloadtasks=\"Y\"")+"</x>";
+		XmlConfig srvcfg = XmlConfig.makeSection(sxml, ".");
+		XmlConfig clntcfg = XmlConfig.makeSection(cxml, "x");
+		runtest(clntcfg, srvcfg, true, true, -1);
+	}
+
+	@org.junit.Test
+	public void testSharedClientCache() throws Exception
+	{
+		String cxml = "<x>"+clntcfg_puressl.replace("<ssl", "<ssl sharedcache=\"Y\" cache=\"50\" cachetime=\"1h\"")+"</x>";
+		SSLConfig cfg1 = buildClientConfig(cxml);
+		SSLConfig cfg2 = buildClientConfig(cxml);
+		org.junit.Assert.assertSame(cfg1.getContext(), cfg2.getContext());
+		SSLConfig cfg0 = buildClientConfig(cxml.replace("sharedcache=\"Y\" ", ""));
+		org.junit.Assert.assertFalse(cfg0.isSharedClientCache());
+		org.junit.Assert.assertNotSame(cfg1.getContext(), cfg0.getContext());
+		javax.net.ssl.SSLSessionContext sessctx = cfg1.getContext().getClientSessionContext();
+		org.junit.Assert.assertEquals(50, sessctx.getSessionCacheSize());
+		org.junit.Assert.assertEquals(3600, sessctx.getSessionTimeout());
+
+		SSLConfig cfg3 = buildClientConfig(cxml.replace("sharedcache=\"Y\"", "sharedcache=\"N\""));
+		org.junit.Assert.assertNotSame(cfg1.getContext(), cfg3.getContext());
+		SSLConfig cfg4 = buildClientConfig(cxml.replace("cache=\"50\"", "cache=\"51\""));
+		org.junit.Assert.assertNotSame(cfg1.getContext(), cfg4.getContext());
+
+		// rewriting the trust store under the same pathname must result in a new context
+		java.io.File tsfile = new java.io.File(rootdir+"/sharedcache-trustcerts.jks");
+		FileOps.ensureDirExists(tsfile.getParentFile());
+		java.nio.file.Files.copy(new java.io.File(new java.net.URL(tspath).toURI()).toPath(), tsfile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+		String cxml2 = cxml.replace(tspath, tsfile.toURI().toURL().toString());
+		SSLConfig cfg5 = buildClientConfig(cxml2);
+		org.junit.Assert.assertSame(cfg5.getContext(), buildClientConfig(cxml2).getContext());
+		java.security.KeyStore ts = java.security.KeyStore.getInstance(SSLConfig.KSTYPE_JKS);
+		try (java.io.InputStream fin = new java.io.FileInputStream(tsfile)) {
+			ts.load(fin, null);
+		}
+		ts.deleteEntry("client1cert"); //not needed by the client
+		try (java.io.OutputStream fout = new java.io.FileOutputStream(tsfile)) {
+			ts.store(fout, "tspass123".toCharArray());
+		}
+		SSLConfig cfg6 = buildClientConfig(cxml2);
+		org.junit.Assert.assertNotSame(cfg5.getContext(), cfg6.getContext());
+	}
+
+	private static SSLConfig buildClientConfig(String xml) throws java.io.IOException
+	{
+		return new SSLConfig.Builder()
+				.withIsClient(true)
+				.withXmlConfig(XmlConfig.makeSection(xml, "x/ssl"), appctx.getNafConfig())
+				.build();
+	}
+
 	// Server config specifies non-matching peercert
 	@org.junit.Test
 	public void testBadClient_wrongcert_pure() throws Exception
@@ -145,9 +224,10 @@ public class SSLConnectionTest
 		runtest(clntcfg, srvcfg, true, true, 0, FAILTYPE.NOCONNECT);
 	}
 
-	private void runtest(XmlConfig clntcfg, XmlConfig srvcfg, boolean sslmode, boolean lset, int fail_step, FAILTYPE failtype) throws java.io.IOException
+	private void runtest(XmlConfig clntcfg, XmlConfig srvcfg, boolean sslmode, boolean lset, int fail_step, FAILTYPE failtype, int fsize) throws java.io.IOException
 	{
 		FileOps.deleteDirectory(rootdir);
+		sendfile_size = fsize;
 
 		// create the Dispatcher
 		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
@@ -188,7 +268,7 @@ public class SSLConnectionTest
 		bufcfg = BufferGenerator.BufferConfig.create(clntcfg, "niobuffers", bufcfg);
 		BufferGenerator rbufspec = new BufferGenerator(bufcfg);
 		BufferGenerator wbufspec = new BufferGenerator(bufcfg);
-		SSLC clnt = new SSLC(dsptch, clntcfg, cport, this, rbufspec, wbufspec);
+		SSLC clnt = new SSLC(dsptch, clntcfg, cport, this, rbufspec, wbufspec, fsize);
 		dsptch.loadRunnable(clnt);
 
 		// set up a no-op Naflet which simply goes through the motions
@@ -227,6 +307,8 @@ public class SSLConnectionTest
 		org.junit.Assert.assertEquals(failtype == FAILTYPE.NOCONNECT ? 0 : 1, reapcnt_servers);
 		org.junit.Assert.assertEquals(reapcnt_servers, startcnt_servers);
 		org.junit.Assert.assertEquals(reapcnt_servers+reapcnt_clients+1, reapcnt); //+1 for ListenerSet or Listener
+		com.grey.naf.BufferArena sslarena = dsptch.getNamedItem(SSLConnection.ARENA_NAME, null);
+		if (sslarena != null) org.junit.Assert.assertEquals(0, sslarena.getActiveCount()); //closed connections returned their buffers
 
 		if (fail_step != -1) {
 			//don't check client's progress, as it may have sent an extra message before it received disconnect
@@ -258,6 +340,12 @@ public class SSLConnectionTest
 		if (fail_step == -1) org.junit.Assert.assertTrue(ok);
 	}
 
+	private void runtest(XmlConfig clntcfg, XmlConfig srvcfg, boolean sslmode, boolean lset, int fail_step, FAILTYPE failtype)
+			throws java.io.IOException
+	{
+		runtest(clntcfg, srvcfg, sslmode, lset, fail_step, failtype, filesize);
+	}
+
 	private void runtest(XmlConfig clntcfg, XmlConfig srvcfg, boolean sslmode, boolean lset, int fail_step)
 			throws java.io.IOException
 	{
@@ -329,6 +417,7 @@ public class SSLConnectionTest
 		private final com.grey.naf.reactor.config.SSLConfig sslconfig;
 		private final EventListenerNAF eventLstener;
 		private final int srvport;
+		private final int fsize;
 		private java.nio.channels.SelectableChannel chan;
 		public boolean completed;
 		public int was_connected;
@@ -341,10 +430,11 @@ public class SSLConnectionTest
 		@Override
 		public String getName() {return "SSLConnectionTest.SSLC";}
 
-		public SSLC(Dispatcher d, XmlConfig cfg, int port, EventListenerNAF evtl, BufferGenerator rbufspec, BufferGenerator wbufspec) throws java.io.IOException {
+		public SSLC(Dispatcher d, XmlConfig cfg, int port, EventListenerNAF evtl, BufferGenerator rbufspec, BufferGenerator wbufspec, int fsize) throws java.io.IOException {
 			super(d, rbufspec, wbufspec);
 			this.eventLstener = evtl;
 			srvport = port;
+			this.fsize = fsize;
 			XmlConfig sslcfg = (cfg == null ? XmlConfig.NULLCFG : cfg.getSection("ssl"));
 			if (sslcfg == null || !sslcfg.exists()) {
 				sslconfig = null;
@@ -442,7 +532,7 @@ public class SSLConnectionTest
 			com.grey.base.utils.FileOps.ensureDirExists(fh.getParentFile());
 			org.junit.Assert.assertFalse(fh.exists());
 
-			byte[] filebody = new byte[filesize];
+			byte[] filebody = new byte[fsize];
 			for (int idx = 0; idx != filebody.length; idx++) {
 				filebody[idx] = (byte)idx;
 			}
@@ -471,6 +561,7 @@ public class SSLConnectionTest
 		public boolean completed;
 		private java.nio.channels.SelectableChannel chan;
 		private int filebytes;
+		private int fsize;
 		public int step;
 		public boolean file_error;
 
@@ -486,6 +577,7 @@ public class SSLConnectionTest
 				chan = getChannel();
 				SSLConnectionTest harness = (SSLConnectionTest)getListener().getController();
 				harness.lastsrv = this;
+				fsize = harness.sendfile_size;
 				if (getSSLConfig().isLatent()) {
 					org.junit.Assert.assertFalse(usingSSL());
 				} else {
@@ -518,14 +610,14 @@ public class SSLConnectionTest
 				for (int idx = rcvdata.offset(); idx != lmt; idx++) {
 					if (!file_error && (filebytes & 0xff) != (rcvdata.buffer()[idx] & 0xff)) {
 						//record the error status rather than aborting right away - want to see where this goes
-						System.out.println("Bad filebyte at "+filebytes+"/"+filesize
+						System.out.println("Bad filebyte at "+filebytes+"/"+fsize
 								+" - "+(rcvdata.buffer()[idx] & 0xff)+" vs expected="+(filebytes & 0xff)
 								+" - rcvdata="+rcvdata);
 						file_error = true;
 					}
 					filebytes++;
 				}
-				if (filebytes != filesize) sendack = false;
+				if (filebytes != fsize) sendack = false;
 			}
 			
 			if (sendack) {
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.nio.channels.SelectionKey;
+
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.TestUtils;
+
+/*
+ * The flat key set can only be installed if the JVM opens sun.nio.ch to us, so depending on how the tests are run,
+ * this either verifies that the ready keys show up in its array, or that the Selector still works after a failed install.
+ */
+public class SelectedKeySetTest
+{
+	static {
+		TestUtils.initPaths(SelectedKeySetTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("SelectedKeySetTest", false, null);
+
+	@org.junit.Test
+	public void testInstall() throws java.io.IOException
+	{
+		java.nio.channels.Pipe pipe1 = java.nio.channels.Pipe.open();
+		java.nio.channels.Pipe pipe2 = java.nio.channels.Pipe.open();
+		try (java.nio.channels.Selector slct = java.nio.channels.Selector.open()) {
+			Dispatcher dsptch = Dispatcher.create(com.grey.naf.reactor.config.DispatcherConfig.builder().withName("keysettest").withAppContext(appctx).build());
+			SelectedKeySet keyset = SelectedKeySet.install(slct, dsptch.getLogger());
+			pipe1.source().configureBlocking(false);
+			pipe2.source().configureBlocking(false);
+			SelectionKey key1 = pipe1.source().register(slct, SelectionKey.OP_READ);
+			SelectionKey key2 = pipe2.source().register(slct, SelectionKey.OP_READ);
+			org.junit.Assert.assertEquals(0, slct.selectNow());
+
+			pipe1.sink().write(java.nio.ByteBuffer.wrap(new byte[]{1}));
+			pipe2.sink().write(java.nio.ByteBuffer.wrap(new byte[]{2}));
+			org.junit.Assert.assertEquals(2, slct.select(5000));
+			org.junit.Assert.assertEquals(2, slct.selectedKeys().size());
+			org.junit.Assert.assertTrue(slct.selectedKeys().contains(key1) || keyset != null); //flat set never claims to contain anything
+
+			if (keyset != null) {
+				org.junit.Assert.assertSame(keyset, slct.selectedKeys());
+				java.util.List<SelectionKey> keys = java.util.Arrays.asList(keyset.keys[0], keyset.keys[1]);
+				org.junit.Assert.assertTrue(keys.contains(key1));
+				org.junit.Assert.assertTrue(keys.contains(key2));
+				java.util.Iterator<SelectionKey> it = keyset.iterator();
+				org.junit.Assert.assertTrue(keys.contains(it.next()));
+				org.junit.Assert.assertTrue(keys.contains(it.next()));
+				org.junit.Assert.assertFalse(it.hasNext());
+			}
+			slct.selectedKeys().clear();
+			org.junit.Assert.assertEquals(0, slct.selectedKeys().size());
+		} finally {
+			pipe1.sink().close();
+			pipe1.source().close();
+			pipe2.sink().close();
+			pipe2.source().close();
+		}
+	}
+}
@@ -39,6 +39,18 @@ public class TCPConnectionTest
 
 	@org.junit.Test
 	public void test() throws java.io.IOException
+	{
+		runTest(false);
+	}
+
+	// Only runs if this JVM is capable of the epoll transport, ie. Java 22+ on Linux with the right --add-opens
+	@org.junit.Test
+	public void testEpoll() throws java.io.IOException
+	{
+		runTest(true);
+	}
+
+	private void runTest(boolean epoll) throws java.io.IOException
 	{
 		FileOps.deleteDirectory(rootdir);
 
@@ -46,8 +58,10 @@ public class TCPConnectionTest
 		com.grey.naf.reactor.config.DispatcherConfig def = DispatcherConfig.builder()
 				.withAppContext(appctx)
 				.withSurviveHandlers(false)
+				.withEpoll(epoll)
 				.build();
 		dsptch = Dispatcher.create(def);
+		if (epoll) org.junit.Assume.assumeTrue(dsptch.getTransport().getClass().getSimpleName().equals("IOTransportEpoll"));
 
 		// set up the server component
 		ConcurrentListenerConfig lcfg = new ConcurrentListenerConfig.Builder<>()
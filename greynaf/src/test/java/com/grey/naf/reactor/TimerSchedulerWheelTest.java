@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Yusef Badri - All rights reserved.
+ * NAF is distributed under the terms of the GNU Affero General Public License, Version 3 (AGPLv3).
+ */
+package com.grey.naf.reactor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.grey.base.collections.ObjectQueue;
+import com.grey.naf.ApplicationContextNAF;
+import com.grey.naf.TestUtils;
+import com.grey.naf.reactor.config.DispatcherConfig;
+
+/*
+ * Verifies that the timing wheel expires timers in exactly the same order as the original sorted-list scheduler
+ */
+public class TimerSchedulerWheelTest
+{
+	static {
+		TestUtils.initPaths(TimerSchedulerWheelTest.class);
+	}
+
+	private static final ApplicationContextNAF appctx = TestUtils.createApplicationContext("TimerSchedulerWheelTest", false, null);
+
+	private static final TimerNAF.Handler dummyHandler = (tmr, d) -> {};
+
+	@org.junit.Test
+	public void testZeroTimers() throws java.io.IOException
+	{
+		Dispatcher dsptch = createDispatcher("zerotimers");
+		TimerSchedulerWheel wheel = new TimerSchedulerWheel(10, dsptch.getSystemTime());
+		TimerNAF t1 = createTimer(dsptch, 100, 1);
+		TimerNAF t2 = createTimer(dsptch, 0, 2);
+		TimerNAF t3 = createTimer(dsptch, 0, 3);
+		wheel.add(t1);
+		wheel.add(t2);
+		wheel.add(t3);
+		org.junit.Assert.assertEquals(3, wheel.size());
+		org.junit.Assert.assertEquals(t3.getExpiryTime(), wheel.nextExpiry());
+
+		ObjectQueue<TimerNAF> pending = new ObjectQueue<>();
+		wheel.expire(dsptch.getSystemTime() + TimerNAF.JITTER_THRESHOLD, pending);
+		org.junit.Assert.assertEquals(2, pending.size());
+		org.junit.Assert.assertSame(t3, pending.remove());
+		org.junit.Assert.assertSame(t2, pending.remove());
+		org.junit.Assert.assertEquals(1, wheel.size());
+		org.junit.Assert.assertTrue(wheel.nextExpiry() <= t1.getExpiryTime());
+
+		org.junit.Assert.assertTrue(wheel.remove(t1));
+		org.junit.Assert.assertFalse(wheel.remove(t1));
+		org.junit.Assert.assertEquals(0, wheel.size());
+		org.junit.Assert.assertEquals(Long.MAX_VALUE, wheel.nextExpiry());
+	}
+
+	@org.junit.Test
+	public void testSameOrderAsList() throws java.io.IOException
+	{
+		Dispatcher dsptch = createDispatcher("sameorder");
+		long systime = dsptch.getSystemTime();
+		java.util.Random rnd = new java.util.Random(1000);
+		TimerSchedulerWheel wheel = new TimerSchedulerWheel(10, systime);
+		TimerSchedulerList lst = new TimerSchedulerList();
+		List<TimerNAF> timers = new ArrayList<>();
+
+		// Intervals span several wheel levels, and many are identical, so that ties need to be ordered
+		for (int idx = 0; idx != 5000; idx++) {
+			long interval;
+			switch (idx % 4) {
+			case 0: interval = rnd.nextInt(100); break;
+			case 1: interval = rnd.nextInt(10) * 1000; break;
+			case 2: interval = rnd.nextInt(100_000); break;
+			default: interval = rnd.nextInt(50_000_000); break;
+			}
+			TimerNAF tmr = createTimer(dsptch, interval, idx);
+			timers.add(tmr);
+			wheel.add(tmr);
+			lst.add(tmr);
+		}
+		org.junit.Assert.assertEquals(lst.getTimers(new ArrayList<>()), wheel.getTimers(new ArrayList<>()));
+
+		// remove some and re-add others, which makes them later than equal-expiry timers that haven't been re-added
+		for (int idx = 0; idx < timers.size(); idx += 3) {
+			TimerNAF tmr = timers.get(idx);
+			org.junit.Assert.assertTrue(wheel.remove(tmr));
+			org.junit.Assert.assertTrue(lst.remove(tmr));
+			if (idx % 2 == 0) {
+				wheel.add(tmr);
+				lst.add(tmr);
+			}
+		}
+		org.junit.Assert.assertEquals(lst.size(), wheel.size());
+
+		ObjectQueue<TimerNAF> pending1 = new ObjectQueue<>();
+		ObjectQueue<TimerNAF> pending2 = new ObjectQueue<>();
+		long limit = systime;
+		while (lst.size() != 0) {
+			org.junit.Assert.assertTrue(wheel.nextExpiry() <= lst.nextExpiry());
+			limit += rnd.nextInt(200_000);
+			lst.expire(limit, pending1);
+			wheel.expire(limit, pending2);
+			org.junit.Assert.assertEquals(pending1.size(), pending2.size());
+			TimerNAF tmr;
+			while ((tmr = pending1.remove()) != null) {
+				org.junit.Assert.assertSame(tmr, pending2.remove());
+				org.junit.Assert.assertTrue(tmr.getExpiryTime() < limit);
+			}
+			org.junit.Assert.assertEquals(lst.size(), wheel.size());
+		}
+		org.junit.Assert.assertEquals(Long.MAX_VALUE, wheel.nextExpiry());
+	}
+
+	private static Dispatcher createDispatcher(String name) throws java.io.IOException
+	{
+		DispatcherConfig def = DispatcherConfig.builder()
+				.withName(name)
+				.withAppContext(appctx)
+				.build();
+		return Dispatcher.create(def);
+	}
+
+	private static TimerNAF createTimer(Dispatcher dsptch, long interval, int id)
+	{
+		return new TimerNAF().init(dsptch, dummyHandler, interval, 0, id, null);
+	}
+}
@@ -66,6 +66,22 @@ public class TimerTest
 				.withAppContext(appctx)
 				.withSurviveHandlers(false)
 				.build();
+		runTimers(def);
+	}
+
+	@org.junit.Test
+	public void testTimerWheel() throws java.io.IOException
+	{
+		com.grey.naf.reactor.config.DispatcherConfig def = com.grey.naf.reactor.config.DispatcherConfig.builder()
+				.withAppContext(appctx)
+				.withSurviveHandlers(false)
+				.withTimerWheelTick(5)
+				.build();
+		runTimers(def);
+	}
+
+	private static void runTimers(com.grey.naf.reactor.config.DispatcherConfig def) throws java.io.IOException
+	{
 		Dispatcher dsptch = Dispatcher.create(def);
 		Handler handler = new Handler();
 		handler.tmr3 = dsptch.setTimer(50, 3, handler);
@@ -22,16 +22,23 @@ public class UDPReaderTest
 	@org.junit.Test
 	public void testDirectBuffers() throws java.io.IOException
 	{
-		runtest(true);
+		runtest(true, 0);
 	}
 
 	@org.junit.Test
 	public void testHeapBuffers() throws java.io.IOException
 	{
-		runtest(false);
+		runtest(false, 0);
 	}
 
-	private void runtest(boolean directbufs) throws java.io.IOException
+	// the default batch size will have received all the messages in one go, so also test receiving them one at a time
+	@org.junit.Test
+	public void testNoBatching() throws java.io.IOException
+	{
+		runtest(false, 1);
+	}
+
+	private void runtest(boolean directbufs, int maxbatch) throws java.io.IOException
 	{
 		FileOps.deleteDirectory(rootdir);
 
@@ -46,6 +53,7 @@ public class UDPReaderTest
 		BufferGenerator.BufferConfig bufcfg = new BufferGenerator.BufferConfig(1024, false, directbufs, null);
 		BufferGenerator bufgen = new BufferGenerator(bufcfg);
 		Reader rdr = new Reader(dsptch, bufgen);
+		if (maxbatch != 0) rdr.getReader().setMaxBatch(maxbatch);
 		dsptch.loadRunnable(rdr);
 
 		// queue up incoming messages on the UDP reader